@@ -1,12 +1,24 @@
 package com.github.kokorin.jaffree.benchmark;
 
+import com.github.kokorin.jaffree.ffmpeg.ImageConverter;
 import org.openjdk.jmh.Main;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Warmup;
 
+import java.awt.Transparency;
 import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
@@ -21,6 +33,12 @@ public class ImageConversion {
     private static byte[] RGBA_SRC = new byte[4 * WIDTH * HEIGHT];
     private static byte[] ABGR_SRC = new byte[4 * WIDTH * HEIGHT];
 
+    private static BufferedImage INT_RGB_SRC = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    private static BufferedImage INT_ARGB_SRC = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+    private static ImageConverter PARALLEL_CONVERTER = new ImageConverter();
+    private static ImageConverter SEQUENTIAL_CONVERTER = new ImageConverter(new ForkJoinPool(1));
+
     static {
         for (int y = 0; y < HEIGHT; y++) {
             for (int x = 0; x < WIDTH; x++) {
@@ -39,6 +57,9 @@ public class ImageConversion {
                 ABGR_SRC[pos * 4 + 1] = (byte) (x + y);
                 ABGR_SRC[pos * 4 + 2] = (byte) ((x + y) / 10);
                 ABGR_SRC[pos * 4 + 3] = (byte) (x + y);
+
+                INT_RGB_SRC.setRGB(x, y, (x + y) << 16 | ((x + y) / 10) << 8 | (x + y) & 0xFF);
+                INT_ARGB_SRC.setRGB(x, y, 0xFF000000 | (x + y) << 16 | ((x + y) / 10) << 8 | (x + y) & 0xFF);
             }
         }
     }
@@ -149,6 +170,42 @@ public class ImageConversion {
         return image;
     }
 
+    @Benchmark
+    public BufferedImage IntRGB_to_3ByteBGR_setData() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        image.setData(INT_RGB_SRC.getRaster());
+
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage IntRGB_to_3ByteBGR_converterSequential() {
+        return SEQUENTIAL_CONVERTER.toBgr(INT_RGB_SRC);
+    }
+
+    @Benchmark
+    public BufferedImage IntRGB_to_3ByteBGR_converterParallel() {
+        return PARALLEL_CONVERTER.toBgr(INT_RGB_SRC);
+    }
+
+    @Benchmark
+    public BufferedImage IntARGB_to_4ByteABGR_setData() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_4BYTE_ABGR);
+        image.setData(INT_ARGB_SRC.getRaster());
+
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage IntARGB_to_4ByteABGR_converterSequential() {
+        return SEQUENTIAL_CONVERTER.toAbgr(INT_ARGB_SRC);
+    }
+
+    @Benchmark
+    public BufferedImage IntARGB_to_4ByteABGR_converterParallel() {
+        return PARALLEL_CONVERTER.toAbgr(INT_ARGB_SRC);
+    }
+
     public static void main(String[] args) throws Exception {
         Main.main(args);
     }
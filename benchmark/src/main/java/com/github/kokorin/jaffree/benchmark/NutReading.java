@@ -0,0 +1,115 @@
+package com.github.kokorin.jaffree.benchmark;
+
+import com.github.kokorin.jaffree.Rational;
+import com.github.kokorin.jaffree.nut.DataItem;
+import com.github.kokorin.jaffree.nut.FrameCode;
+import com.github.kokorin.jaffree.nut.Info;
+import com.github.kokorin.jaffree.nut.NutBufferPool;
+import com.github.kokorin.jaffree.nut.NutFrame;
+import com.github.kokorin.jaffree.nut.NutInputStream;
+import com.github.kokorin.jaffree.nut.NutOutputStream;
+import com.github.kokorin.jaffree.nut.NutReader;
+import com.github.kokorin.jaffree.nut.NutWriter;
+import com.github.kokorin.jaffree.nut.StreamHeader;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Measures NUT demuxing throughput with and without checksum verification.
+ */
+@Warmup(iterations = 3, time = 500, timeUnit = MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = MILLISECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NutReading {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int FRAME_COUNT = 250;
+    private static final int SAMPLES_PER_FRAME = 1764;
+
+    private static final byte[] NUT = createNut();
+
+    private final NutBufferPool pool = new NutBufferPool(false, 4);
+
+    @Benchmark
+    public long read() throws IOException {
+        return readAll(false);
+    }
+
+    @Benchmark
+    public long read_verifyChecksums() throws IOException {
+        return readAll(true);
+    }
+
+    private long readAll(boolean verify) throws IOException {
+        NutReader reader = new NutReader(new NutInputStream(new ByteArrayInputStream(NUT)));
+        reader.setBufferPool(pool);
+        reader.setChecksumVerification(verify);
+
+        long result = 0;
+        NutFrame frame;
+        while ((frame = reader.readFrame()) != null) {
+            result += frame.getDataSize();
+            frame.release();
+        }
+
+        return result;
+    }
+
+    private static byte[] createNut() {
+        FrameCode[] frameCodes = new FrameCode[256];
+        for (int i = 0; i < frameCodes.length; i++) {
+            frameCodes[i] = FrameCode.INVALID;
+        }
+        frameCodes[1] = new FrameCode(EnumSet.of(FrameCode.Flag.CODED_FLAGS),
+                0, 1, 0, 0, 0, 0, 0);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        NutWriter writer = new NutWriter(new NutOutputStream(output));
+        // Small max distance results in a lot of syncpoints and frame header checksums
+        writer.setMainHeader(2, 4096,
+                new Rational[]{new Rational(1, 25), new Rational(1, 44100)},
+                frameCodes);
+        writer.setStreamHeaders(new StreamHeader[]{
+                new StreamHeader(0, StreamHeader.Type.VIDEO, new byte[]{'B', 'G', 'R', 24},
+                        0, 0, 60_000, 0, EnumSet.noneOf(StreamHeader.Flag.class), new byte[0],
+                        new StreamHeader.Video(WIDTH, HEIGHT, 1, 1,
+                                StreamHeader.ColourspaceType.UNKNOWN), null),
+                new StreamHeader(1, StreamHeader.Type.AUDIO, new byte[]{32, 'D', 'S', 'P'},
+                        1, 0, 60_000, 0, EnumSet.noneOf(StreamHeader.Flag.class), new byte[0],
+                        null, new StreamHeader.Audio(new Rational(44100, 1), 2))
+        });
+        writer.setInfos(new Info[0]);
+
+        try {
+            for (int i = 0; i < FRAME_COUNT; i++) {
+                writer.writeFrame(new NutFrame(0, i, new byte[WIDTH * HEIGHT * 3],
+                        new DataItem[0], new DataItem[0], true, false));
+                writer.writeFrame(new NutFrame(1, (long) i * SAMPLES_PER_FRAME,
+                        new byte[SAMPLES_PER_FRAME * 2 * 4],
+                        new DataItem[0], new DataItem[0], true, false));
+            }
+            writer.writeFooter();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to create NUT", e);
+        }
+
+        return output.toByteArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Main.main(args);
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.kokorin.jaffree.benchmark;
+
+import com.github.kokorin.jaffree.Rational;
+import com.github.kokorin.jaffree.nut.DataItem;
+import com.github.kokorin.jaffree.nut.FrameCode;
+import com.github.kokorin.jaffree.nut.Info;
+import com.github.kokorin.jaffree.nut.NutFrame;
+import com.github.kokorin.jaffree.nut.NutOutputStream;
+import com.github.kokorin.jaffree.nut.NutWriter;
+import com.github.kokorin.jaffree.nut.StreamHeader;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.util.EnumSet;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Measures NUT muxing of audio-heavy streams: a lot of small frames, so per-frame overhead
+ * (frame ordering and frame code selection) dominates.
+ */
+@Warmup(iterations = 3, time = 500, timeUnit = MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = MILLISECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NutWriting {
+    private static final int STREAM_COUNT = 4;
+    private static final int SAMPLE_RATE = 48000;
+    private static final int SAMPLES_PER_FRAME = 64;
+    private static final int FRAME_COUNT = 10_000;
+
+    private static final NutFrame[] FRAMES = createFrames();
+
+    @Benchmark
+    public long write_singleFrameCode() throws Exception {
+        return write(createSingleFrameCode());
+    }
+
+    @Benchmark
+    public long write_fullFrameCodeTable() throws Exception {
+        return write(createFullFrameCodeTable());
+    }
+
+    private long write(FrameCode[] frameCodes) throws Exception {
+        CountingOutputStream output = new CountingOutputStream();
+        NutWriter writer = new NutWriter(new NutOutputStream(output));
+
+        Rational[] timebases = new Rational[STREAM_COUNT];
+        StreamHeader[] streamHeaders = new StreamHeader[STREAM_COUNT];
+        for (int i = 0; i < STREAM_COUNT; i++) {
+            timebases[i] = new Rational(1, SAMPLE_RATE);
+            streamHeaders[i] = new StreamHeader(i, StreamHeader.Type.AUDIO,
+                    new byte[]{'P', 'S', 'D', 16}, i, 0, 60_000, 0,
+                    EnumSet.noneOf(StreamHeader.Flag.class), new byte[0],
+                    null, new StreamHeader.Audio(new Rational(SAMPLE_RATE, 1), 2));
+        }
+
+        writer.setMainHeader(STREAM_COUNT, Short.MAX_VALUE, timebases, frameCodes);
+        writer.setStreamHeaders(streamHeaders);
+        writer.setInfos(new Info[0]);
+
+        for (NutFrame frame : FRAMES) {
+            writer.writeFrame(frame);
+        }
+        writer.writeFooter();
+
+        return output.count;
+    }
+
+    private static NutFrame[] createFrames() {
+        byte[] payload = new byte[SAMPLES_PER_FRAME * 2 * 2];
+        NutFrame[] result = new NutFrame[FRAME_COUNT * STREAM_COUNT];
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            for (int s = 0; s < STREAM_COUNT; s++) {
+                result[i * STREAM_COUNT + s] = new NutFrame(s, (long) i * SAMPLES_PER_FRAME,
+                        payload, new DataItem[0], new DataItem[0], true, false);
+            }
+        }
+        return result;
+    }
+
+    private static FrameCode[] createSingleFrameCode() {
+        FrameCode[] result = new FrameCode[256];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = FrameCode.INVALID;
+        }
+        result[1] = new FrameCode(EnumSet.of(FrameCode.Flag.CODED_FLAGS), 0, 1, 0, 0, 0, 0, 0);
+        return result;
+    }
+
+    /**
+     * Table similar to one created by ffmpeg: most of frame codes are dedicated to streams
+     * with fixed pts delta and different data sizes.
+     */
+    private static FrameCode[] createFullFrameCodeTable() {
+        FrameCode[] result = createSingleFrameCode();
+        int code = 2;
+        for (int s = 0; s < STREAM_COUNT; s++) {
+            for (int j = 0; j < 60 && code < 256; j++, code++) {
+                if (code == 'N') {
+                    result[code] = FrameCode.INVALID;
+                    j--;
+                    continue;
+                }
+                result[code] = new FrameCode(
+                        EnumSet.of(FrameCode.Flag.KEYFRAME, FrameCode.Flag.SIZE_MSB),
+                        s, 64, j, SAMPLES_PER_FRAME, 0, 0, 0);
+            }
+        }
+        return result;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Main.main(args);
+    }
+}
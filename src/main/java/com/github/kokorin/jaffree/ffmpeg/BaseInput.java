@@ -31,6 +31,7 @@ public abstract class BaseInput<T extends BaseInput<T>> extends BaseInOut<T> imp
     private String input;
     private Integer streamLoop;
     private boolean readAtFrameRate = false;
+    private boolean keyframesOnly = false;
     //-itsoffset offset (input)
     //-dump_attachment[:stream_specifier] filename (input,per-stream)
 
@@ -78,6 +79,21 @@ public abstract class BaseInput<T extends BaseInput<T>> extends BaseInOut<T> imp
         return thisAsT();
     }
 
+    /**
+     * Decode only video keyframes, other video frames are skipped by decoder without decoding.
+     * <p>
+     * Useful for thumbnails and previews: decoding CPU time is reduced by GOP length.
+     * Output should pass frames with their original timestamps, otherwise ffmpeg duplicates
+     * keyframes to fill the gaps, see {@link FrameOutput#setKeyframesOnly(boolean)}.
+     *
+     * @param keyframesOnly whether to decode only keyframes
+     * @return this
+     */
+    @SuppressWarnings("checkstyle:hiddenfield")
+    public T setKeyframesOnly(final boolean keyframesOnly) {
+        this.keyframesOnly = keyframesOnly;
+        return thisAsT();
+    }
 
     /**
      * {@inheritDoc}
@@ -94,6 +110,10 @@ public abstract class BaseInput<T extends BaseInput<T>> extends BaseInOut<T> imp
             result.add("-re");
         }
 
+        if (keyframesOnly) {
+            result.addAll(Arrays.asList("-skip_frame:v", "nokey"));
+        }
+
         result.addAll(buildCommonArguments());
 
         if (input == null) {
@@ -22,6 +22,7 @@ import com.github.kokorin.jaffree.StreamType;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -293,6 +294,7 @@ public class BaseOutput<T extends BaseOutput<T>> extends BaseInOut<T> implements
 
         result.addAll(toArguments("-frames", frames));
 
+        result.addAll(buildOutputSpecificArguments());
         result.addAll(buildCommonArguments());
 
         for (Mapping map : maps) {
@@ -308,6 +310,16 @@ public class BaseOutput<T extends BaseOutput<T>> extends BaseInOut<T> implements
         return result;
     }
 
+    /**
+     * Build a list of command line arguments specific to output implementation, they are
+     * placed before common arguments.
+     *
+     * @return list of command line arguments
+     */
+    protected List<String> buildOutputSpecificArguments() {
+        return Collections.emptyList();
+    }
+
     /**
      * {@inheritDoc}
      */
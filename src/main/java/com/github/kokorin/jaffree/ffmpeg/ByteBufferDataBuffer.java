@@ -0,0 +1,66 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import java.awt.image.DataBuffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Single bank byte {@link DataBuffer} which is backed by {@link ByteBuffer}.
+ * <p>
+ * Allows creating images over direct, read-only or memory-mapped buffers without copying
+ * pixel data. Setting elements of read-only buffer fails with
+ * {@link java.nio.ReadOnlyBufferException}.
+ */
+class ByteBufferDataBuffer extends DataBuffer {
+    private final ByteBuffer data;
+
+    /**
+     * Creates {@link ByteBufferDataBuffer}.
+     *
+     * @param data data between buffer's position and limit
+     */
+    ByteBufferDataBuffer(final ByteBuffer data) {
+        super(TYPE_BYTE, data.remaining());
+        this.data = data.slice();
+    }
+
+    /**
+     * @return data, which is shared with this buffer
+     */
+    ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("checkstyle:magicnumber")
+    public int getElem(final int bank, final int i) {
+        return data.get(i) & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setElem(final int bank, final int i, final int val) {
+        data.put(i, (byte) val);
+    }
+}
@@ -30,7 +30,11 @@ public class Frame {
     private final int streamId;
     private final long pts;
     private final BufferedImage image;
+    private final RawImage rawImage;
     private final int[] samples;
+    private final RawSamples rawSamples;
+    private final FramePool pool;
+    private boolean released = false;
 
     /**
      * Creates video {@link Frame}, samples are set to null.
@@ -58,6 +62,32 @@ public class Frame {
         this(streamId, pts, null, samples);
     }
 
+    /**
+     * Creates video {@link Frame} with raw image data, samples are set to null.
+     *
+     * @param streamId stream id (starting with 0)
+     * @param pts      pts in {@link Stream} timebase
+     * @param rawImage video frame data in stream's pixel format
+     * @see Stream#getTimebase()
+     * @see Stream#getPixelFormat()
+     */
+    public Frame(final int streamId, final long pts, final RawImage rawImage) {
+        this(streamId, pts, null, rawImage, null, null, null);
+    }
+
+    /**
+     * Creates audio {@link Frame} with raw samples, image is set to null.
+     *
+     * @param streamId   stream id (starting with 0)
+     * @param pts        pts in {@link Stream} timebase
+     * @param rawSamples audio samples in stream's sample format
+     * @see Stream#getTimebase()
+     * @see Stream#getSampleFormat()
+     */
+    public Frame(final int streamId, final long pts, final RawSamples rawSamples) {
+        this(streamId, pts, null, null, null, rawSamples, null);
+    }
+
     /**
      * Creates {@link Frame}.
      *
@@ -69,19 +99,43 @@ public class Frame {
      */
     public Frame(final int streamId, final long pts, final BufferedImage image,
                  final int[] samples) {
-        if (image != null && samples != null) {
+        this(streamId, pts, image, null, samples, null, null);
+    }
+
+    /**
+     * Creates {@link Frame} which image or samples are returned to the pool on release.
+     *
+     * @param streamId   streamId
+     * @param pts        pts in {@link Stream} timebase
+     * @param image      video frame image
+     * @param rawImage   video frame data
+     * @param samples    audio samples in PCM S32BE format
+     * @param rawSamples audio samples
+     * @param pool       pool to return image or samples to on {@link #release()}, or null
+     */
+    @SuppressWarnings("checkstyle:parameternumber")
+    Frame(final int streamId, final long pts, final BufferedImage image, final RawImage rawImage,
+          final int[] samples, final RawSamples rawSamples, final FramePool pool) {
+        int nonNull = (image != null ? 1 : 0) + (rawImage != null ? 1 : 0)
+                + (samples != null ? 1 : 0) + (rawSamples != null ? 1 : 0);
+        if (nonNull > 1) {
             throw new IllegalArgumentException(
-                    "Only one of image and samples parameters may be non null");
+                    "Only one of image, raw image, samples and raw samples parameters "
+                            + "may be non null");
         }
-        if (image == null && samples == null) {
+        if (nonNull == 0) {
             throw new IllegalArgumentException(
-                    "One of image and samples parameters must be non null");
+                    "One of image, raw image, samples and raw samples parameters "
+                            + "must be non null");
         }
 
         this.streamId = streamId;
         this.pts = pts;
         this.image = image;
+        this.rawImage = rawImage;
         this.samples = samples;
+        this.rawSamples = rawSamples;
+        this.pool = pool;
     }
 
     /**
@@ -105,22 +159,87 @@ public class Frame {
 
     /**
      * Returns video frame image (or null if current frame isn't video frame).
+     * <p>
+     * If frame holds {@link RawImage}, it's converted to {@link BufferedImage} on the first
+     * invocation.
      *
      * @return video frame image
      */
     public BufferedImage getImage() {
+        if (rawImage != null) {
+            return rawImage.toBufferedImage();
+        }
         return image;
     }
 
+    /**
+     * Returns raw video frame data (or null if frame holds no raw image).
+     * <p>
+     * Frames read from ffmpeg hold raw image if pixel format is other than bgr24 or abgr.
+     *
+     * @return raw image
+     * @see FrameOutput#setPixelFormat(PixelFormat)
+     */
+    public RawImage getRawImage() {
+        return rawImage;
+    }
+
     /**
      * Returns audio samples (or null if current frame isn't audio frame).
+     * <p>
+     * If frame holds {@link RawSamples}, they're converted to int array on the first invocation.
      *
      * @return audio samples in PCM S32BE format
      */
     public int[] getSamples() {
+        if (rawSamples != null) {
+            return rawSamples.toIntArray();
+        }
         return samples;
     }
 
+    /**
+     * Returns raw audio samples (or null if frame holds no raw samples).
+     * <p>
+     * Frames read from ffmpeg hold raw samples if sample format is other than pcm_s32be.
+     *
+     * @return raw samples
+     * @see FrameOutput#setSampleFormat(SampleFormat)
+     */
+    public RawSamples getRawSamples() {
+        return rawSamples;
+    }
+
+    /**
+     * Creates frame with the same image or samples, but another pts.
+     * <p>
+     * Only one of frames which share image or samples may return them to the pool.
+     *
+     * @param newPts pts of created frame
+     * @param pooled whether created frame returns image or samples to the pool on release
+     * @return frame
+     */
+    Frame withPts(final long newPts, final boolean pooled) {
+        return new Frame(streamId, newPts, image, rawImage, samples, rawSamples,
+                pooled ? pool : null);
+    }
+
+    /**
+     * Returns frame's image or samples to the pool for reuse, if the frame has been produced
+     * in recycling mode (see {@link FrameOutput#setFrameRecycling(boolean)}).
+     * <p>
+     * Frame's image and samples must not be accessed after this method has been called.
+     * Does nothing if frame isn't pooled.
+     */
+    public void release() {
+        if (pool == null || released) {
+            return;
+        }
+
+        released = true;
+        pool.release(this);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -130,7 +249,9 @@ public class Frame {
                 + "streamId=" + streamId
                 + ", pts=" + pts
                 + ", image?=" + (image != null)
+                + ", rawImage?=" + (rawImage != null)
                 + ", samples?=" + (samples != null)
+                + ", rawSamples?=" + (rawSamples != null)
                 + '}';
     }
 }
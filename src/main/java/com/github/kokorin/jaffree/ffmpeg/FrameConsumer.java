@@ -40,4 +40,22 @@ public interface FrameConsumer {
      * @param frame frame
      */
     void consume(Frame frame);
+
+    /**
+     * Called with several frames which have been read at once, instead of calling
+     * {@link #consume(Frame)} for every one of them.
+     * <p>
+     * Frames are passed in the same order as to {@link #consume(Frame)}, EOF is still notified
+     * with {@link #consume(Frame)}. Frames array may be reused after this method returns.
+     * <p>
+     * Default implementation calls {@link #consume(Frame)} for every frame.
+     *
+     * @param frames frames
+     * @param count  number of frames in the array, starting from 0
+     */
+    default void consumeBatch(Frame[] frames, int count) {
+        for (int i = 0; i < count; i++) {
+            consume(frames[i]);
+        }
+    }
 }
@@ -17,9 +17,13 @@
 
 package com.github.kokorin.jaffree.ffmpeg;
 
+import com.github.kokorin.jaffree.nut.FlushPolicy;
+import com.github.kokorin.jaffree.util.SocketUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -33,6 +37,10 @@ public class FrameInput extends TcpInput<FrameInput> implements Input {
     private boolean alpha;
     private boolean frameRateSet;
     private Long frameOrderingBufferMillis;
+    private FlushPolicy flushPolicy = FlushPolicy.PACKET;
+    private int batchSize = 1;
+    private PacedFrameProducer.LatePolicy latePolicy;
+    private volatile PacedFrameProducer pacedProducer;
 
     private final FrameProducer producer;
 
@@ -124,6 +132,75 @@ public class FrameInput extends TcpInput<FrameInput> implements Input {
         return this;
     }
 
+    /**
+     * Sets when produced frames are flushed to ffmpeg.
+     * <p>
+     * {@link FlushPolicy#LOW_LATENCY} passes every frame to ffmpeg as soon as it's written,
+     * which is useful for live streaming. {@link FlushPolicy#THROUGHPUT} coalesces small frames
+     * (e.g. audio) into big socket writes. By default data is flushed after every NUT packet.
+     *
+     * @param flushPolicy flush policy
+     * @return this
+     */
+    public FrameInput setFlushPolicy(final FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+        return this;
+    }
+
+    /**
+     * Sets number of frames requested from {@link FrameProducer#produceBatch(Frame[])} at once.
+     * <p>
+     * Batches reduce per-frame overhead for streams with a lot of small frames, but frames
+     * aren't passed to ffmpeg until the whole batch is produced.
+     *
+     * @param batchSize batch size, 1 by default
+     * @return this
+     * @see NutFrameSupplier#setBatchSize(int)
+     */
+    public FrameInput setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Enables real-time pacing: frames are passed to ffmpeg when their pts is reached
+     * on a monotonic clock, instead of as fast as {@link FrameProducer} produces them.
+     * <p>
+     * Useful for live streaming, where ffmpeg would otherwise buffer frames produced ahead of
+     * time. For the lowest latency combine it with {@link FlushPolicy#LOW_LATENCY} and
+     * zero frame ordering buffer (if frames are produced in timestamp order).
+     *
+     * @param policy what to do with late frames, or null to disable pacing
+     * @return this
+     * @see PacedFrameProducer
+     * @see #getPacedProducer()
+     */
+    public FrameInput setPacing(final PacedFrameProducer.LatePolicy policy) {
+        this.latePolicy = policy;
+        return this;
+    }
+
+    /**
+     * Returns pacing producer, which exposes pacing statistics.
+     *
+     * @return paced producer, or null if pacing is disabled or ffmpeg hasn't been started
+     * @see #setPacing(PacedFrameProducer.LatePolicy)
+     */
+    public PacedFrameProducer getPacedProducer() {
+        return pacedProducer;
+    }
+
+    /**
+     * Allocates server socket backed by {@link ServerSocketChannel}, so NUT stream can be written
+     * with gathering writes, without copying frame data.
+     *
+     * @return server socket
+     */
+    @Override
+    protected ServerSocket allocateSocket() {
+        return SocketUtil.allocateChannelSocket();
+    }
+
     /**
      * Creates {@link com.github.kokorin.jaffree.ffmpeg.TcpInput.Supplier} which is capable of
      * reading frames from {@link FrameProducer} and passing them to ffmpeg via TCP socket.
@@ -137,7 +214,14 @@ public class FrameInput extends TcpInput<FrameInput> implements Input {
                     + "otherwise video encoding may be slower (by 20-50 times) "
                     + "and may produce corrupted video");
         }
-        return new NutFrameSupplier(producer, alpha, frameOrderingBufferMillis);
+        FrameProducer frameProducer = producer;
+        if (latePolicy != null) {
+            pacedProducer = new PacedFrameProducer(producer).setLatePolicy(latePolicy);
+            frameProducer = pacedProducer;
+        }
+        return new NutFrameSupplier(frameProducer, alpha, frameOrderingBufferMillis)
+                .setFlushPolicy(flushPolicy)
+                .setBatchSize(batchSize);
     }
 
     /**
@@ -0,0 +1,324 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.Rational;
+import com.github.kokorin.jaffree.nut.Util;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link FrameProducer} which merges frames produced concurrently for several streams.
+ * <p>
+ * Every stream has its own {@link Sink}, so e.g. video and audio can be rendered by separate
+ * threads without any external synchronization. Frames are passed to ffmpeg in timestamp
+ * order: the next frame is taken only when every open sink has a frame (or is closed),
+ * and the one with the lowest timestamp is chosen (k-way merge). Frames with equal timestamps
+ * are taken in stream id order.
+ * <p>
+ * Sinks are bounded single-producer single-consumer ring buffers without locks: a thread which
+ * pushes frames to a full sink waits until ffmpeg catches up, the thread which writes to ffmpeg
+ * waits only for sinks which are neither closed nor have buffered frames.
+ * <p>
+ * Merger is backed by {@link FrameInput} (see {@link #getInput()}) which must be added to
+ * {@link FFmpeg}. Merged frames are already ordered, so frame ordering buffer is disabled.
+ * <p>
+ * Every stream must be closed with {@link Sink#close()} after its last frame, otherwise
+ * ffmpeg input never ends.
+ */
+public class FrameMerger implements FrameProducer {
+    private final List<Stream> streams;
+    private final Sink[] sinks;
+    private final FrameInput input;
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private volatile boolean cancelled = false;
+    // the thread which writes to ffmpeg
+    private volatile Thread consumer;
+
+    /**
+     * Default number of frames buffered in every sink.
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private static final Rational NANOSECONDS = new Rational(1, 1_000_000_000L);
+
+    /**
+     * Creates {@link FrameMerger} with default sink capacity.
+     *
+     * @param streams streams, every stream gets its own sink
+     */
+    public FrameMerger(final List<Stream> streams) {
+        this(streams, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates {@link FrameMerger}.
+     *
+     * @param streams  streams, every stream gets its own sink
+     * @param capacity maximum number of frames buffered in every sink
+     */
+    public FrameMerger(final List<Stream> streams, final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Wrong capacity: " + capacity);
+        }
+
+        this.streams = Collections.unmodifiableList(new ArrayList<>(streams));
+        this.sinks = new Sink[streams.size()];
+        for (int i = 0; i < sinks.length; i++) {
+            Stream stream = streams.get(i);
+            if (stream.getId() != i) {
+                throw new IllegalArgumentException("Stream ids must start with 0 and "
+                        + "increase by 1 subsequently!");
+            }
+            if (stream.getTimebase() == null) {
+                throw new IllegalArgumentException("Stream timebase must be specified");
+            }
+            sinks[i] = new Sink(i, new Rational(1, stream.getTimebase()), capacity);
+        }
+
+        this.input = new FrameInput(this) {
+            @Override
+            protected Supplier supplier() {
+                final Supplier delegate = super.supplier();
+                return new Supplier() {
+                    @Override
+                    public void supplyAndClose(final OutputStream out) {
+                        try {
+                            delegate.supplyAndClose(out);
+                        } catch (RuntimeException e) {
+                            cancel();
+                            throw e;
+                        }
+                    }
+                };
+            }
+        };
+        this.input.setFrameOrderingBuffer(0);
+    }
+
+    /**
+     * Returns {@link FrameInput} to pass to {@link FFmpeg}, it may be configured further.
+     *
+     * @return frame input
+     */
+    public FrameInput getInput() {
+        return input;
+    }
+
+    /**
+     * Returns sink for the stream.
+     *
+     * @param streamId stream id
+     * @return sink
+     */
+    public Sink getSink(final int streamId) {
+        return sinks[streamId];
+    }
+
+    @Override
+    public List<Stream> produceStreams() {
+        return streams;
+    }
+
+    /**
+     * Waits for frames from all open sinks and returns the one with the lowest timestamp.
+     *
+     * @return frame, or null if all sinks are closed and drained
+     */
+    @Override
+    public Frame produce() {
+        if (consumer == null) {
+            consumer = Thread.currentThread();
+        }
+
+        while (true) {
+            checkError();
+
+            Sink next = null;
+            boolean ready = true;
+            for (Sink sink : sinks) {
+                // closed must be read before tail: once sink is closed its tail is final
+                boolean closed = sink.closed;
+                long head = sink.head.get();
+                if (head == sink.tail.get()) {
+                    if (closed) {
+                        continue;
+                    }
+                    ready = false;
+                    break;
+                }
+                if (next == null || sink.peekNanos() < next.peekNanos()) {
+                    next = sink;
+                }
+            }
+
+            if (ready) {
+                return next == null ? null : next.poll();
+            }
+
+            // woken up by any push, close or abort
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new RuntimeException("Interrupted while waiting for frames");
+            }
+        }
+    }
+
+    private void checkError() {
+        Throwable throwable = error.get();
+        if (throwable != null) {
+            throw new RuntimeException("Frame producer has failed", throwable);
+        }
+    }
+
+    private void cancel() {
+        cancelled = true;
+        for (Sink sink : sinks) {
+            LockSupport.unpark(sink.waitingProducer);
+        }
+    }
+
+    private void wakeUpConsumer() {
+        Thread toWakeUp = consumer;
+        if (toWakeUp != null) {
+            LockSupport.unpark(toWakeUp);
+        }
+    }
+
+    /**
+     * Sink for frames of a single stream.
+     * <p>
+     * Sink may be used from any thread, but frames of the stream must be pushed by one thread
+     * at a time.
+     */
+    public final class Sink {
+        private final int streamId;
+        private final Rational timebase;
+        private final Frame[] frames;
+        private final long[] timestamps;
+        // written only by the producer
+        private final AtomicLong tail = new AtomicLong();
+        // written only by the thread which writes to ffmpeg
+        private final AtomicLong head = new AtomicLong();
+        private volatile boolean closed = false;
+        private volatile Thread waitingProducer;
+        private long lastPts = Long.MIN_VALUE;
+
+        private Sink(final int streamId, final Rational timebase, final int capacity) {
+            this.streamId = streamId;
+            this.timebase = timebase;
+            this.frames = new Frame[capacity];
+            this.timestamps = new long[capacity];
+        }
+
+        /**
+         * Pushes frame, waits if the sink is full.
+         *
+         * @param frame frame of this sink's stream, pts must not decrease
+         * @throws CancellationException if ffmpeg has stopped reading frames
+         */
+        public void push(final Frame frame) {
+            if (closed) {
+                throw new IllegalStateException("Sink is closed: " + streamId);
+            }
+            if (frame.getStreamId() != streamId) {
+                throw new IllegalArgumentException("Frame of stream " + frame.getStreamId()
+                        + " is pushed to sink " + streamId);
+            }
+            if (frame.getPts() < lastPts) {
+                throw new IllegalArgumentException("Unordered frames in stream " + streamId
+                        + ": " + frame.getPts() + " after " + lastPts);
+            }
+
+            long position = tail.get();
+            while (position - head.get() >= frames.length) {
+                checkCancelled();
+                // head must be re-read after publishing itself, see poll()
+                waitingProducer = Thread.currentThread();
+                if (position - head.get() >= frames.length && !cancelled) {
+                    LockSupport.park(this);
+                }
+                waitingProducer = null;
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Interrupted while waiting for free space");
+                }
+            }
+            checkCancelled();
+
+            int index = (int) (position % frames.length);
+            frames[index] = frame;
+            timestamps[index] = Util.convertTimestamp(frame.getPts(), timebase, NANOSECONDS);
+            lastPts = frame.getPts();
+            tail.set(position + 1);
+            wakeUpConsumer();
+        }
+
+        /**
+         * Marks end of the stream: no frames can be pushed after this call.
+         */
+        public void close() {
+            closed = true;
+            wakeUpConsumer();
+        }
+
+        /**
+         * Fails ffmpeg input, e.g. if the stream can't be rendered.
+         *
+         * @param cause failure cause
+         */
+        public void abort(final Throwable cause) {
+            error.compareAndSet(null, cause);
+            closed = true;
+            wakeUpConsumer();
+        }
+
+        private long peekNanos() {
+            return timestamps[(int) (head.get() % frames.length)];
+        }
+
+        private Frame poll() {
+            long position = head.get();
+            int index = (int) (position % frames.length);
+            Frame result = frames[index];
+            frames[index] = null;
+            head.set(position + 1);
+
+            Thread producer = waitingProducer;
+            if (producer != null) {
+                LockSupport.unpark(producer);
+            }
+            return result;
+        }
+
+        private void checkCancelled() {
+            if (cancelled) {
+                throw new CancellationException("Stopped reading frames");
+            }
+        }
+    }
+}
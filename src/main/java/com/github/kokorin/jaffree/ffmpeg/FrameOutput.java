@@ -18,6 +18,15 @@
 package com.github.kokorin.jaffree.ffmpeg;
 
 import com.github.kokorin.jaffree.StreamType;
+import com.github.kokorin.jaffree.util.SocketUtil;
+
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Allows to consume in Java audio & video frames produced by ffmpeg.
@@ -25,6 +34,13 @@ import com.github.kokorin.jaffree.StreamType;
 public class FrameOutput extends TcpOutput<FrameOutput> implements Output {
     private final FrameConsumer consumer;
     private final boolean alpha;
+    private boolean pipelined = false;
+    private int pipelineQueueDepth = PipelinedNutFrameConsumer.DEFAULT_QUEUE_DEPTH;
+    private int conversionThreads = Runtime.getRuntime().availableProcessors();
+    private Set<Integer> streamFilter;
+    private boolean frameRecycling = false;
+    private int batchSize = NutFrameConsumer.DEFAULT_BATCH_SIZE;
+    private boolean keyframesOnly = false;
 
     /**
      * Creates {@link FrameOutput}.
@@ -45,6 +61,165 @@ public class FrameOutput extends TcpOutput<FrameOutput> implements Output {
         setCodec(StreamType.AUDIO, "pcm_s32be");
     }
 
+    /**
+     * Sets pixel format of video frames produced by ffmpeg.
+     * <p>
+     * With bgr24 (default) and abgr pixel formats {@link Frame} holds
+     * {@link java.awt.image.BufferedImage}. With other formats {@link Frame#getRawImage()}
+     * holds image data as it has been produced by ffmpeg, and image is created only when
+     * {@link Frame#getImage()} is called.
+     * Compact formats reduce amount of data passed via socket: e.g. yuv420p takes half the bytes
+     * of bgr24.
+     *
+     * @param pixelFormat pixel format
+     * @return this
+     */
+    public FrameOutput setPixelFormat(final PixelFormat pixelFormat) {
+        return setPixelFormat(pixelFormat.getName());
+    }
+
+    /**
+     * Sets sample format of audio frames produced by ffmpeg.
+     * <p>
+     * With pcm_s32be (default) {@link Frame#getSamples()} holds int array. With other formats
+     * {@link Frame#getRawSamples()} holds samples as they have been produced by ffmpeg,
+     * typed views are available without copying. E.g. pcm_s16le halves audio bandwidth.
+     *
+     * @param sampleFormat sample format
+     * @return this
+     */
+    public FrameOutput setSampleFormat(final SampleFormat sampleFormat) {
+        return setCodec(StreamType.AUDIO, sampleFormat.getCodec());
+    }
+
+    /**
+     * Passes video frames with their original timestamps, without duplicating or dropping
+     * frames to keep constant frame rate.
+     * <p>
+     * Should be used together with {@link BaseInput#setKeyframesOnly(boolean)} for thumbnail
+     * and preview generation: only keyframes are decoded by ffmpeg and passed via socket,
+     * {@link Frame#getPts()} of every frame is the keyframe's pts.
+     *
+     * @param keyframesOnly whether frames are passed with their original timestamps
+     * @return this
+     */
+    public FrameOutput setKeyframesOnly(final boolean keyframesOnly) {
+        this.keyframesOnly = keyframesOnly;
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<String> buildOutputSpecificArguments() {
+        if (keyframesOnly) {
+            return Arrays.asList("-vsync", "passthrough");
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Enables pipelined reading: NUT stream is read, frames are converted and passed to
+     * {@link FrameConsumer} in different threads, so slow consumer doesn't stall ffmpeg
+     * until the pipeline queue is full.
+     *
+     * @param pipelined true to read in pipeline
+     * @return this
+     * @see PipelinedNutFrameConsumer
+     */
+    public FrameOutput setPipelined(final boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of frames which have been read but not passed to
+     * {@link FrameConsumer} yet. Used only if pipelined reading is enabled.
+     *
+     * @param queueDepth queue depth
+     * @return this
+     * @see #setPipelined(boolean)
+     */
+    public FrameOutput setPipelineQueueDepth(final int queueDepth) {
+        this.pipelineQueueDepth = queueDepth;
+        return this;
+    }
+
+    /**
+     * Sets number of threads which convert frames. Used only if pipelined reading is enabled.
+     *
+     * @param conversionThreads number of threads
+     * @return this
+     * @see #setPipelined(boolean)
+     */
+    public FrameOutput setConversionThreads(final int conversionThreads) {
+        this.conversionThreads = conversionThreads;
+        return this;
+    }
+
+    /**
+     * Sets streams to pass to {@link FrameConsumer}.
+     * <p>
+     * Frames of other streams are skipped while reading: their data isn't read into memory
+     * and isn't converted. All streams are still reported with
+     * {@link FrameConsumer#consumeStreams(java.util.List)}.
+     * <p>
+     * Note: it's more efficient to not output unneeded streams from ffmpeg at all
+     * (e.g. with {@link #addMap(int, StreamType)}), stream filter is useful when
+     * ffmpeg output can't be changed.
+     *
+     * @param streamIds ids of streams to pass
+     * @return this
+     */
+    public FrameOutput setStreamFilter(final Integer... streamIds) {
+        this.streamFilter = new HashSet<>(Arrays.asList(streamIds));
+        return this;
+    }
+
+    /**
+     * Enables frame recycling to reduce allocation rate.
+     * <p>
+     * {@link FrameConsumer} should call {@link Frame#release()} when it's done with a frame:
+     * released image (or audio samples) is reused for one of the next frames of the same stream,
+     * so neither frame, nor its image or samples may be used after release.
+     * Frames which aren't released are simply garbage collected.
+     *
+     * @param frameRecycling true to recycle frames
+     * @return this
+     */
+    public FrameOutput setFrameRecycling(final boolean frameRecycling) {
+        this.frameRecycling = frameRecycling;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of frames passed to {@link FrameConsumer#consumeBatch} at once.
+     * <p>
+     * Batching is disabled by default (batch size 1): every frame is passed with
+     * {@link FrameConsumer#consume(Frame)} as soon as it is converted. Only frames which have
+     * been already received are batched and pending frames are delivered before waiting for
+     * more data, but the first frames of a batch still wait until the whole batch is converted.
+     *
+     * @param batchSize maximum batch size
+     * @return this
+     */
+    public FrameOutput setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Allocates server socket backed by {@link ServerSocketChannel}, so NUT stream can be read
+     * with NIO into a direct buffer.
+     *
+     * @return server socket
+     */
+    @Override
+    protected ServerSocket allocateSocket() {
+        return SocketUtil.allocateChannelSocket();
+    }
+
     /**
      * Creates {@link com.github.kokorin.jaffree.ffmpeg.TcpOutput.Consumer} which is capable of
      * reading frames from ffmpeg via TCP socket and passing them to {@link FrameConsumer}.
@@ -53,7 +228,18 @@ public class FrameOutput extends TcpOutput<FrameOutput> implements Output {
      */
     @Override
     protected Consumer consumer() {
-        return new NutFrameConsumer(consumer, alpha);
+        if (pipelined) {
+            return new PipelinedNutFrameConsumer(consumer, alpha)
+                    .setQueueDepth(pipelineQueueDepth)
+                    .setConversionThreads(conversionThreads)
+                    .setStreamFilter(streamFilter)
+                    .setFrameRecycling(frameRecycling)
+                    .setBatchSize(batchSize);
+        }
+        return new NutFrameConsumer(consumer, alpha)
+                .setStreamFilter(streamFilter)
+                .setFrameRecycling(frameRecycling)
+                .setBatchSize(batchSize);
     }
 
     /**
@@ -0,0 +1,161 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Per-stream pool of images, audio sample arrays and raw data buffers of released {@link Frame}s.
+ * <p>
+ * Frames produced in recycling mode should be released with {@link Frame#release()} once
+ * they are no longer needed, their images and samples are then reused for subsequent frames
+ * of the same stream. At most {@code maxIdle} images and sample arrays are retained per stream.
+ * <p>
+ * Pool is thread-safe: frames may be released by a thread other than the converting one.
+ */
+public class FramePool {
+    private final int maxIdle;
+    private final Map<Integer, Deque<BufferedImage>> images = new HashMap<>();
+    private final Map<Integer, Deque<int[]>> samples = new HashMap<>();
+    private final Map<Integer, Deque<ByteBuffer>> rawData = new HashMap<>();
+    private long allocationCount = 0;
+
+    /**
+     * Creates {@link FramePool}.
+     *
+     * @param maxIdle maximum number of released images (and sample arrays) kept per stream
+     */
+    public FramePool(final int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must be non negative");
+        }
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Returns released image of the stream.
+     *
+     * @param streamId stream id
+     * @return image, or null if there is no released image and new one must be allocated
+     */
+    synchronized BufferedImage acquireImage(final int streamId) {
+        Deque<BufferedImage> idle = images.get(streamId);
+        if (idle == null || idle.isEmpty()) {
+            allocationCount++;
+            return null;
+        }
+        return idle.pollLast();
+    }
+
+    /**
+     * Returns released sample array of the stream with exactly the specified length.
+     *
+     * @param streamId stream id
+     * @param length   number of samples
+     * @return samples, or null if there is no suitable array and new one must be allocated
+     */
+    synchronized int[] acquireSamples(final int streamId, final int length) {
+        Deque<int[]> idle = samples.get(streamId);
+        if (idle != null) {
+            Iterator<int[]> iterator = idle.descendingIterator();
+            while (iterator.hasNext()) {
+                int[] candidate = iterator.next();
+                if (candidate.length == length) {
+                    iterator.remove();
+                    return candidate;
+                }
+            }
+        }
+
+        allocationCount++;
+        return null;
+    }
+
+    /**
+     * Returns released raw image (or raw samples) data buffer of the stream.
+     *
+     * @param streamId stream id
+     * @param length   required buffer length
+     * @return buffer with position 0, limit set to the length and undefined content,
+     * or null if there is no suitable buffer and new one must be allocated
+     */
+    synchronized ByteBuffer acquireRawData(final int streamId, final int length) {
+        Deque<ByteBuffer> idle = rawData.get(streamId);
+        if (idle != null) {
+            Iterator<ByteBuffer> iterator = idle.descendingIterator();
+            while (iterator.hasNext()) {
+                ByteBuffer candidate = iterator.next();
+                if (candidate.capacity() >= length) {
+                    iterator.remove();
+                    candidate.clear();
+                    candidate.limit(length);
+                    return candidate;
+                }
+            }
+        }
+
+        allocationCount++;
+        return null;
+    }
+
+    /**
+     * Returns frame's image or samples to the pool.
+     *
+     * @param frame frame to release
+     */
+    synchronized void release(final Frame frame) {
+        if (frame.getRawImage() != null) {
+            add(rawData, frame.getStreamId(), frame.getRawImage().getData());
+        } else if (frame.getRawSamples() != null) {
+            add(rawData, frame.getStreamId(), frame.getRawSamples().getData());
+        } else if (frame.getImage() != null) {
+            add(images, frame.getStreamId(), frame.getImage());
+        } else if (frame.getSamples() != null) {
+            add(samples, frame.getStreamId(), frame.getSamples());
+        }
+    }
+
+    /**
+     * Returns number of images and sample arrays allocated because there were no released ones.
+     * <p>
+     * For a steady stream this value stops growing once the pool is warmed up.
+     *
+     * @return number of allocations
+     */
+    public synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+
+    private <T> void add(final Map<Integer, Deque<T>> pool, final int streamId, final T item) {
+        Deque<T> idle = pool.get(streamId);
+        if (idle == null) {
+            idle = new ArrayDeque<>();
+            pool.put(streamId, idle);
+        }
+
+        if (idle.size() < maxIdle) {
+            idle.addLast(item);
+        }
+    }
+}
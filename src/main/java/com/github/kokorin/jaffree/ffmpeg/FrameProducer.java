@@ -38,11 +38,35 @@ public interface FrameProducer {
      * <p>
      * When there is no more frame, method should return {@code}null{@code} value.
      * <p>
-     * Method must return video frames with {@link java.awt.image.BufferedImage BufferedImage}s
-     * either in {@link java.awt.image.BufferedImage#TYPE_4BYTE_ABGR TYPE_4BYTE_ABGR},
-     * or in {@link java.awt.image.BufferedImage#TYPE_3BYTE_BGR TYPE_3BYTE_BGR} formats
+     * Video frames with {@link java.awt.image.BufferedImage BufferedImage}s
+     * in {@link java.awt.image.BufferedImage#TYPE_4BYTE_ABGR TYPE_4BYTE_ABGR}
+     * or {@link java.awt.image.BufferedImage#TYPE_3BYTE_BGR TYPE_3BYTE_BGR} formats are written
+     * without conversion, images of other types are converted with {@link ImageConverter}.
      *
      * @return Frame
      */
     Frame produce();
+
+    /**
+     * Called repeatedly to get several frames at once.
+     * <p>
+     * Method must fill the whole array unless there are no more frames: returned value less
+     * than array length means end of frames.
+     * <p>
+     * Default implementation calls {@link #produce()} until the array is full or there is no
+     * more frames. Producers which have frames ready in bulk (e.g. audio with small packets)
+     * may override it to reduce per-frame overhead.
+     *
+     * @param frames array to put frames to
+     * @return number of frames put to the array
+     */
+    default int produceBatch(Frame[] frames) {
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = produce();
+            if (frames[i] == null) {
+                return i;
+            }
+        }
+        return frames.length;
+    }
 }
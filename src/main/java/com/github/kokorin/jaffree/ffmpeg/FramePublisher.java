@@ -0,0 +1,280 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reactive Streams {@link Publisher} of frames produced by ffmpeg.
+ * <p>
+ * Publisher is backed by {@link FrameOutput} (see {@link #getOutput()}) which must be added
+ * to {@link FFmpeg}. Demand is mapped onto socket reads: while subscriber hasn't requested
+ * more frames, frames aren't read from the socket, so ffmpeg is slowed down by TCP flow control
+ * and the number of in-flight frames is bounded by subscriber's demand (and socket buffers).
+ * <p>
+ * Only one subscriber is supported. Frames are signalled from the thread which reads ffmpeg
+ * output. If subscription is cancelled, reading stops and ffmpeg fails to write its output.
+ * If reading fails, the failure is signalled with {@link Subscriber#onError(Throwable)}.
+ * <p>
+ * <b>Note</b>: {@code org.reactivestreams:reactive-streams} is an optional dependency of Jaffree,
+ * it must be added to the classpath to use this class.
+ */
+public class FramePublisher implements Publisher<Frame>, FrameConsumer {
+    private final FrameOutput output;
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private Subscriber<? super Frame> subscriber;
+    private long demand = 0;
+    private boolean cancelled = false;
+    private boolean terminated = false;
+    // non-positive request, see Reactive Streams rule 3.9
+    private Throwable requestError;
+    // completion or failure which happened before subscription
+    private boolean pendingComplete = false;
+    private Throwable pendingError;
+
+    private volatile List<Stream> streams;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FramePublisher.class);
+
+    /**
+     * Creates {@link FramePublisher}.
+     *
+     * @param alpha video stream alpha channel
+     */
+    public FramePublisher(final boolean alpha) {
+        this.output = new FrameOutput(this, alpha) {
+            @Override
+            protected Consumer consumer() {
+                final Consumer delegate = super.consumer();
+                return new Consumer() {
+                    @Override
+                    public void consumeAndClose(final InputStream in) {
+                        try {
+                            delegate.consumeAndClose(in);
+                        } catch (RuntimeException e) {
+                            signalError(e);
+                            throw e;
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns {@link FrameOutput} to pass to {@link FFmpeg}, it may be configured further.
+     *
+     * @return frame output
+     */
+    public FrameOutput getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns streams produced by ffmpeg.
+     *
+     * @return streams, or null if ffmpeg hasn't started producing output yet
+     */
+    public List<Stream> getStreams() {
+        return streams;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void subscribe(final Subscriber<? super Frame> newSubscriber) {
+        if (newSubscriber == null) {
+            throw new NullPointerException("Subscriber must be non null");
+        }
+
+        boolean accepted;
+        synchronized (lock) {
+            accepted = subscriber == null;
+            if (accepted) {
+                subscriber = newSubscriber;
+            }
+        }
+
+        if (!accepted) {
+            newSubscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(final long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            newSubscriber.onError(new IllegalStateException(
+                    "FramePublisher supports only one subscriber"));
+            return;
+        }
+
+        newSubscriber.onSubscribe(new FrameSubscription());
+
+        Throwable error;
+        synchronized (lock) {
+            if (terminated || cancelled || !(pendingComplete || pendingError != null)) {
+                return;
+            }
+            terminated = true;
+            error = pendingError;
+        }
+        if (error != null) {
+            newSubscriber.onError(error);
+        } else {
+            newSubscriber.onComplete();
+        }
+    }
+
+    /**
+     * Signals reading failure to subscriber, if it hasn't been terminated yet.
+     *
+     * @param error error
+     */
+    public void signalError(final Throwable error) {
+        Subscriber<? super Frame> toSignal;
+        synchronized (lock) {
+            if (subscriber == null) {
+                pendingError = error;
+                return;
+            }
+            if (terminated || cancelled) {
+                LOGGER.debug("Subscriber has been already terminated", error);
+                return;
+            }
+            terminated = true;
+            toSignal = subscriber;
+        }
+        toSignal.onError(error);
+    }
+
+    @Override
+    public void consumeStreams(final List<Stream> consumedStreams) {
+        this.streams = consumedStreams;
+    }
+
+    /**
+     * Waits for subscriber's demand and signals frame to it.
+     *
+     * @param frame frame, or null to signal completion
+     */
+    @Override
+    public void consume(final Frame frame) {
+        if (frame == null) {
+            complete();
+            return;
+        }
+
+        Subscriber<? super Frame> toSignal;
+        Throwable error;
+        synchronized (lock) {
+            try {
+                while (!cancelled && requestError == null && demand == 0) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for demand", e);
+            }
+
+            if (cancelled) {
+                throw new CancellationException("Subscription has been cancelled");
+            }
+
+            toSignal = subscriber;
+            error = requestError;
+            if (error == null) {
+                demand--;
+            } else {
+                cancelled = true;
+                terminated = true;
+            }
+        }
+
+        if (error != null) {
+            toSignal.onError(error);
+            throw new CancellationException("Subscription has been cancelled: "
+                    + error.getMessage());
+        }
+        toSignal.onNext(frame);
+    }
+
+    private void complete() {
+        Subscriber<? super Frame> toSignal;
+        Throwable error;
+        synchronized (lock) {
+            if (subscriber == null) {
+                pendingComplete = true;
+                return;
+            }
+            if (terminated || cancelled) {
+                return;
+            }
+            terminated = true;
+            toSignal = subscriber;
+            error = requestError;
+        }
+
+        if (error != null) {
+            toSignal.onError(error);
+        } else {
+            toSignal.onComplete();
+        }
+    }
+
+    private class FrameSubscription implements Subscription {
+        @Override
+        public void request(final long n) {
+            synchronized (lock) {
+                if (n <= 0) {
+                    if (requestError == null) {
+                        requestError = new IllegalArgumentException(
+                                "Requested number of frames must be positive: " + n);
+                    }
+                } else {
+                    demand += n;
+                    if (demand < 0) {
+                        // Reactive Streams rule 3.17: effectively unbounded
+                        demand = Long.MAX_VALUE;
+                    }
+                }
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (lock) {
+                cancelled = true;
+                lock.notifyAll();
+            }
+        }
+    }
+}
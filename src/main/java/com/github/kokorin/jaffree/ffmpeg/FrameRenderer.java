@@ -0,0 +1,49 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import java.util.List;
+
+/**
+ * Renders frames by their sequence number, so several frames can be rendered concurrently.
+ * <p>
+ * Unlike {@link FrameProducer}, renderer must not depend on previously rendered frames:
+ * {@link #render(long)} is called from several threads and not necessarily in order.
+ *
+ * @see LookaheadFrameProducer
+ */
+public interface FrameRenderer {
+
+    /**
+     * Called once before any call to {@link #render(long)}.
+     *
+     * @return streams
+     */
+    List<Stream> produceStreams();
+
+    /**
+     * Renders frame.
+     * <p>
+     * Frames are passed to ffmpeg in sequence number order, so frames must be numbered
+     * in timestamp order.
+     *
+     * @param frameNumber sequence number of the frame, starting with 0
+     * @return frame, or null if there is no frame with such (and any greater) number
+     */
+    Frame render(long frameNumber);
+}
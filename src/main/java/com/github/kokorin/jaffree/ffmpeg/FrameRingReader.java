@@ -0,0 +1,287 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.HEADER_FRAME_COUNT;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.HEADER_MAGIC;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.HEADER_SIZE;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.HEADER_SLOTS_OFFSET;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.HEADER_SLOT_COUNT;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.HEADER_SLOT_STRIDE;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.HEADER_STATE;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.HEADER_STREAM_COUNT;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.HEADER_VERSION;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.MAGIC;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.SLOT_HEADER_SIZE;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.SLOT_LENGTH;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.SLOT_PTS;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.SLOT_SEQUENCE;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.SLOT_STREAM_ID;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.STATE_CLOSED;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.STATE_FAILED;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.STREAM_DESCRIPTOR_SIZE;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.STREAM_FOURCC;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.STREAM_HEIGHT;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.STREAM_TIMEBASE;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.STREAM_TYPE;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.STREAM_WIDTH;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.TYPE_VIDEO;
+import static com.github.kokorin.jaffree.ffmpeg.FrameRingWriter.VERSION;
+
+/**
+ * Reads frames from a ring file written by {@link FrameRingWriter}, possibly in another JVM.
+ * <p>
+ * Frames aren't copied: image and audio data of returned frames are views of the mapped file.
+ * Writer doesn't wait for readers, so a slot may be overwritten while its frame is being
+ * processed. {@link RingFrame#isValid()} should be checked after processing: if it returns
+ * false, the result must be discarded.
+ * <p>
+ * Every reader has its own position, any number of readers may read the same ring. Reader
+ * isn't thread-safe. Slot reads are ordered with load fences of {@code sun.misc.Unsafe},
+ * without Unsafe the reader relies on HotSpot and x86 load ordering.
+ */
+public class FrameRingReader implements AutoCloseable {
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final List<Stream> streams;
+    private final PixelFormat[] pixelFormats;
+    private final SampleFormat[] sampleFormats;
+    private final int slotCount;
+    private final int slotsOffset;
+    private final int slotStride;
+
+    private long nextFrameNumber = 0;
+    private long lostFrames = 0;
+
+    /**
+     * Opens ring file.
+     *
+     * @param path path to ring file
+     * @throws IOException if file can't be read
+     * @throws IllegalStateException if file isn't initialized by writer yet
+     */
+    public FrameRingReader(final Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IllegalStateException("Ring file isn't initialized: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(HEADER_MAGIC) != MAGIC) {
+                throw new IllegalStateException("Ring file isn't initialized: " + path);
+            }
+            MemoryFence.loadFence();
+            if (buffer.getInt(HEADER_VERSION) != VERSION) {
+                throw new IllegalStateException("Unsupported ring file version: "
+                        + buffer.getInt(HEADER_VERSION));
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        slotCount = buffer.getInt(HEADER_SLOT_COUNT);
+        slotsOffset = buffer.getInt(HEADER_SLOTS_OFFSET);
+        slotStride = buffer.getInt(HEADER_SLOT_STRIDE);
+
+        int streamCount = buffer.getInt(HEADER_STREAM_COUNT);
+        List<Stream> result = new ArrayList<>(streamCount);
+        pixelFormats = new PixelFormat[streamCount];
+        sampleFormats = new SampleFormat[streamCount];
+        for (int i = 0; i < streamCount; i++) {
+            result.add(readStream(i, HEADER_SIZE + i * STREAM_DESCRIPTOR_SIZE));
+        }
+        streams = Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return streams
+     */
+    public List<Stream> getStreams() {
+        return streams;
+    }
+
+    /**
+     * Returns the next frame if it has been written.
+     * <p>
+     * If reader has fallen behind by more than the ring size, lost frames are skipped,
+     * see {@link #getLostFrames()}.
+     *
+     * @return frame, or null if there is no new frame
+     * @see #isEnded()
+     */
+    public RingFrame poll() {
+        while (true) {
+            long frameNumber = nextFrameNumber;
+            int offset = slotsOffset + (int) (frameNumber % slotCount) * slotStride;
+            long expected = frameNumber * 2 + 2;
+
+            long sequence = buffer.getLong(offset + SLOT_SEQUENCE);
+            MemoryFence.loadFence();
+            if (sequence < expected) {
+                // not written yet
+                return null;
+            }
+
+            if (sequence == expected) {
+                int streamId = buffer.getInt(offset + SLOT_STREAM_ID);
+                int length = buffer.getInt(offset + SLOT_LENGTH);
+                long pts = buffer.getLong(offset + SLOT_PTS);
+                MemoryFence.loadFence();
+                if (buffer.getLong(offset + SLOT_SEQUENCE) == sequence) {
+                    nextFrameNumber++;
+                    Frame frame = createFrame(streamId, pts, offset + SLOT_HEADER_SIZE, length);
+                    return new RingFrame(frameNumber, offset, sequence, frame);
+                }
+            }
+
+            // the slot has been overwritten, jump to the oldest frame which is still available
+            long written = buffer.getLong(HEADER_FRAME_COUNT);
+            long oldest = Math.max(frameNumber + 1, written - slotCount + 1);
+            lostFrames += oldest - frameNumber;
+            nextFrameNumber = oldest;
+        }
+    }
+
+    /**
+     * @return true if writer has closed (or aborted) the ring and all frames have been read
+     * (or lost)
+     */
+    public boolean isEnded() {
+        int state = buffer.getInt(HEADER_STATE);
+        MemoryFence.loadFence();
+        return (state == STATE_CLOSED || state == STATE_FAILED)
+                && nextFrameNumber >= buffer.getLong(HEADER_FRAME_COUNT);
+    }
+
+    /**
+     * @return true if writer has aborted the ring because reading ffmpeg output failed
+     * @see FrameRingWriter#abort()
+     */
+    public boolean isFailed() {
+        return buffer.getInt(HEADER_STATE) == STATE_FAILED;
+    }
+
+    /**
+     * @return number of frames which have been overwritten before they were read
+     */
+    public long getLostFrames() {
+        return lostFrames;
+    }
+
+    /**
+     * Closes ring file. Frames returned by this reader must not be used afterwards.
+     *
+     * @throws IOException if file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Stream readStream(final int id, final int offset) {
+        byte[] fourcc = new byte[4];
+        for (int i = 0; i < fourcc.length; i++) {
+            fourcc[i] = buffer.get(offset + STREAM_FOURCC + i);
+        }
+
+        Stream stream = new Stream()
+                .setId(id)
+                .setTimebase(buffer.getLong(offset + STREAM_TIMEBASE));
+        if (buffer.getInt(offset + STREAM_TYPE) == TYPE_VIDEO) {
+            pixelFormats[id] = PixelFormat.fromFourcc(fourcc);
+            stream.setType(Stream.Type.VIDEO)
+                    .setWidth(buffer.getInt(offset + STREAM_WIDTH))
+                    .setHeight(buffer.getInt(offset + STREAM_HEIGHT))
+                    .setPixelFormat(pixelFormats[id]);
+        } else {
+            sampleFormats[id] = SampleFormat.fromFourcc(fourcc);
+            stream.setType(Stream.Type.AUDIO)
+                    .setSampleRate((long) buffer.getInt(offset + STREAM_WIDTH))
+                    .setChannels(buffer.getInt(offset + STREAM_HEIGHT))
+                    .setSampleFormat(sampleFormats[id]);
+        }
+        return stream;
+    }
+
+    private Frame createFrame(final int streamId, final long pts, final int offset,
+                              final int length) {
+        ByteBuffer data = buffer.duplicate();
+        data.position(offset);
+        data.limit(offset + length);
+
+        if (pixelFormats[streamId] != null) {
+            Stream stream = streams.get(streamId);
+            return new Frame(streamId, pts, new RawImage(pixelFormats[streamId],
+                    stream.getWidth(), stream.getHeight(), data));
+        }
+        return new Frame(streamId, pts, new RawSamples(sampleFormats[streamId], data));
+    }
+
+    /**
+     * Frame read from ring file together with its position in the ring.
+     */
+    public final class RingFrame {
+        private final long frameNumber;
+        private final int offset;
+        private final long sequence;
+        private final Frame frame;
+
+        private RingFrame(final long frameNumber, final int offset, final long sequence,
+                          final Frame frame) {
+            this.frameNumber = frameNumber;
+            this.offset = offset;
+            this.sequence = sequence;
+            this.frame = frame;
+        }
+
+        /**
+         * @return sequence number of the frame in the ring, starting with 0
+         */
+        public long getFrameNumber() {
+            return frameNumber;
+        }
+
+        /**
+         * @return frame, its data is a view of the ring file
+         */
+        public Frame getFrame() {
+            return frame;
+        }
+
+        /**
+         * Checks that frame data hasn't been overwritten by writer.
+         *
+         * @return true if frame data is still valid
+         */
+        public boolean isValid() {
+            MemoryFence.loadFence();
+            return buffer.getLong(offset + SLOT_SEQUENCE) == sequence;
+        }
+    }
+}
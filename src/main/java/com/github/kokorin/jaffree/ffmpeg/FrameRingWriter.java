@@ -0,0 +1,340 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * {@link FrameConsumer} which writes frames to a memory-mapped ring file, so frames decoded
+ * by a single ffmpeg process can be read by {@link FrameRingReader}s in other JVMs on the same
+ * host.
+ * <p>
+ * Usage: {@code new FrameRingWriter(path, slotCount, slotSize).createOutput(false)}.
+ * Every frame is copied once from the NUT stream into the next slot of the ring. Writer never
+ * waits for readers: a reader which falls behind by more than slot count loses frames.
+ * <p>
+ * File layout (big endian):
+ * <ul>
+ * <li>header: magic, version, state, stream count, slot count, slot size, slots offset,
+ * slot stride and number of written frames,</li>
+ * <li>stream descriptors: type, pixel or sample format fourcc, timebase, width and height
+ * (or sample rate and channels),</li>
+ * <li>slots: sequence, stream id, data length, pts and frame data.</li>
+ * </ul>
+ * Every slot is protected by its sequence (seqlock): frame number N is being written while
+ * slot sequence is 2N+1, and is completely written when slot sequence is 2N+2.
+ * <p>
+ * Slot sequence and frame data writes are ordered with store fences of
+ * {@code sun.misc.Unsafe}. Without Unsafe the ring relies on HotSpot and x86 store ordering.
+ * <p>
+ * If reading ffmpeg output fails, the ring must be marked as failed with {@link #abort()},
+ * otherwise readers wait for new frames forever. Output created with
+ * {@link #createOutput(boolean)} does it automatically.
+ */
+public class FrameRingWriter implements FrameConsumer {
+    private final Path path;
+    private final int slotCount;
+    private final int slotSize;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private List<Stream> streams;
+    private int slotsOffset;
+    private int slotStride;
+    private long frameNumber = 0;
+    private volatile boolean closed = false;
+
+    static final int MAGIC = 0x4A465242; // JFRB
+    static final int VERSION = 1;
+    static final int STATE_WRITING = 1;
+    static final int STATE_CLOSED = 2;
+    static final int STATE_FAILED = 3;
+
+    static final int HEADER_MAGIC = 0;
+    static final int HEADER_VERSION = 4;
+    static final int HEADER_STATE = 8;
+    static final int HEADER_STREAM_COUNT = 12;
+    static final int HEADER_SLOT_COUNT = 16;
+    static final int HEADER_SLOT_SIZE = 20;
+    static final int HEADER_SLOTS_OFFSET = 24;
+    static final int HEADER_SLOT_STRIDE = 28;
+    static final int HEADER_FRAME_COUNT = 32;
+    static final int HEADER_SIZE = 64;
+
+    static final int STREAM_TYPE = 0;
+    static final int STREAM_FOURCC = 4;
+    static final int STREAM_TIMEBASE = 8;
+    // sample rate and channels for audio streams
+    static final int STREAM_WIDTH = 16;
+    static final int STREAM_HEIGHT = 20;
+    static final int STREAM_DESCRIPTOR_SIZE = 32;
+
+    static final int SLOT_SEQUENCE = 0;
+    static final int SLOT_STREAM_ID = 8;
+    static final int SLOT_LENGTH = 12;
+    static final int SLOT_PTS = 16;
+    static final int SLOT_HEADER_SIZE = 24;
+
+    static final int TYPE_VIDEO = 0;
+    static final int TYPE_AUDIO = 1;
+
+    /**
+     * Creates {@link FrameRingWriter}. File is created (or truncated) when streams are known.
+     *
+     * @param path      path to ring file
+     * @param slotCount number of frames kept in the ring
+     * @param slotSize  maximum frame data size in bytes
+     */
+    public FrameRingWriter(final Path path, final int slotCount, final int slotSize) {
+        if (slotCount < 1) {
+            throw new IllegalArgumentException("Wrong slot count: " + slotCount);
+        }
+        if (slotSize < 1) {
+            throw new IllegalArgumentException("Wrong slot size: " + slotSize);
+        }
+        this.path = path;
+        this.slotCount = slotCount;
+        this.slotSize = slotSize;
+    }
+
+    /**
+     * Creates ring file and writes header with stream descriptors.
+     *
+     * @param tracks list of streams
+     */
+    @Override
+    @SuppressWarnings("checkstyle:magicnumber")
+    public void consumeStreams(final List<Stream> tracks) {
+        this.streams = tracks;
+        slotsOffset = HEADER_SIZE + tracks.size() * STREAM_DESCRIPTOR_SIZE;
+        // keep slot sequence 8-byte aligned
+        slotStride = (SLOT_HEADER_SIZE + slotSize + 7) & ~7;
+        long fileSize = slotsOffset + (long) slotStride * slotCount;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Ring file is too big: " + fileSize + " bytes");
+        }
+
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create ring file " + path, e);
+        }
+
+        for (int i = 0; i < tracks.size(); i++) {
+            writeStream(HEADER_SIZE + i * STREAM_DESCRIPTOR_SIZE, tracks.get(i));
+        }
+
+        buffer.putInt(HEADER_VERSION, VERSION);
+        buffer.putInt(HEADER_STATE, STATE_WRITING);
+        buffer.putInt(HEADER_STREAM_COUNT, tracks.size());
+        buffer.putInt(HEADER_SLOT_COUNT, slotCount);
+        buffer.putInt(HEADER_SLOT_SIZE, slotSize);
+        buffer.putInt(HEADER_SLOTS_OFFSET, slotsOffset);
+        buffer.putInt(HEADER_SLOT_STRIDE, slotStride);
+        buffer.putLong(HEADER_FRAME_COUNT, 0);
+        // readers never see partially written header
+        MemoryFence.storeFence();
+        buffer.putInt(HEADER_MAGIC, MAGIC);
+    }
+
+    /**
+     * Writes frame to the next slot, marks ring as closed if frame is null.
+     *
+     * @param frame frame
+     */
+    @Override
+    public void consume(final Frame frame) {
+        if (frame == null) {
+            close(STATE_CLOSED);
+            return;
+        }
+        if (closed) {
+            throw new IllegalStateException("Ring file has been closed: " + path);
+        }
+
+        int offset = slotsOffset + (int) (frameNumber % slotCount) * slotStride;
+        long sequence = frameNumber * 2;
+
+        buffer.putLong(offset + SLOT_SEQUENCE, sequence + 1);
+        MemoryFence.storeFence();
+
+        int length = writeData(offset + SLOT_HEADER_SIZE, frame);
+        buffer.putInt(offset + SLOT_STREAM_ID, frame.getStreamId());
+        buffer.putInt(offset + SLOT_LENGTH, length);
+        buffer.putLong(offset + SLOT_PTS, frame.getPts());
+        MemoryFence.storeFence();
+
+        buffer.putLong(offset + SLOT_SEQUENCE, sequence + 2);
+        frameNumber++;
+        buffer.putLong(HEADER_FRAME_COUNT, frameNumber);
+
+        // frame data has been copied
+        frame.release();
+    }
+
+    /**
+     * Marks ring as failed and closes ring file, so readers stop waiting for new frames.
+     * <p>
+     * Does nothing if ring has been already closed or hasn't been created yet.
+     */
+    public void abort() {
+        close(STATE_FAILED);
+    }
+
+    /**
+     * Creates {@link FrameOutput} which writes frames to this ring and aborts the ring
+     * if reading ffmpeg output fails.
+     *
+     * @param alpha video stream alpha channel
+     * @return frame output
+     */
+    public FrameOutput createOutput(final boolean alpha) {
+        return new FrameOutput(this, alpha) {
+            @Override
+            protected Consumer consumer() {
+                final Consumer delegate = super.consumer();
+                return new Consumer() {
+                    @Override
+                    public void consumeAndClose(final InputStream in) {
+                        try {
+                            delegate.consumeAndClose(in);
+                        } catch (RuntimeException e) {
+                            abort();
+                            throw e;
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return number of written frames
+     */
+    public long getFrameCount() {
+        return frameNumber;
+    }
+
+    private void writeStream(final int offset, final Stream stream) {
+        switch (stream.getType()) {
+            case VIDEO:
+                PixelFormat pixelFormat = stream.getPixelFormat();
+                if (pixelFormat == null) {
+                    pixelFormat = PixelFormat.BGR24;
+                }
+                int frameSize = pixelFormat.getFrameSize(stream.getWidth(), stream.getHeight());
+                if (frameSize > slotSize) {
+                    throw new IllegalArgumentException("Frames of stream " + stream.getId()
+                            + " need " + frameSize + " bytes, but slot size is " + slotSize);
+                }
+                buffer.putInt(offset + STREAM_TYPE, TYPE_VIDEO);
+                putFourcc(offset, pixelFormat.getFourcc());
+                buffer.putInt(offset + STREAM_WIDTH, stream.getWidth());
+                buffer.putInt(offset + STREAM_HEIGHT, stream.getHeight());
+                break;
+            case AUDIO:
+                SampleFormat sampleFormat = stream.getSampleFormat();
+                if (sampleFormat == null) {
+                    sampleFormat = SampleFormat.S32BE;
+                }
+                buffer.putInt(offset + STREAM_TYPE, TYPE_AUDIO);
+                putFourcc(offset, sampleFormat.getFourcc());
+                buffer.putInt(offset + STREAM_WIDTH, stream.getSampleRate().intValue());
+                buffer.putInt(offset + STREAM_HEIGHT, stream.getChannels());
+                break;
+            default:
+                throw new RuntimeException("Unknown stream type: " + stream.getType());
+        }
+        buffer.putLong(offset + STREAM_TIMEBASE, stream.getTimebase());
+    }
+
+    private void putFourcc(final int offset, final byte[] fourcc) {
+        for (int i = 0; i < fourcc.length; i++) {
+            buffer.put(offset + STREAM_FOURCC + i, fourcc[i]);
+        }
+    }
+
+    private int writeData(final int offset, final Frame frame) {
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset);
+        target.limit(offset + slotSize);
+
+        try {
+            if (frame.getRawImage() != null) {
+                target.put(frame.getRawImage().getData());
+            } else if (frame.getRawSamples() != null) {
+                target.put(frame.getRawSamples().getData());
+            } else if (frame.getSamples() != null) {
+                target.asIntBuffer().put(frame.getSamples());
+                return frame.getSamples().length * SampleFormat.S32BE.getBytesPerSample();
+            } else {
+                target.put(getImageData(frame.getImage()));
+            }
+        } catch (BufferOverflowException e) {
+            throw new RuntimeException("Frame of stream " + frame.getStreamId()
+                    + " doesn't fit into slot of " + slotSize + " bytes", e);
+        }
+
+        return target.position() - offset;
+    }
+
+    private static ByteBuffer getImageData(final BufferedImage image) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        if (dataBuffer instanceof ByteBufferDataBuffer) {
+            return ((ByteBufferDataBuffer) dataBuffer).getData();
+        }
+        if (dataBuffer instanceof DataBufferByte
+                && (image.getType() == BufferedImage.TYPE_3BYTE_BGR
+                || image.getType() == BufferedImage.TYPE_4BYTE_ABGR)) {
+            return ByteBuffer.wrap(((DataBufferByte) dataBuffer).getData());
+        }
+        throw new RuntimeException("Type of BufferedImage must be TYPE_3BYTE_BGR "
+                + "or TYPE_4BYTE_ABGR");
+    }
+
+    private synchronized void close(final int state) {
+        if (closed || buffer == null) {
+            return;
+        }
+        closed = true;
+
+        // frame count must be visible before state
+        MemoryFence.storeFence();
+        buffer.putInt(HEADER_STATE, state);
+        buffer.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close ring file " + path, e);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reactive Streams {@link Subscriber} which passes received frames to ffmpeg.
+ * <p>
+ * Subscriber is backed by {@link FrameInput} (see {@link #getInput()}) which must be added
+ * to {@link FFmpeg}. Demand is mapped onto socket writes: initially {@code bufferSize} frames
+ * are requested from {@link Publisher}, more frames are requested only as received ones are
+ * taken by the thread which writes to ffmpeg. So the number of in-flight frames is bounded by
+ * the buffer size, and publisher is slowed down if ffmpeg can't keep up.
+ * <p>
+ * If ffmpeg stops reading input, subscription is cancelled. If publisher fails, ffmpeg input
+ * is failed too.
+ * <p>
+ * <b>Note</b>: {@code org.reactivestreams:reactive-streams} is an optional dependency of Jaffree,
+ * it must be added to the classpath to use this class.
+ */
+public class FrameSubscriber implements Subscriber<Frame>, FrameProducer {
+    private final List<Stream> streams;
+    private final int bufferSize;
+    private final FrameInput input;
+    // frames and END_OF_FRAMES marker
+    private final BlockingQueue<Frame> frames;
+    private final AtomicReference<Subscription> subscription = new AtomicReference<>();
+    private volatile Throwable error;
+
+    // accessed only by the thread which writes to ffmpeg
+    private int consumedSinceRequest = 0;
+    private boolean ended = false;
+
+    /**
+     * Default number of frames requested in advance.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    private static final Frame END_OF_FRAMES = new Frame(-1, 0, new int[0]);
+
+    /**
+     * Creates {@link FrameSubscriber} with default buffer size.
+     *
+     * @param streams streams of frames which will be received
+     */
+    public FrameSubscriber(final List<Stream> streams) {
+        this(streams, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates {@link FrameSubscriber}.
+     *
+     * @param streams    streams of frames which will be received
+     * @param bufferSize maximum number of frames received but not yet written to ffmpeg
+     */
+    public FrameSubscriber(final List<Stream> streams, final int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Wrong buffer size: " + bufferSize);
+        }
+
+        this.streams = streams;
+        this.bufferSize = bufferSize;
+        this.frames = new ArrayBlockingQueue<>(bufferSize + 1);
+        this.input = new FrameInput(this) {
+            @Override
+            protected Supplier supplier() {
+                final Supplier delegate = super.supplier();
+                return new Supplier() {
+                    @Override
+                    public void supplyAndClose(final OutputStream out) {
+                        try {
+                            delegate.supplyAndClose(out);
+                        } catch (RuntimeException e) {
+                            cancel();
+                            throw e;
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns {@link FrameInput} to pass to {@link FFmpeg}, it may be configured further.
+     *
+     * @return frame input
+     */
+    public FrameInput getInput() {
+        return input;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onSubscribe(final Subscription newSubscription) {
+        if (!subscription.compareAndSet(null, newSubscription)) {
+            // Reactive Streams rule 2.5
+            newSubscription.cancel();
+            return;
+        }
+        newSubscription.request(bufferSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onNext(final Frame frame) {
+        if (frame == null) {
+            throw new NullPointerException("Frame must be non null");
+        }
+        if (!frames.offer(frame)) {
+            cancel();
+            onError(new IllegalStateException("Publisher has sent more frames than requested"));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(final Throwable throwable) {
+        if (throwable == null) {
+            throw new NullPointerException("Error must be non null");
+        }
+        error = throwable;
+        // wakes up writing thread, buffered frames are dropped
+        frames.offer(END_OF_FRAMES);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onComplete() {
+        frames.offer(END_OF_FRAMES);
+    }
+
+    @Override
+    public List<Stream> produceStreams() {
+        return streams;
+    }
+
+    /**
+     * Waits for the next frame from publisher.
+     *
+     * @return frame, or null if publisher has completed
+     */
+    @Override
+    public Frame produce() {
+        if (ended) {
+            return null;
+        }
+        checkError();
+
+        final Frame result;
+        try {
+            result = frames.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new RuntimeException("Interrupted while waiting for frames", e);
+        }
+
+        if (result == END_OF_FRAMES) {
+            checkError();
+            ended = true;
+            return null;
+        }
+
+        // request more only when a significant part of buffer is free
+        consumedSinceRequest++;
+        if (consumedSinceRequest >= (bufferSize + 1) / 2) {
+            subscription.get().request(consumedSinceRequest);
+            consumedSinceRequest = 0;
+        }
+
+        return result;
+    }
+
+    private void checkError() {
+        if (error != null) {
+            ended = true;
+            throw new RuntimeException("Frame publisher has failed", error);
+        }
+    }
+
+    private void cancel() {
+        Subscription toCancel = subscription.get();
+        if (toCancel != null) {
+            toCancel.cancel();
+        }
+    }
+}
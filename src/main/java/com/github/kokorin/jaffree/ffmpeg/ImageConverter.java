@@ -0,0 +1,374 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts {@link BufferedImage}s of any type to {@link BufferedImage#TYPE_3BYTE_BGR} or
+ * {@link BufferedImage#TYPE_4BYTE_ABGR}, which are required to write video frames.
+ * <p>
+ * Int-packed (e.g. {@link BufferedImage#TYPE_INT_RGB}, {@link BufferedImage#TYPE_INT_ARGB})
+ * and byte-interleaved (e.g. {@link BufferedImage#TYPE_3BYTE_BGR}) sRGB images are converted
+ * by reading their data arrays directly, other images are converted with
+ * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}. Big images are split into
+ * row ranges which are converted in parallel by {@link ForkJoinPool}.
+ */
+public class ImageConverter {
+    private final ForkJoinPool pool;
+
+    // smaller images are converted in the calling thread
+    private static final int MIN_PIXELS_PER_TASK = 64 * 1024;
+
+    /**
+     * Creates {@link ImageConverter} which uses common {@link ForkJoinPool}.
+     */
+    public ImageConverter() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates {@link ImageConverter}.
+     *
+     * @param pool pool to convert images in
+     */
+    public ImageConverter(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Converts image to {@link BufferedImage#TYPE_3BYTE_BGR}.
+     *
+     * @param source image
+     * @return the same image if it already has required type and owns its whole data array,
+     * otherwise converted image
+     */
+    public BufferedImage toBgr(final BufferedImage source) {
+        return convert(source, BufferedImage.TYPE_3BYTE_BGR);
+    }
+
+    /**
+     * Converts image to {@link BufferedImage#TYPE_4BYTE_ABGR}.
+     *
+     * @param source image
+     * @return the same image if it already has required type and owns its whole data array,
+     * otherwise converted image
+     */
+    public BufferedImage toAbgr(final BufferedImage source) {
+        return convert(source, BufferedImage.TYPE_4BYTE_ABGR);
+    }
+
+    private BufferedImage convert(final BufferedImage source, final int type) {
+        if (source.getType() == type && isTightlyPacked(source)) {
+            return source;
+        }
+
+        int width = source.getWidth();
+        int height = source.getHeight();
+        BufferedImage target = new BufferedImage(width, height, type);
+        byte[] targetData = ((DataBufferByte) target.getRaster().getDataBuffer()).getData();
+        RowConverter rows = createRowConverter(source, targetData,
+                type == BufferedImage.TYPE_4BYTE_ABGR);
+
+        long pixels = (long) width * height;
+        if (pixels <= MIN_PIXELS_PER_TASK || pool.getParallelism() == 1) {
+            rows.convert(0, height);
+        } else {
+            int rowsPerTask = Math.max(1, MIN_PIXELS_PER_TASK / width);
+            pool.invoke(new ConversionTask(rows, 0, height, rowsPerTask));
+        }
+
+        return target;
+    }
+
+    /**
+     * Checks if image's data array holds exactly its pixels without any gaps. Sub-images
+     * (see {@link BufferedImage#getSubimage}) share data array with their parent image.
+     */
+    private static boolean isTightlyPacked(final BufferedImage source) {
+        WritableRaster raster = source.getRaster();
+        if (!(raster.getSampleModel() instanceof ComponentSampleModel)
+                || !(raster.getDataBuffer() instanceof DataBufferByte)) {
+            return false;
+        }
+
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        int pixelStride = sampleModel.getPixelStride();
+        int rowLength = source.getWidth() * pixelStride;
+
+        return dataBuffer.getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0
+                && sampleModel.getScanlineStride() == rowLength
+                && dataBuffer.getData().length == (long) rowLength * source.getHeight();
+    }
+
+    private static RowConverter createRowConverter(final BufferedImage source,
+                                                   final byte[] target, final boolean alpha) {
+        WritableRaster raster = source.getRaster();
+        ColorModel colorModel = source.getColorModel();
+        boolean srgb = colorModel.getColorSpace().isCS_sRGB()
+                && !colorModel.isAlphaPremultiplied();
+
+        if (srgb && colorModel instanceof DirectColorModel
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && IntPackedRows.isSupported(
+                        (SinglePixelPackedSampleModel) raster.getSampleModel())) {
+            return new IntPackedRows(source, target, alpha);
+        }
+
+        if (srgb && colorModel instanceof ComponentColorModel
+                && raster.getSampleModel() instanceof ComponentSampleModel
+                && raster.getDataBuffer() instanceof DataBufferByte
+                && ByteInterleavedRows.isSupported(colorModel,
+                        (ComponentSampleModel) raster.getSampleModel())) {
+            return new ByteInterleavedRows(source, target, alpha);
+        }
+
+        return new GenericRows(source, target, alpha);
+    }
+
+    /**
+     * Converts range of rows of source image into target data array.
+     */
+    private abstract static class RowConverter {
+        protected final int width;
+        protected final byte[] target;
+        protected final boolean alpha;
+        protected final int targetPixelStride;
+
+        RowConverter(final BufferedImage source, final byte[] target, final boolean alpha) {
+            this.width = source.getWidth();
+            this.target = target;
+            this.alpha = alpha;
+            this.targetPixelStride = alpha ? 4 : 3;
+        }
+
+        abstract void convert(int fromRow, int toRow);
+
+        @SuppressWarnings("checkstyle:magicnumber")
+        protected final void put(final int index, final int a, final int r, final int g,
+                                 final int b) {
+            if (alpha) {
+                target[index] = (byte) a;
+                target[index + 1] = (byte) b;
+                target[index + 2] = (byte) g;
+                target[index + 3] = (byte) r;
+            } else {
+                target[index] = (byte) b;
+                target[index + 1] = (byte) g;
+                target[index + 2] = (byte) r;
+            }
+        }
+    }
+
+    /**
+     * Images with 8-bit components packed into int pixels, e.g. TYPE_INT_RGB.
+     */
+    @SuppressWarnings("checkstyle:magicnumber")
+    private static final class IntPackedRows extends RowConverter {
+        private final int[] data;
+        private final int offset;
+        private final int scanlineStride;
+        private final int[] shifts;
+        private final boolean sourceAlpha;
+
+        IntPackedRows(final BufferedImage source, final byte[] target, final boolean alpha) {
+            super(source, target, alpha);
+            WritableRaster raster = source.getRaster();
+            SinglePixelPackedSampleModel sampleModel =
+                    (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+            this.data = dataBuffer.getData();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.offset = dataBuffer.getOffset()
+                    - raster.getSampleModelTranslateY() * scanlineStride
+                    - raster.getSampleModelTranslateX();
+            // red, green, blue and optional alpha
+            this.shifts = sampleModel.getBitOffsets();
+            this.sourceAlpha = shifts.length == 4;
+        }
+
+        static boolean isSupported(final SinglePixelPackedSampleModel sampleModel) {
+            int[] masks = sampleModel.getBitMasks();
+            int[] offsets = sampleModel.getBitOffsets();
+            if (masks.length != 3 && masks.length != 4) {
+                return false;
+            }
+            for (int i = 0; i < masks.length; i++) {
+                if (masks[i] >>> offsets[i] != 0xFF) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void convert(final int fromRow, final int toRow) {
+            int rShift = shifts[0];
+            int gShift = shifts[1];
+            int bShift = shifts[2];
+            int aShift = sourceAlpha ? shifts[3] : 0;
+
+            for (int y = fromRow; y < toRow; y++) {
+                int src = offset + y * scanlineStride;
+                int dst = y * width * targetPixelStride;
+                for (int x = 0; x < width; x++, src++, dst += targetPixelStride) {
+                    int pixel = data[src];
+                    int a = sourceAlpha ? pixel >>> aShift : 0xFF;
+                    put(dst, a, pixel >>> rShift, pixel >>> gShift, pixel >>> bShift);
+                }
+            }
+        }
+    }
+
+    /**
+     * Images with 8-bit components interleaved in byte array, e.g. TYPE_4BYTE_ABGR.
+     */
+    @SuppressWarnings("checkstyle:magicnumber")
+    private static final class ByteInterleavedRows extends RowConverter {
+        private final byte[] data;
+        private final int offset;
+        private final int scanlineStride;
+        private final int pixelStride;
+        private final int[] bandOffsets;
+        private final boolean sourceAlpha;
+
+        ByteInterleavedRows(final BufferedImage source, final byte[] target,
+                            final boolean alpha) {
+            super(source, target, alpha);
+            WritableRaster raster = source.getRaster();
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+            this.data = dataBuffer.getData();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.pixelStride = sampleModel.getPixelStride();
+            this.offset = dataBuffer.getOffset()
+                    - raster.getSampleModelTranslateY() * scanlineStride
+                    - raster.getSampleModelTranslateX() * pixelStride;
+            // red, green, blue and optional alpha
+            this.bandOffsets = sampleModel.getBandOffsets();
+            this.sourceAlpha = bandOffsets.length == 4;
+        }
+
+        static boolean isSupported(final ColorModel colorModel,
+                                   final ComponentSampleModel sampleModel) {
+            int bands = sampleModel.getNumBands();
+            if (bands != colorModel.getNumComponents() || (bands != 3 && bands != 4)) {
+                return false;
+            }
+            for (int bankIndex : sampleModel.getBankIndices()) {
+                if (bankIndex != 0) {
+                    return false;
+                }
+            }
+            for (int size : colorModel.getComponentSize()) {
+                if (size != 8) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void convert(final int fromRow, final int toRow) {
+            int rOffset = bandOffsets[0];
+            int gOffset = bandOffsets[1];
+            int bOffset = bandOffsets[2];
+            int aOffset = sourceAlpha ? bandOffsets[3] : 0;
+
+            for (int y = fromRow; y < toRow; y++) {
+                int src = offset + y * scanlineStride;
+                int dst = y * width * targetPixelStride;
+                for (int x = 0; x < width; x++, src += pixelStride, dst += targetPixelStride) {
+                    int a = sourceAlpha ? data[src + aOffset] : 0xFF;
+                    put(dst, a, data[src + rOffset], data[src + gOffset], data[src + bOffset]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Any other images, pixels are read with {@link BufferedImage#getRGB}.
+     */
+    @SuppressWarnings("checkstyle:magicnumber")
+    private static final class GenericRows extends RowConverter {
+        private final BufferedImage source;
+
+        GenericRows(final BufferedImage source, final byte[] target, final boolean alpha) {
+            super(source, target, alpha);
+            this.source = source;
+        }
+
+        @Override
+        void convert(final int fromRow, final int toRow) {
+            int[] row = new int[width];
+            for (int y = fromRow; y < toRow; y++) {
+                source.getRGB(0, y, width, 1, row, 0, width);
+                int dst = y * width * targetPixelStride;
+                for (int x = 0; x < width; x++, dst += targetPixelStride) {
+                    int pixel = row[x];
+                    put(dst, pixel >>> 24, pixel >> 16, pixel >> 8, pixel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits rows in halves until there are few enough rows for a single task.
+     */
+    private static final class ConversionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RowConverter rows;
+        private final int fromRow;
+        private final int toRow;
+        private final int rowsPerTask;
+
+        ConversionTask(final RowConverter rows, final int fromRow, final int toRow,
+                       final int rowsPerTask) {
+            this.rows = rows;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rowsPerTask = rowsPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= rowsPerTask) {
+                rows.convert(fromRow, toRow);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new ConversionTask(rows, fromRow, middle, rowsPerTask),
+                    new ConversionTask(rows, middle, toRow, rowsPerTask));
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link FrameProducer} which renders frames ahead of time on a thread pool.
+ * <p>
+ * {@link NutFrameSupplier} takes frames and writes them to ffmpeg in a single thread, so with
+ * a plain {@link FrameProducer} rendering and socket writes never overlap. This producer keeps
+ * up to {@link #setLookahead(int) lookahead} frames being rendered by {@link FrameRenderer},
+ * and returns them in frame number order. Lookahead window also limits memory consumption.
+ * <p>
+ * Stall counters show which side is the bottleneck: {@link #getRenderStalls()} counts frames
+ * which writer had to wait for, {@link #getWriterStalls()} counts frames taken when the whole
+ * window was already rendered, i.e. render threads were waiting for writer.
+ */
+public class LookaheadFrameProducer implements FrameProducer {
+    private final FrameRenderer renderer;
+    private int lookahead = DEFAULT_LOOKAHEAD;
+    private int renderThreads = Runtime.getRuntime().availableProcessors();
+
+    // accessed only by the thread which writes to ffmpeg
+    private final ArrayDeque<Future<Frame>> window = new ArrayDeque<>();
+    private ThreadPoolExecutor renderPool;
+    private long nextFrameNumber = 0;
+    private boolean finished = false;
+
+    private final AtomicLong frameCount = new AtomicLong();
+    private final AtomicLong renderNanos = new AtomicLong();
+    private final AtomicLong writerWaitNanos = new AtomicLong();
+    private final AtomicLong renderStalls = new AtomicLong();
+    private final AtomicLong writerStalls = new AtomicLong();
+
+    /**
+     * Default maximum number of frames being rendered or waiting to be written.
+     */
+    public static final int DEFAULT_LOOKAHEAD = 16;
+
+    // Render threads are stopped if ffmpeg stops taking frames
+    private static final long KEEP_ALIVE_SECONDS = 10;
+    private static final Logger LOGGER = LoggerFactory.getLogger(LookaheadFrameProducer.class);
+
+    /**
+     * Creates {@link LookaheadFrameProducer}.
+     *
+     * @param renderer frame renderer
+     */
+    public LookaheadFrameProducer(final FrameRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Sets maximum number of frames which are being rendered or have been rendered
+     * but not written yet.
+     *
+     * @param lookahead lookahead window size
+     * @return this
+     */
+    public LookaheadFrameProducer setLookahead(final int lookahead) {
+        if (lookahead <= 0) {
+            throw new IllegalArgumentException("Wrong lookahead: " + lookahead);
+        }
+        this.lookahead = lookahead;
+        return this;
+    }
+
+    /**
+     * Sets number of threads which render frames, number of processors by default.
+     *
+     * @param renderThreads number of threads
+     * @return this
+     */
+    public LookaheadFrameProducer setRenderThreads(final int renderThreads) {
+        if (renderThreads <= 0) {
+            throw new IllegalArgumentException("Wrong render threads: " + renderThreads);
+        }
+        this.renderThreads = renderThreads;
+        return this;
+    }
+
+    @Override
+    public List<Stream> produceStreams() {
+        return renderer.produceStreams();
+    }
+
+    /**
+     * Returns the next rendered frame, waits if it's still being rendered.
+     *
+     * @return frame, or null if renderer has no more frames
+     */
+    @Override
+    public Frame produce() {
+        if (finished) {
+            return null;
+        }
+        if (renderPool == null) {
+            renderPool = new ThreadPoolExecutor(renderThreads, renderThreads,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new DaemonThreadFactory("FrameRenderer"));
+            renderPool.allowCoreThreadTimeOut(true);
+        }
+
+        while (window.size() < lookahead) {
+            submit();
+        }
+
+        if (window.peekLast().isDone()) {
+            writerStalls.incrementAndGet();
+        }
+
+        Future<Frame> next = window.poll();
+        final Frame result;
+        try {
+            if (next.isDone()) {
+                result = next.get();
+            } else {
+                renderStalls.incrementAndGet();
+                long start = System.nanoTime();
+                result = next.get();
+                writerWaitNanos.addAndGet(System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish();
+            throw new RuntimeException("Interrupted while waiting for frame", e);
+        } catch (ExecutionException e) {
+            finish();
+            throw new RuntimeException("Failed to render frame", e.getCause());
+        }
+
+        if (result == null) {
+            finish();
+            return null;
+        }
+
+        frameCount.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * @return number of frames passed to ffmpeg
+     */
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    /**
+     * @return total time spent by render threads
+     */
+    public long getRenderNanos() {
+        return renderNanos.get();
+    }
+
+    /**
+     * @return time spent by writing thread waiting for frames to be rendered
+     */
+    public long getWriterWaitNanos() {
+        return writerWaitNanos.get();
+    }
+
+    /**
+     * @return number of frames which writing thread had to wait for
+     */
+    public long getRenderStalls() {
+        return renderStalls.get();
+    }
+
+    /**
+     * @return number of frames taken when the whole lookahead window was rendered
+     */
+    public long getWriterStalls() {
+        return writerStalls.get();
+    }
+
+    private void submit() {
+        final long frameNumber = nextFrameNumber++;
+        window.add(renderPool.submit(new Callable<Frame>() {
+            @Override
+            public Frame call() {
+                long start = System.nanoTime();
+                Frame result = renderer.render(frameNumber);
+                renderNanos.addAndGet(System.nanoTime() - start);
+                return result;
+            }
+        }));
+    }
+
+    private void finish() {
+        finished = true;
+        for (Future<Frame> future : window) {
+            future.cancel(true);
+        }
+        window.clear();
+        renderPool.shutdownNow();
+
+        LOGGER.debug("Frames: {}, render: {} ms, writer wait: {} ms, render stalls: {}, "
+                        + "writer stalls: {}", frameCount,
+                TimeUnit.NANOSECONDS.toMillis(renderNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(writerWaitNanos.get()),
+                renderStalls, writerStalls);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+
+/**
+ * Memory fences for data shared through memory-mapped files.
+ * <p>
+ * Java 8 has no public fence API ({@code VarHandle} fences appeared in Java 9), so
+ * {@code sun.misc.Unsafe.storeFence()} and {@code loadFence()} are used. If Unsafe isn't
+ * available, fences fall back to volatile field accesses: that is only enough on HotSpot running
+ * on x86, which doesn't reorder stores with other stores and loads with other loads.
+ */
+final class MemoryFence {
+    private static final MethodHandle STORE_FENCE;
+    private static final MethodHandle LOAD_FENCE;
+
+    private static volatile int fallback;
+
+    static {
+        MethodHandle storeFence = null;
+        MethodHandle loadFence = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            storeFence = lookup.unreflect(unsafeClass.getMethod("storeFence")).bindTo(unsafe);
+            loadFence = lookup.unreflect(unsafeClass.getMethod("loadFence")).bindTo(unsafe);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            storeFence = null;
+            loadFence = null;
+        }
+        STORE_FENCE = storeFence;
+        LOAD_FENCE = loadFence;
+    }
+
+    private MemoryFence() {
+    }
+
+    /**
+     * Ensures that stores before the fence aren't reordered with stores after it.
+     */
+    static void storeFence() {
+        if (STORE_FENCE == null) {
+            fallback = 0;
+            return;
+        }
+        try {
+            STORE_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to issue store fence", e);
+        }
+    }
+
+    /**
+     * Ensures that loads before the fence aren't reordered with loads after it.
+     */
+    static void loadFence() {
+        if (LOAD_FENCE == null) {
+            if (fallback != 0) {
+                fallback = 0;
+            }
+            return;
+        }
+        try {
+            LOAD_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to issue load fence", e);
+        }
+    }
+
+    /**
+     * @return true if fences are issued with Unsafe
+     */
+    static boolean isSupported() {
+        return STORE_FENCE != null && LOAD_FENCE != null;
+    }
+}
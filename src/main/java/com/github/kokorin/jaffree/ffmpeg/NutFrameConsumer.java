@@ -17,43 +17,43 @@
 
 package com.github.kokorin.jaffree.ffmpeg;
 
-import com.github.kokorin.jaffree.Rational;
 import com.github.kokorin.jaffree.nut.MainHeader;
+import com.github.kokorin.jaffree.nut.NutBufferPool;
 import com.github.kokorin.jaffree.nut.NutFrame;
 import com.github.kokorin.jaffree.nut.NutInputStream;
 import com.github.kokorin.jaffree.nut.NutReader;
 import com.github.kokorin.jaffree.nut.StreamHeader;
+import com.github.kokorin.jaffree.util.SocketInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.awt.Transparency;
-import java.awt.color.ColorSpace;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.ComponentColorModel;
-import java.awt.image.DataBuffer;
-import java.awt.image.DataBufferByte;
-import java.awt.image.Raster;
-import java.awt.image.WritableRaster;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Set;
 
 /**
  * {@link TcpOutput.Consumer} implementation which allows reading Nut format.
  */
 // TODO NutFrameConsumer inner class if FrameOutput.
-// TODO extract common logic to somewhere
 public class NutFrameConsumer implements TcpOutput.Consumer {
     private final FrameConsumer frameConsumer;
     private final boolean alphaChannel;
+    private Set<Integer> streamFilter;
+    private boolean frameRecycling = false;
+    private int batchSize = DEFAULT_BATCH_SIZE;
 
-    private static final int RGB_BYTES_PER_PIXEL = 3;
-    private static final int ALPHA_BYTES_PER_PIXEL = 3;
+    /**
+     * Default maximum number of frames passed to {@link FrameConsumer#consumeBatch} at once,
+     * batching is disabled by default.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1;
+
+    /**
+     * Maximum number of released images (or sample arrays) kept per stream.
+     */
+    private static final int RECYCLING_MAX_IDLE = 4;
     private static final Logger LOGGER = LoggerFactory.getLogger(NutFrameConsumer.class);
 
     /**
@@ -67,6 +67,54 @@ public class NutFrameConsumer implements TcpOutput.Consumer {
         this.alphaChannel = alphaChannel;
     }
 
+    /**
+     * Sets streams to read frames of, frames of other streams are skipped without conversion.
+     *
+     * @param streamFilter ids of streams to read, or null to read all streams
+     * @return this
+     */
+    public NutFrameConsumer setStreamFilter(final Set<Integer> streamFilter) {
+        this.streamFilter = streamFilter;
+        return this;
+    }
+
+    /**
+     * Enables frame recycling: images and audio samples of {@link Frame}s released by
+     * {@link FrameConsumer} with {@link Frame#release()} are reused for subsequent frames
+     * of the same stream, NUT frame payloads are read into pooled buffers.
+     * <p>
+     * Frames which aren't released are simply garbage collected.
+     *
+     * @param frameRecycling true to recycle frames
+     * @return this
+     */
+    public NutFrameConsumer setFrameRecycling(final boolean frameRecycling) {
+        this.frameRecycling = frameRecycling;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of frames passed to {@link FrameConsumer#consumeBatch} at once.
+     * <p>
+     * Batch contains only frames which have been already received: pending frames are passed
+     * to {@link FrameConsumer} before every read from the socket (which may block), so a frame
+     * is never held while waiting for the next one. But the first frames of a batch are
+     * delivered only after the last one is parsed and converted.
+     * <p>
+     * With frame recycling, up to {@code batchSize + 1} images (or sample arrays) are pooled
+     * per stream.
+     *
+     * @param batchSize maximum batch size
+     * @return this
+     */
+    public NutFrameConsumer setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Wrong batch size: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
     /**
      * Reads media in Nut format from input stream and closes it.
      *
@@ -82,131 +130,90 @@ public class NutFrameConsumer implements TcpOutput.Consumer {
     }
 
     private void read(final InputStream input) throws IOException {
-        NutInputStream stream = new NutInputStream(input);
+        final NutInputStream stream;
+        if (input instanceof SocketInputStream
+                && ((SocketInputStream) input).getChannel() != null) {
+            // NIO channel allows reading directly into NutInputStream's direct buffer
+            stream = new NutInputStream(((SocketInputStream) input).getChannel());
+        } else {
+            stream = new NutInputStream(input);
+        }
         NutReader nutReader = new NutReader(stream);
+        nutReader.setStreamFilter(streamFilter);
 
         MainHeader mainHeader = nutReader.getMainHeader();
         StreamHeader[] streamHeaders = nutReader.getStreamHeaders();
-        List<Stream> streams = parseTracks(mainHeader, streamHeaders);
-        frameConsumer.consumeStreams(streams);
+        NutFrameConverter converter = new NutFrameConverter(mainHeader, streamHeaders,
+                alphaChannel);
+        if (frameRecycling) {
+            nutReader.setBufferPool(new NutBufferPool(false, RECYCLING_MAX_IDLE));
+            // every frame of a batch is converted before any of them is released
+            converter.setFramePool(new FramePool(Math.max(RECYCLING_MAX_IDLE, batchSize + 1)));
+        }
+        frameConsumer.consumeStreams(converter.getStreams());
 
         LOGGER.debug("Streams: {}", (Object) streamHeaders);
 
+        final FrameBatch batch = new FrameBatch(batchSize);
+        // don't hold received frames while waiting for more data
+        stream.setBeforeSourceRead(new Runnable() {
+            @Override
+            public void run() {
+                batch.deliver();
+            }
+        });
+        boolean trace = LOGGER.isTraceEnabled();
+
         NutFrame nutFrame;
         while ((nutFrame = nutReader.readFrame()) != null) {
-            LOGGER.trace("NutFrame: {}", nutFrame);
-
-            int trackNo = nutFrame.streamId;
-            Frame frame = parseFrame(streamHeaders[trackNo], nutFrame);
-            LOGGER.trace("Parsed frame: {}", frame);
-
-            if (frame == null) {
-                continue;
+            if (trace) {
+                LOGGER.trace("NutFrame: {}", nutFrame);
             }
 
-            frameConsumer.consume(frame);
-        }
-
-        frameConsumer.consume(null);
-    }
-
-    private static List<Stream> parseTracks(final MainHeader mainHeader,
-                                            final StreamHeader[] streamHeaders) {
-        List<Stream> result = new ArrayList<>();
-
-        for (StreamHeader streamHeader : streamHeaders) {
-            Stream stream = null;
-            if (streamHeader.streamType == StreamHeader.Type.VIDEO) {
-                stream = new Stream()
-                        .setType(Stream.Type.VIDEO)
-                        .setWidth(streamHeader.video.width)
-                        .setHeight(streamHeader.video.height);
-            } else if (streamHeader.streamType == StreamHeader.Type.AUDIO) {
-                Rational samplerate = streamHeader.audio.samplerate;
-                if (samplerate.denominator != 1) {
-                    LOGGER.warn("Samplerate should be integer but it is ({}).", samplerate);
-                }
-
-                stream = new Stream()
-                        .setType(Stream.Type.AUDIO)
-                        .setSampleRate(samplerate.numerator / samplerate.denominator)
-                        .setChannels(streamHeader.audio.channelCount);
+            Frame frame = converter.convert(nutFrame);
+            if (frameRecycling) {
+                // frame data has been copied by converter
+                nutFrame.release();
+            }
+            if (trace) {
+                LOGGER.trace("Parsed frame: {}", frame);
             }
 
-            if (stream != null) {
-                Rational timebase = mainHeader.timeBases[streamHeader.timeBaseId];
-                stream.setId(streamHeader.streamId)
-                        .setTimebase(timebase.denominator / timebase.numerator);
-                result.add(stream);
+            if (frame != null) {
+                batch.add(frame);
             }
         }
 
-        return result;
+        batch.deliver();
+        frameConsumer.consume(null);
     }
 
-    @SuppressWarnings("checkstyle:magicnumber")
-    private Frame parseFrame(final StreamHeader track, final NutFrame frame) {
-        if (frame == null || frame.data == null || frame.data.length == 0 || frame.eor) {
-            return null;
-        }
-
-        BufferedImage image = null;
-        int[] samples = null;
-
-        if (track.streamType == StreamHeader.Type.VIDEO) {
-            int width = track.video.width;
-            int height = track.video.height;
+    /**
+     * Frames which haven't been passed to {@link FrameConsumer} yet.
+     */
+    private final class FrameBatch {
+        private final Frame[] frames;
+        private int count = 0;
 
-            // Sometimes if duration limit is specified, ffmpeg creates
-            // NutFrame with insufficient data
-            int pixelCount = width * height;
-            if (!alphaChannel && pixelCount * RGB_BYTES_PER_PIXEL != frame.data.length
-                    || alphaChannel && pixelCount * ALPHA_BYTES_PER_PIXEL != frame.data.length) {
-                return null;
-            }
+        FrameBatch(final int size) {
+            this.frames = new Frame[size];
+        }
 
-            DataBuffer buffer = new DataBufferByte(frame.data, frame.data.length);
-            ColorSpace cs = ColorSpace.getInstance(ColorSpace.CS_sRGB);
-
-            final ColorModel colorModel;
-            final WritableRaster raster;
-
-            // TODO extract to BufferedImageUtil
-            if (!alphaChannel) {
-                int[] nBits = {8, 8, 8};
-                int[] bOffs = {2, 1, 0};
-                colorModel = new ComponentColorModel(cs, nBits, false, false,
-                        Transparency.OPAQUE,
-                        DataBuffer.TYPE_BYTE);
-                raster = Raster.createInterleavedRaster(buffer,
-                        width, height,
-                        width * 3, 3,
-                        bOffs, null);
-            } else {
-                int[] nBits = {8, 8, 8, 8};
-                int[] bOffs = {3, 2, 1, 0};
-                colorModel = new ComponentColorModel(cs, nBits, true, false,
-                        Transparency.TRANSLUCENT,
-                        DataBuffer.TYPE_BYTE);
-                raster = Raster.createInterleavedRaster(buffer,
-                        width, height,
-                        width * 4, 4,
-                        bOffs, null);
+        void add(final Frame frame) {
+            frames[count++] = frame;
+            if (count == frames.length) {
+                deliver();
             }
-
-            image = new BufferedImage(colorModel, raster, false, null);
-        } else if (track.streamType == StreamHeader.Type.AUDIO) {
-            ByteBuffer data = ByteBuffer.wrap(frame.data);
-
-            IntBuffer intData = data.asIntBuffer();
-            samples = new int[intData.limit()];
-            intData.get(samples);
         }
 
-        if (image != null || samples != null) {
-            return new Frame(track.streamId, frame.pts, image, samples);
+        void deliver() {
+            if (count == 1) {
+                frameConsumer.consume(frames[0]);
+            } else if (count > 1) {
+                frameConsumer.consumeBatch(frames, count);
+            }
+            Arrays.fill(frames, 0, count, null);
+            count = 0;
         }
-
-        return null;
     }
 }
@@ -0,0 +1,297 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.Rational;
+import com.github.kokorin.jaffree.nut.MainHeader;
+import com.github.kokorin.jaffree.nut.NutFrame;
+import com.github.kokorin.jaffree.nut.StreamHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts {@link NutFrame} (as read by {@link com.github.kokorin.jaffree.nut.NutReader})
+ * to {@link Frame}.
+ * <p>
+ * Video pixel format is detected by stream fourcc (see {@link PixelFormat}), streams with
+ * unknown fourcc are expected in bgr24 (or abgr if alpha channel is present) pixel format.
+ * Frames of bgr24 and abgr streams are converted to {@link BufferedImage}, frames of other
+ * pixel formats are passed as {@link RawImage}. Audio sample format is detected the same way:
+ * pcm_s32be samples (the default) are converted to int array, samples of other formats are
+ * passed as {@link RawSamples}.
+ * <p>
+ * Frame data is used without copying when possible: if {@link NutFrame} data is
+ * a memory-mapped (or any other non-array) buffer, image is created directly over it.
+ * Such image is read-only if the buffer is read-only.
+ */
+public class NutFrameConverter {
+    private final MainHeader mainHeader;
+    private final StreamHeader[] streamHeaders;
+    // indexed by stream id, null for non-video streams
+    private final PixelFormat[] pixelFormats;
+    // indexed by stream id, null for non-audio streams
+    private final SampleFormat[] sampleFormats;
+    private final ColorModel rgbColorModel;
+    private final ColorModel alphaColorModel;
+    private FramePool framePool;
+
+    private static final int RGB_BYTES_PER_PIXEL = 3;
+    private static final int ALPHA_BYTES_PER_PIXEL = 4;
+    private static final Logger LOGGER = LoggerFactory.getLogger(NutFrameConverter.class);
+
+    /**
+     * Creates {@link NutFrameConverter}.
+     *
+     * @param mainHeader    main header
+     * @param streamHeaders stream headers
+     * @param alphaChannel  video stream alpha channel
+     */
+    public NutFrameConverter(final MainHeader mainHeader, final StreamHeader[] streamHeaders,
+                             final boolean alphaChannel) {
+        this.mainHeader = mainHeader;
+        this.streamHeaders = streamHeaders;
+        this.rgbColorModel = createColorModel(false);
+        this.alphaColorModel = createColorModel(true);
+
+        this.pixelFormats = new PixelFormat[streamHeaders.length];
+        this.sampleFormats = new SampleFormat[streamHeaders.length];
+        for (StreamHeader streamHeader : streamHeaders) {
+            if (streamHeader.streamType == StreamHeader.Type.AUDIO) {
+                SampleFormat sampleFormat = SampleFormat.fromFourcc(streamHeader.fourcc);
+                if (sampleFormat == null) {
+                    sampleFormat = SampleFormat.S32BE;
+                }
+                sampleFormats[streamHeader.streamId] = sampleFormat;
+            }
+            if (streamHeader.streamType != StreamHeader.Type.VIDEO) {
+                continue;
+            }
+            PixelFormat pixelFormat = PixelFormat.fromFourcc(streamHeader.fourcc);
+            if (pixelFormat == null) {
+                pixelFormat = alphaChannel ? PixelFormat.ABGR : PixelFormat.BGR24;
+            }
+            pixelFormats[streamHeader.streamId] = pixelFormat;
+        }
+    }
+
+    /**
+     * Returns description of video and audio streams, other streams are omitted.
+     *
+     * @return streams
+     */
+    public List<Stream> getStreams() {
+        List<Stream> result = new ArrayList<>();
+
+        for (StreamHeader streamHeader : streamHeaders) {
+            Stream stream = null;
+            if (streamHeader.streamType == StreamHeader.Type.VIDEO) {
+                stream = new Stream()
+                        .setType(Stream.Type.VIDEO)
+                        .setWidth(streamHeader.video.width)
+                        .setHeight(streamHeader.video.height)
+                        .setPixelFormat(pixelFormats[streamHeader.streamId]);
+            } else if (streamHeader.streamType == StreamHeader.Type.AUDIO) {
+                Rational samplerate = streamHeader.audio.samplerate;
+                if (samplerate.denominator != 1) {
+                    LOGGER.warn("Samplerate should be integer but it is ({}).", samplerate);
+                }
+
+                stream = new Stream()
+                        .setType(Stream.Type.AUDIO)
+                        .setSampleRate(samplerate.numerator / samplerate.denominator)
+                        .setChannels(streamHeader.audio.channelCount)
+                        .setSampleFormat(sampleFormats[streamHeader.streamId]);
+            }
+
+            if (stream != null) {
+                Rational timebase = mainHeader.timeBases[streamHeader.timeBaseId];
+                stream.setId(streamHeader.streamId)
+                        .setTimebase(timebase.denominator / timebase.numerator);
+                result.add(stream);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Sets pool to recycle images and samples of released frames.
+     * <p>
+     * With pool set, frame data is always copied to a pooled image or sample array,
+     * so {@link NutFrame} may be released right after conversion. Produced frames should be
+     * released with {@link Frame#release()} to make their images and samples reusable.
+     *
+     * @param framePool frame pool, or null to create new image and samples for every frame
+     * @return this
+     */
+    public NutFrameConverter setFramePool(final FramePool framePool) {
+        this.framePool = framePool;
+        return this;
+    }
+
+    /**
+     * Converts {@link NutFrame} to {@link Frame}.
+     * <p>
+     * If {@link NutFrame} is backed by pooled buffer and no frame pool is set, it must not be
+     * released while produced {@link Frame} is in use.
+     *
+     * @param frame frame to convert
+     * @return frame, or null if frame has no data, is EOR, or belongs to unsupported stream
+     */
+    public Frame convert(final NutFrame frame) {
+        if (frame == null || frame.getDataSize() == 0 || frame.eor) {
+            return null;
+        }
+
+        StreamHeader track = streamHeaders[frame.streamId];
+        BufferedImage image = null;
+        RawImage rawImage = null;
+        int[] samples = null;
+        RawSamples rawSamples = null;
+
+        if (track.streamType == StreamHeader.Type.VIDEO) {
+            int width = track.video.width;
+            int height = track.video.height;
+            PixelFormat pixelFormat = pixelFormats[track.streamId];
+
+            // Sometimes if duration limit is specified, ffmpeg creates
+            // NutFrame with insufficient data
+            if (pixelFormat.getFrameSize(width, height) != frame.getDataSize()) {
+                return null;
+            }
+
+            boolean alpha = pixelFormat == PixelFormat.ABGR;
+            if (pixelFormat != PixelFormat.BGR24 && !alpha) {
+                rawImage = new RawImage(pixelFormat, width, height, copyRawData(frame));
+            } else if (framePool == null) {
+                image = createImage(createDataBuffer(frame), width, height, alpha);
+            } else {
+                image = framePool.acquireImage(track.streamId);
+                if (image == null) {
+                    byte[] data = new byte[frame.getDataSize()];
+                    image = createImage(new DataBufferByte(data, data.length), width, height,
+                            alpha);
+                }
+                DataBufferByte buffer = (DataBufferByte) image.getRaster().getDataBuffer();
+                frame.getBuffer().get(buffer.getData());
+            }
+        } else if (track.streamType == StreamHeader.Type.AUDIO
+                && sampleFormats[track.streamId] != SampleFormat.S32BE) {
+            SampleFormat sampleFormat = sampleFormats[track.streamId];
+            if (frame.getDataSize() % sampleFormat.getBytesPerSample() != 0) {
+                return null;
+            }
+            rawSamples = new RawSamples(sampleFormat, copyRawData(frame));
+        } else if (track.streamType == StreamHeader.Type.AUDIO) {
+            IntBuffer intData = frame.getBuffer().asIntBuffer();
+            if (framePool != null) {
+                samples = framePool.acquireSamples(track.streamId, intData.limit());
+            }
+            if (samples == null) {
+                samples = new int[intData.limit()];
+            }
+            intData.get(samples);
+        }
+
+        if (image != null || rawImage != null || samples != null || rawSamples != null) {
+            return new Frame(track.streamId, frame.pts, image, rawImage, samples, rawSamples,
+                    framePool);
+        }
+
+        return null;
+    }
+
+    @SuppressWarnings("checkstyle:magicnumber")
+    private BufferedImage createImage(final DataBuffer buffer, final int width, final int height,
+                                      final boolean alpha) {
+        final WritableRaster raster;
+        final ColorModel colorModel;
+        if (!alpha) {
+            colorModel = rgbColorModel;
+            int[] bOffs = {2, 1, 0};
+            raster = Raster.createInterleavedRaster(buffer, width, height,
+                    width * RGB_BYTES_PER_PIXEL, RGB_BYTES_PER_PIXEL, bOffs, null);
+        } else {
+            colorModel = alphaColorModel;
+            int[] bOffs = {3, 2, 1, 0};
+            raster = Raster.createInterleavedRaster(buffer, width, height,
+                    width * ALPHA_BYTES_PER_PIXEL, ALPHA_BYTES_PER_PIXEL, bOffs, null);
+        }
+
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Raw image (and samples) data is used without copying unless frames are recycled.
+     */
+    private ByteBuffer copyRawData(final NutFrame frame) {
+        if (framePool == null) {
+            return frame.getBuffer();
+        }
+
+        ByteBuffer result = framePool.acquireRawData(frame.streamId, frame.getDataSize());
+        if (result == null) {
+            result = ByteBuffer.allocate(frame.getDataSize());
+        }
+        result.put(frame.getBuffer());
+        result.flip();
+        return result;
+    }
+
+    @SuppressWarnings("checkstyle:magicnumber")
+    private static ColorModel createColorModel(final boolean alphaChannel) {
+        ColorSpace cs = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+        if (!alphaChannel) {
+            int[] nBits = {8, 8, 8};
+            return new ComponentColorModel(cs, nBits, false, false,
+                    Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        }
+
+        int[] nBits = {8, 8, 8, 8};
+        return new ComponentColorModel(cs, nBits, true, false,
+                Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+    }
+
+    private static DataBuffer createDataBuffer(final NutFrame frame) {
+        if (frame.data != null) {
+            return new DataBufferByte(frame.data, frame.data.length);
+        }
+
+        ByteBuffer data = frame.getBuffer();
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+                && data.remaining() == data.array().length) {
+            return new DataBufferByte(data.array(), data.remaining());
+        }
+
+        return new ByteBufferDataBuffer(data);
+    }
+}
@@ -19,12 +19,15 @@ package com.github.kokorin.jaffree.ffmpeg;
 
 import com.github.kokorin.jaffree.Rational;
 import com.github.kokorin.jaffree.nut.DataItem;
+import com.github.kokorin.jaffree.nut.FlushPolicy;
 import com.github.kokorin.jaffree.nut.FrameCode;
 import com.github.kokorin.jaffree.nut.Info;
+import com.github.kokorin.jaffree.nut.NutBufferPool;
 import com.github.kokorin.jaffree.nut.NutFrame;
 import com.github.kokorin.jaffree.nut.NutOutputStream;
 import com.github.kokorin.jaffree.nut.NutWriter;
 import com.github.kokorin.jaffree.nut.StreamHeader;
+import com.github.kokorin.jaffree.util.SocketOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,23 +37,39 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Objects;
 
 /**
  * {@link TcpInput.Supplier} implementation which allows writing Nut format.
+ * <p>
+ * Video stream pixel format is taken from {@link Stream#getPixelFormat()}, bgr24
+ * (or abgr with alpha channel) is used by default. Frames of bgr24 and abgr streams may hold
+ * either {@link BufferedImage} or {@link RawImage}, frames of other streams must hold
+ * {@link RawImage}. BufferedImages of types other than TYPE_3BYTE_BGR (or TYPE_4BYTE_ABGR)
+ * are converted with {@link ImageConverter}.
+ * <p>
+ * Audio stream sample format is taken from {@link Stream#getSampleFormat()}, pcm_s32be is used
+ * by default. Frames may hold either {@link RawSamples} in stream's sample format, or int array
+ * of samples which are converted to stream's sample format.
  */
 public class NutFrameSupplier implements TcpInput.Supplier {
     private final FrameProducer producer;
     private final boolean alpha;
     private final Long frameOrderingBufferMillis;
+    private FlushPolicy flushPolicy = FlushPolicy.PACKET;
+    private int batchSize = 1;
+    private ImageConverter imageConverter = new ImageConverter();
 
-    private static final byte[] FOURCC_ABGR = {'A', 'B', 'G', 'R'};
-    private static final byte[] FOURCC_BGR24 = {'B', 'G', 'R', 24};
-    //PCM Signed Differential?
-    private static final byte[] FOURCC_PCM_S32BE = {32, 'D', 'S', 'P'};
-
+    // Coalesces small frames into big writes with THROUGHPUT flush policy
+    private static final int THROUGHPUT_BUFFER_SIZE = 256 * 1024;
+    // Frames have neither side data nor metadata
+    private static final DataItem[] NO_DATA_ITEMS = new DataItem[0];
+    // Audio samples are converted into scratch buffers which are reused once frames are written
+    private static final int SCRATCH_MAX_IDLE = 16;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(NutFrameSupplier.class);
 
@@ -78,6 +97,47 @@ public class NutFrameSupplier implements TcpInput.Supplier {
         this.frameOrderingBufferMillis = frameOrderingBufferMillis;
     }
 
+    /**
+     * Sets when written frames are flushed to ffmpeg.
+     *
+     * @param flushPolicy flush policy
+     * @return this
+     * @see FlushPolicy
+     */
+    public NutFrameSupplier setFlushPolicy(final FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+        return this;
+    }
+
+    /**
+     * Sets number of frames requested from {@link FrameProducer#produceBatch(Frame[])} at once.
+     * <p>
+     * Batches amortize per-frame overhead, which dominates for audio with small packets.
+     * Note that no frame of a batch is written until the whole batch is produced, so big batches
+     * add latency if frames are produced in real time.
+     *
+     * @param batchSize batch size, 1 by default
+     * @return this
+     */
+    public NutFrameSupplier setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Wrong batch size: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets converter for images which are neither TYPE_3BYTE_BGR, nor TYPE_4BYTE_ABGR.
+     *
+     * @param imageConverter image converter
+     * @return this
+     */
+    public NutFrameSupplier setImageConverter(final ImageConverter imageConverter) {
+        this.imageConverter = imageConverter;
+        return this;
+    }
+
     /**
      * Writes media in Nut format to output stream and closes it.
      *
@@ -86,12 +146,32 @@ public class NutFrameSupplier implements TcpInput.Supplier {
     @Override
     public void supplyAndClose(final OutputStream out) {
         try (Closeable toClose = out) {
-            NutWriter writer = new NutWriter(new NutOutputStream(out));
+            final NutOutputStream output;
+            if (out instanceof SocketOutputStream
+                    && ((SocketOutputStream) out).getChannel() != null) {
+                // SocketChannel allows writing frame header and data with a single syscall
+                SocketChannel channel = ((SocketOutputStream) out).getChannel();
+                if (flushPolicy == FlushPolicy.THROUGHPUT) {
+                    output = new NutOutputStream(channel, THROUGHPUT_BUFFER_SIZE);
+                } else {
+                    output = new NutOutputStream(channel);
+                }
+            } else if (flushPolicy == FlushPolicy.THROUGHPUT) {
+                output = new NutOutputStream(out, THROUGHPUT_BUFFER_SIZE);
+            } else {
+                output = new NutOutputStream(out);
+            }
+
+            NutWriter writer = new NutWriter(output);
+            writer.setFlushPolicy(flushPolicy);
             if (frameOrderingBufferMillis != null) {
                 writer.setFrameOrderingBufferMillis(frameOrderingBufferMillis);
             }
             write(writer);
             writer.writeFooter();
+
+            LOGGER.debug("Written {} bytes with {} writes and {} flushes",
+                    output.getWrittenBytes(), output.getWriteCount(), output.getFlushCount());
         } catch (Exception e) {
             throw new RuntimeException("Write failed", e);
         }
@@ -103,6 +183,9 @@ public class NutFrameSupplier implements TcpInput.Supplier {
         LOGGER.debug("Streams: {}", tracks.toArray());
 
         StreamHeader[] streamHeaders = new StreamHeader[tracks.size()];
+        PixelFormat[] pixelFormats = new PixelFormat[tracks.size()];
+        SampleFormat[] sampleFormats = new SampleFormat[tracks.size()];
+        NutBufferPool scratchPool = new NutBufferPool(false, SCRATCH_MAX_IDLE);
         Rational[] timebases = new Rational[tracks.size()];
 
         for (int i = 0; i < streamHeaders.length; i++) {
@@ -120,10 +203,15 @@ public class NutFrameSupplier implements TcpInput.Supplier {
                 case VIDEO:
                     Objects.requireNonNull(stream.getWidth(), "Width must be specified");
                     Objects.requireNonNull(stream.getHeight(), "Height must be specified");
+                    PixelFormat pixelFormat = stream.getPixelFormat();
+                    if (pixelFormat == null) {
+                        pixelFormat = alpha ? PixelFormat.ABGR : PixelFormat.BGR24;
+                    }
+                    pixelFormats[i] = pixelFormat;
                     streamHeader = new StreamHeader(
                             stream.getId(),
                             StreamHeader.Type.VIDEO,
-                            alpha ? FOURCC_ABGR : FOURCC_BGR24,
+                            pixelFormat.getFourcc(),
                             i,
                             0,
                             60_000,
@@ -145,10 +233,15 @@ public class NutFrameSupplier implements TcpInput.Supplier {
                             "Samplerate must be specified");
                     Objects.requireNonNull(stream.getChannels(),
                             "Number of channels must be specified");
+                    SampleFormat sampleFormat = stream.getSampleFormat();
+                    if (sampleFormat == null) {
+                        sampleFormat = SampleFormat.S32BE;
+                    }
+                    sampleFormats[i] = sampleFormat;
                     streamHeader = new StreamHeader(
                             stream.getId(),
                             StreamHeader.Type.AUDIO,
-                            FOURCC_PCM_S32BE,
+                            sampleFormat.getFourcc(),
                             i,
                             0,
                             60_000,
@@ -191,47 +284,117 @@ public class NutFrameSupplier implements TcpInput.Supplier {
         writer.setStreamHeaders(streamHeaders);
         writer.setInfos(new Info[0]);
 
-        Frame frame;
-        while ((frame = producer.produce()) != null) {
-            LOGGER.trace("Frame: {}", frame);
+        Frame[] frames = new Frame[batchSize];
+        NutFrame[] nutFrames = new NutFrame[batchSize];
+        boolean trace = LOGGER.isTraceEnabled();
+        int count;
+        do {
+            count = producer.produceBatch(frames);
+            for (int f = 0; f < count; f++) {
+                Frame frame = frames[f];
+                frames[f] = null;
+                if (trace) {
+                    LOGGER.trace("Frame: {}", frame);
+                }
+                NutFrame nutFrame = toNutFrame(frame, streamHeaders, pixelFormats, sampleFormats,
+                        scratchPool, imageConverter);
+                if (trace) {
+                    LOGGER.trace("NutFrame: {}", nutFrame);
+                }
+                nutFrames[f] = nutFrame;
+            }
 
-            final byte[] data;
-            StreamHeader streamHeader = streamHeaders[frame.getStreamId()];
-            switch (streamHeader.streamType) {
-                case VIDEO:
-                    BufferedImage image = frame.getImage();
+            writer.writeFrames(nutFrames, count);
+            Arrays.fill(nutFrames, 0, count, null);
+        } while (count == frames.length);
+    }
 
-                    if (alpha && BufferedImage.TYPE_4BYTE_ABGR != image.getType()) {
-                        throw new RuntimeException("Type of BufferedImage must be TYPE_4BYTE_ABGR");
+    private static NutFrame toNutFrame(final Frame frame, final StreamHeader[] streamHeaders,
+                                       final PixelFormat[] pixelFormats,
+                                       final SampleFormat[] sampleFormats,
+                                       final NutBufferPool scratchPool,
+                                       final ImageConverter imageConverter) {
+        byte[] data = null;
+        ByteBuffer buffer = null;
+        NutBufferPool pool = null;
+        StreamHeader streamHeader = streamHeaders[frame.getStreamId()];
+        switch (streamHeader.streamType) {
+            case VIDEO:
+                PixelFormat pixelFormat = pixelFormats[frame.getStreamId()];
+                RawImage rawImage = frame.getRawImage();
+                if (rawImage != null) {
+                    if (rawImage.getPixelFormat() != pixelFormat
+                            || rawImage.getWidth() != streamHeader.video.width
+                            || rawImage.getHeight() != streamHeader.video.height) {
+                        throw new RuntimeException("Raw image " + rawImage
+                                + " doesn't match stream " + frame.getStreamId());
                     }
-                    if (!alpha && BufferedImage.TYPE_3BYTE_BGR != image.getType()) {
-                        throw new RuntimeException("Type of BufferedImage must be TYPE_3BYTE_BGR");
-                    }
-
-                    data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+                    buffer = rawImage.getData();
                     break;
+                }
 
-                case AUDIO:
-                    data = new byte[frame.getSamples().length * 4];
-                    ByteBuffer.wrap(data).asIntBuffer().put(frame.getSamples());
-                    break;
+                BufferedImage image = frame.getImage();
+                if (pixelFormat == PixelFormat.ABGR) {
+                    image = imageConverter.toAbgr(image);
+                } else if (pixelFormat == PixelFormat.BGR24) {
+                    image = imageConverter.toBgr(image);
+                } else {
+                    throw new RuntimeException("Frames of " + pixelFormat.getName()
+                            + " stream must hold RawImage");
+                }
 
-                default:
-                    throw new RuntimeException("Unexpected track: " + frame.getStreamId());
-            }
+                data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+                break;
+
+            case AUDIO:
+                SampleFormat sampleFormat = sampleFormats[frame.getStreamId()];
+                RawSamples rawSamples = frame.getRawSamples();
+                if (rawSamples != null) {
+                    if (rawSamples.getSampleFormat() != sampleFormat) {
+                        throw new RuntimeException("Raw samples " + rawSamples
+                                + " don't match stream " + frame.getStreamId());
+                    }
+                    buffer = rawSamples.getData();
+                } else {
+                    buffer = toSampleFormat(frame.getSamples(), sampleFormat, scratchPool);
+                    pool = scratchPool;
+                }
+                break;
+
+            default:
+                throw new RuntimeException("Unexpected track: " + frame.getStreamId());
+        }
 
-            NutFrame nutFrame = new NutFrame(
-                    frame.getStreamId(),
-                    frame.getPts(),
-                    data,
-                    new DataItem[0],
-                    new DataItem[0],
-                    true,
-                    false
-            );
-
-            LOGGER.trace("NutFrame: {}", nutFrame);
-            writer.writeFrame(nutFrame);
+        if (data != null) {
+            return new NutFrame(frame.getStreamId(), frame.getPts(), data,
+                    NO_DATA_ITEMS, NO_DATA_ITEMS, true, false);
+        }
+        return new NutFrame(frame.getStreamId(), frame.getPts(), buffer,
+                NO_DATA_ITEMS, NO_DATA_ITEMS, true, false, pool);
+    }
+
+    @SuppressWarnings("checkstyle:magicnumber")
+    private static ByteBuffer toSampleFormat(final int[] samples, final SampleFormat sampleFormat,
+                                             final NutBufferPool scratchPool) {
+        ByteBuffer result = scratchPool.acquire(samples.length * sampleFormat.getBytesPerSample())
+                .order(sampleFormat.getByteOrder());
+        switch (sampleFormat) {
+            case S32BE:
+                result.asIntBuffer().put(samples);
+                break;
+            case S16LE:
+                for (int i = 0; i < samples.length; i++) {
+                    result.putShort(i * 2, (short) (samples[i] >> 16));
+                }
+                break;
+            case F32LE:
+                for (int i = 0; i < samples.length; i++) {
+                    result.putFloat(i * 4, (float) (samples[i] / 2147483648.0));
+                }
+                break;
+            default:
+                throw new RuntimeException("Unsupported sample format: " + sampleFormat);
         }
+        return result;
     }
 }
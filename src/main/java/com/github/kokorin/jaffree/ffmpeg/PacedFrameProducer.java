@@ -0,0 +1,356 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.Rational;
+import com.github.kokorin.jaffree.nut.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link FrameProducer} which passes frames in real time: every frame is released when
+ * its pts is reached on a monotonic clock.
+ * <p>
+ * Schedule is anchored at the first frame, and every frame is scheduled relative to the anchor
+ * (not to the previous frame), so sleep inaccuracies don't accumulate. If a frame is late by
+ * more than {@link #setLatenessThreshold(long, TimeUnit) lateness threshold} (e.g. because
+ * the producer is slow or ffmpeg doesn't read frames in time), {@link LatePolicy} is applied.
+ * <p>
+ * Pacing statistics are updated with every frame and may be read from any thread.
+ *
+ * @see FrameInput#setPacing(LatePolicy)
+ */
+public class PacedFrameProducer implements FrameProducer {
+    private final FrameProducer producer;
+    private final Clock clock;
+    private LatePolicy latePolicy = LatePolicy.DELAY;
+    private long latenessThresholdNanos = DEFAULT_LATENESS_THRESHOLD_NANOS;
+
+    // accessed only by the thread which writes to ffmpeg
+    private Rational[] timebases;
+    private boolean[] video;
+    private Frame[] lastVideoFrames;
+    private long[] lastSourceNanos;
+    private long[] frameIntervals;
+    private final ArrayDeque<Frame> ready = new ArrayDeque<>();
+    private long startClockNanos;
+    private long startFrameNanos;
+    private boolean started = false;
+    private long lastOutputNanos = Long.MIN_VALUE;
+
+    private volatile long frameCount;
+    private volatile long droppedFrames;
+    private volatile long duplicatedFrames;
+    private volatile long waitNanos;
+    private volatile long lateness;
+    private volatile long maxLateness;
+    private volatile long timelineShiftNanos;
+
+    /**
+     * Default lateness threshold, 40 milliseconds.
+     */
+    public static final long DEFAULT_LATENESS_THRESHOLD_NANOS = 40_000_000L;
+
+    private static final Rational NANOSECONDS = new Rational(1, 1_000_000_000L);
+    private static final Logger LOGGER = LoggerFactory.getLogger(PacedFrameProducer.class);
+
+    /**
+     * What to do with frames which are late.
+     */
+    public enum LatePolicy {
+        /**
+         * Late frame is passed and the rest of timeline is shifted by its lateness, so
+         * subsequent frames aren't passed in a burst.
+         */
+        DELAY,
+
+        /**
+         * Late video frames are dropped, so video catches up with the schedule.
+         * Audio frames are never dropped.
+         */
+        DROP,
+
+        /**
+         * Timeline is shifted like with {@link #DELAY}, and the gap in video is filled with
+         * copies of the previous frame, so ffmpeg receives video frames at constant rate.
+         * <p>
+         * Copies share the previous frame's image, so frames must not be recycled.
+         */
+        DUPLICATE
+    }
+
+    /**
+     * Creates {@link PacedFrameProducer}.
+     *
+     * @param producer producer of frames to pace
+     */
+    public PacedFrameProducer(final FrameProducer producer) {
+        this(producer, Clock.SYSTEM);
+    }
+
+    PacedFrameProducer(final FrameProducer producer, final Clock clock) {
+        this.producer = producer;
+        this.clock = clock;
+    }
+
+    /**
+     * Sets what to do with late frames, {@link LatePolicy#DELAY} by default.
+     *
+     * @param latePolicy late policy
+     * @return this
+     */
+    public PacedFrameProducer setLatePolicy(final LatePolicy latePolicy) {
+        this.latePolicy = latePolicy;
+        return this;
+    }
+
+    /**
+     * Sets for how long a frame may be late before {@link LatePolicy} is applied.
+     * Frames which are late less than threshold are passed as is.
+     *
+     * @param threshold lateness threshold
+     * @param unit      time unit
+     * @return this
+     */
+    public PacedFrameProducer setLatenessThreshold(final long threshold, final TimeUnit unit) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Wrong lateness threshold: " + threshold);
+        }
+        this.latenessThresholdNanos = unit.toNanos(threshold);
+        return this;
+    }
+
+    @Override
+    public List<Stream> produceStreams() {
+        List<Stream> streams = producer.produceStreams();
+        timebases = new Rational[streams.size()];
+        video = new boolean[streams.size()];
+        lastVideoFrames = new Frame[streams.size()];
+        lastSourceNanos = new long[streams.size()];
+        frameIntervals = new long[streams.size()];
+        for (int i = 0; i < streams.size(); i++) {
+            Stream stream = streams.get(i);
+            timebases[i] = new Rational(1, stream.getTimebase());
+            video[i] = stream.getType() == Stream.Type.VIDEO;
+        }
+        return streams;
+    }
+
+    /**
+     * Waits until the next frame is due and returns it.
+     *
+     * @return frame, or null if there is no more frames
+     */
+    @Override
+    public Frame produce() {
+        while (ready.isEmpty()) {
+            Frame frame = producer.produce();
+            if (frame == null) {
+                LOGGER.debug("Frames: {}, dropped: {}, duplicated: {}, wait: {} ms, "
+                                + "max lateness: {} ms, timeline shift: {} ms", frameCount,
+                        droppedFrames, duplicatedFrames, TimeUnit.NANOSECONDS.toMillis(waitNanos),
+                        TimeUnit.NANOSECONDS.toMillis(maxLateness),
+                        TimeUnit.NANOSECONDS.toMillis(timelineShiftNanos));
+                return null;
+            }
+            schedule(frame);
+        }
+
+        Frame result = ready.poll();
+        frameCount++;
+        return result;
+    }
+
+    /**
+     * @return number of passed frames, including duplicated ones
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return number of dropped late frames
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return number of frames passed to fill the gaps in video
+     */
+    public long getDuplicatedFrames() {
+        return duplicatedFrames;
+    }
+
+    /**
+     * @return total time spent waiting for frames to become due
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * @return lateness of the last frame, negative if frame was early and had to wait
+     */
+    public long getLatenessNanos() {
+        return lateness;
+    }
+
+    /**
+     * @return maximum lateness of a frame
+     */
+    public long getMaxLatenessNanos() {
+        return maxLateness;
+    }
+
+    /**
+     * @return total shift of output timeline relative to frames' pts, caused by late frames
+     */
+    public long getTimelineShiftNanos() {
+        return timelineShiftNanos;
+    }
+
+    private void schedule(final Frame frame) {
+        int streamId = frame.getStreamId();
+        long frameNanos = Util.convertTimestamp(frame.getPts(), timebases[streamId], NANOSECONDS);
+        long now = clock.nanoTime();
+        if (!started) {
+            started = true;
+            startClockNanos = now;
+            startFrameNanos = frameNanos;
+        }
+
+        if (video[streamId] && lastVideoFrames[streamId] != null) {
+            frameIntervals[streamId] = frameNanos - lastSourceNanos[streamId];
+        }
+        lastSourceNanos[streamId] = frameNanos;
+
+        long due = startClockNanos + frameNanos - startFrameNanos + timelineShiftNanos;
+        long frameLateness = now - due;
+        lateness = frameLateness;
+        if (frameLateness > maxLateness) {
+            maxLateness = frameLateness;
+        }
+
+        if (frameLateness <= 0) {
+            waitUntil(due);
+        } else if (frameLateness > latenessThresholdNanos) {
+            switch (latePolicy) {
+                case DROP:
+                    if (video[streamId]) {
+                        droppedFrames++;
+                        // dropped frame's data won't be used
+                        frame.release();
+                        return;
+                    }
+                    break;
+                case DUPLICATE:
+                    if (video[streamId]) {
+                        timelineShiftNanos += duplicate(streamId, frameLateness);
+                        break;
+                    }
+                    timelineShiftNanos += frameLateness;
+                    break;
+                case DELAY:
+                default:
+                    timelineShiftNanos += frameLateness;
+                    break;
+            }
+        }
+
+        Frame output = frame;
+        if (timelineShiftNanos != 0) {
+            long shift = Util.convertTimestamp(timelineShiftNanos, NANOSECONDS,
+                    timebases[streamId]);
+            output = frame.withPts(frame.getPts() + shift, true);
+        }
+        if (video[streamId]) {
+            lastVideoFrames[streamId] = output;
+        }
+        lastOutputNanos = Math.max(lastOutputNanos, frameNanos + timelineShiftNanos);
+        ready.add(output);
+    }
+
+    /**
+     * Fills the gap caused by late video frame with copies of the previous frame.
+     *
+     * @return timeline shift, a multiple of frame interval
+     */
+    private long duplicate(final int streamId, final long frameLateness) {
+        long interval = frameIntervals[streamId];
+        Frame previous = lastVideoFrames[streamId];
+        if (interval <= 0 || previous == null) {
+            return frameLateness;
+        }
+
+        long slots = (frameLateness + interval - 1) / interval;
+        long previousNanos = Util.convertTimestamp(previous.getPts(), timebases[streamId],
+                NANOSECONDS);
+        for (long i = 1; i <= slots; i++) {
+            long copyNanos = previousNanos + i * interval;
+            // frames with lower timestamps may have been already written for other streams
+            if (copyNanos < lastOutputNanos) {
+                continue;
+            }
+            long copyPts = Util.convertTimestamp(copyNanos, NANOSECONDS, timebases[streamId]);
+            ready.add(previous.withPts(copyPts, false));
+            duplicatedFrames++;
+        }
+        return slots * interval;
+    }
+
+    private void waitUntil(final long due) {
+        long start = clock.nanoTime();
+        long remaining = due - start;
+        while (remaining > 0) {
+            clock.sleep(remaining);
+            remaining = due - clock.nanoTime();
+        }
+        waitNanos += clock.nanoTime() - start;
+    }
+
+    /**
+     * Monotonic clock, replaceable in tests.
+     */
+    interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void sleep(final long nanos) {
+                LockSupport.parkNanos(nanos);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while pacing frames");
+                }
+            }
+        };
+
+        long nanoTime();
+
+        void sleep(long nanos);
+    }
+}
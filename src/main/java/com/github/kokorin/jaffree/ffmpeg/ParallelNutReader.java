@@ -0,0 +1,309 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.Rational;
+import com.github.kokorin.jaffree.nut.MainHeader;
+import com.github.kokorin.jaffree.nut.NutFrame;
+import com.github.kokorin.jaffree.nut.NutIndex;
+import com.github.kokorin.jaffree.nut.NutInputStream;
+import com.github.kokorin.jaffree.nut.NutReader;
+import com.github.kokorin.jaffree.nut.NutSyncPointScanner;
+import com.github.kokorin.jaffree.nut.StreamHeader;
+import com.github.kokorin.jaffree.nut.SyncPointTable;
+import com.github.kokorin.jaffree.nut.Timestamp;
+import com.github.kokorin.jaffree.nut.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads recorded NUT file and converts it to {@link Frame}s in parallel.
+ * <p>
+ * File is split by syncpoints into ranges which can be demuxed independently. Ranges are
+ * demuxed and their frames are converted on {@link ForkJoinPool}, while frames are delivered
+ * to {@link FrameConsumer} in the calling thread in strict pts order (frames with equal
+ * timestamps are delivered in file order).
+ * <p>
+ * Syncpoints are taken from the file's index, if there is no index the file is scanned
+ * with {@link NutSyncPointScanner}. File is read via memory mapping.
+ */
+public class ParallelNutReader {
+    private final FileChannel channel;
+    private boolean alphaChannel = false;
+    private long rangeSize = DEFAULT_RANGE_SIZE;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int maxPendingRanges = 0;
+
+    /**
+     * Default minimum size of a range demuxed by a single task.
+     */
+    public static final long DEFAULT_RANGE_SIZE = 8 * 1024 * 1024;
+
+    private static final Rational NANOSECONDS = new Rational(1, 1_000_000_000L);
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelNutReader.class);
+
+    /**
+     * Creates {@link ParallelNutReader}.
+     *
+     * @param channel file channel to read, it's not closed by this reader
+     */
+    public ParallelNutReader(final FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @param alphaChannel video stream alpha channel
+     * @return this
+     * @see NutFrameConverter
+     */
+    public ParallelNutReader setAlphaChannel(final boolean alphaChannel) {
+        this.alphaChannel = alphaChannel;
+        return this;
+    }
+
+    /**
+     * Sets minimum size of a range, range ends at the first syncpoint after its minimum size.
+     *
+     * @param rangeSize range size in bytes
+     * @return this
+     */
+    public ParallelNutReader setRangeSize(final long rangeSize) {
+        if (rangeSize <= 0) {
+            throw new IllegalArgumentException("Wrong range size: " + rangeSize);
+        }
+        this.rangeSize = rangeSize;
+        return this;
+    }
+
+    /**
+     * @param pool pool to demux and convert ranges in, {@link ForkJoinPool#commonPool()}
+     *             by default
+     * @return this
+     */
+    public ParallelNutReader setPool(final ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of ranges which are demuxed ahead of delivery. Limits memory
+     * consumption, as all frames of a range are kept until they are delivered.
+     *
+     * @param maxPendingRanges maximum pending ranges, twice the pool parallelism by default
+     * @return this
+     */
+    public ParallelNutReader setMaxPendingRanges(final int maxPendingRanges) {
+        if (maxPendingRanges <= 0) {
+            throw new IllegalArgumentException("Wrong max pending ranges: " + maxPendingRanges);
+        }
+        this.maxPendingRanges = maxPendingRanges;
+        return this;
+    }
+
+    /**
+     * Reads the file and passes streams and then frames to consumer. The end of frames
+     * is signaled by passing null frame.
+     *
+     * @param consumer frame consumer
+     * @throws IOException if file can't be read
+     */
+    public void read(final FrameConsumer consumer) throws IOException {
+        NutReader reader = new NutReader(NutInputStream.map(channel));
+        final MainHeader mainHeader = reader.getMainHeader();
+        final StreamHeader[] streamHeaders = reader.getStreamHeaders();
+        final NutFrameConverter converter = new NutFrameConverter(mainHeader, streamHeaders,
+                alphaChannel);
+        consumer.consumeStreams(converter.getStreams());
+
+        NutSyncPointScanner scanner = new NutSyncPointScanner(mainHeader);
+        scanner.setPool(pool);
+        NutIndex index = reader.getIndex();
+        SyncPointTable table;
+        if (index != null) {
+            table = scanner.scan(channel, index);
+        } else {
+            table = scanner.scan(channel);
+        }
+
+        List<Integer> rangeStarts = splitToRanges(table);
+        LOGGER.debug("Reading {} ranges, syncpoints: {}", rangeStarts.size(), table.size());
+
+        int maxPending = maxPendingRanges;
+        if (maxPending <= 0) {
+            maxPending = 2 * pool.getParallelism();
+        }
+
+        Deque<ForkJoinTask<List<FrameEntry>>> pending = new ArrayDeque<>();
+        PriorityQueue<FrameEntry> ordering = new PriorityQueue<>();
+        long sequence = 0;
+        int nextToSubmit = 0;
+
+        try {
+            for (int range = 0; range < rangeStarts.size(); range++) {
+                while (nextToSubmit < rangeStarts.size() && pending.size() < maxPending) {
+                    pending.add(submitRange(table, rangeStarts, nextToSubmit, converter,
+                            mainHeader));
+                    nextToSubmit++;
+                }
+
+                for (FrameEntry entry : pending.poll().get()) {
+                    entry.sequence = sequence++;
+                    ordering.add(entry);
+                }
+
+                // Frames of the following ranges can't precede global_key_pts of their
+                // first syncpoint
+                long deliverUntil = Long.MAX_VALUE;
+                if (range + 1 < rangeStarts.size()) {
+                    int syncPoint = rangeStarts.get(range + 1);
+                    deliverUntil = toNanos(table.syncPoints[syncPoint].globalKeyPts, mainHeader);
+                }
+
+                while (!ordering.isEmpty() && ordering.peek().timestamp <= deliverUntil) {
+                    consumer.consume(ordering.poll().frame);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading ranges", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Failed to read range", cause);
+        } finally {
+            for (ForkJoinTask<List<FrameEntry>> task : pending) {
+                task.cancel(false);
+            }
+        }
+
+        consumer.consume(null);
+    }
+
+    /**
+     * Splits file into ranges.
+     *
+     * @param table syncpoints
+     * @return number of the first syncpoint for every range, -1 for the range at file start
+     */
+    private List<Integer> splitToRanges(final SyncPointTable table) {
+        List<Integer> result = new ArrayList<>();
+        // The first range starts at the beginning of a file to read frames preceding the first
+        // syncpoint, if there are any
+        result.add(-1);
+        long rangeStart = 0;
+
+        for (int i = 0; i < table.size(); i++) {
+            if (table.positions[i] - rangeStart >= rangeSize) {
+                result.add(i);
+                rangeStart = table.positions[i];
+            }
+        }
+
+        return result;
+    }
+
+    private ForkJoinTask<List<FrameEntry>> submitRange(final SyncPointTable table,
+                                                       final List<Integer> rangeStarts,
+                                                       final int range,
+                                                       final NutFrameConverter converter,
+                                                       final MainHeader mainHeader) {
+        int startSyncPoint = rangeStarts.get(range);
+        final long start = startSyncPoint < 0 ? 0 : table.positions[startSyncPoint];
+        final long end;
+        if (range + 1 < rangeStarts.size()) {
+            end = table.positions[rangeStarts.get(range + 1)];
+        } else {
+            end = Long.MAX_VALUE;
+        }
+
+        return pool.submit(new Callable<List<FrameEntry>>() {
+            @Override
+            public List<FrameEntry> call() throws Exception {
+                return readRange(start, end, converter, mainHeader);
+            }
+        });
+    }
+
+    private List<FrameEntry> readRange(final long start, final long end,
+                                       final NutFrameConverter converter,
+                                       final MainHeader mainHeader) throws IOException {
+        // Every range is read by its own reader, which reads file headers first
+        NutReader reader = new NutReader(NutInputStream.map(channel));
+        reader.seekToSyncPoint(start);
+
+        List<FrameEntry> result = new ArrayList<>();
+        StreamHeader[] streamHeaders = reader.getStreamHeaders();
+        NutFrame nutFrame;
+        while (reader.getPosition() < end && (nutFrame = reader.readFrame()) != null) {
+            Frame frame = converter.convert(nutFrame);
+            if (frame == null) {
+                continue;
+            }
+
+            Rational timebase = mainHeader.timeBases[streamHeaders[nutFrame.streamId].timeBaseId];
+            long timestamp = Util.convertTimestamp(nutFrame.pts, timebase, NANOSECONDS);
+            result.add(new FrameEntry(timestamp, frame));
+        }
+
+        // Frames are mostly ordered already, stable sort keeps file order for equal timestamps
+        Collections.sort(result);
+        return result;
+    }
+
+    private static long toNanos(final Timestamp timestamp, final MainHeader mainHeader) {
+        return Util.convertTimestamp(timestamp.pts, mainHeader.timeBases[timestamp.timebaseId],
+                NANOSECONDS);
+    }
+
+    private static class FrameEntry implements Comparable<FrameEntry> {
+        private final long timestamp;
+        private final Frame frame;
+        private long sequence;
+
+        FrameEntry(final long timestamp, final Frame frame) {
+            this.timestamp = timestamp;
+            this.frame = frame;
+        }
+
+        @Override
+        public int compareTo(final FrameEntry o) {
+            if (timestamp != o.timestamp) {
+                return Long.compare(timestamp, o.timestamp);
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+}
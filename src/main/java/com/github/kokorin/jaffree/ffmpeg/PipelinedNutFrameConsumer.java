@@ -0,0 +1,379 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.nut.NutBufferPool;
+import com.github.kokorin.jaffree.nut.NutFrame;
+import com.github.kokorin.jaffree.nut.NutInputStream;
+import com.github.kokorin.jaffree.nut.NutReader;
+import com.github.kokorin.jaffree.util.SocketInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link TcpOutput.Consumer} implementation which reads Nut format in a pipeline.
+ * <p>
+ * Unlike {@link NutFrameConsumer}, which parses, converts and delivers frames in a single
+ * thread, work is split into three stages:
+ * <ol>
+ * <li>reading thread (the calling one) parses NUT stream,</li>
+ * <li>conversion pool converts frames to {@link Frame}s,</li>
+ * <li>delivery thread passes frames to {@link FrameConsumer} in the original order.</li>
+ * </ol>
+ * Stages are connected by bounded queue, so slow {@link FrameConsumer} doesn't stall socket
+ * reading until the queue is full, and memory consumption is limited.
+ * <p>
+ * Time spent by every stage is counted and is available after reading is completed.
+ */
+public class PipelinedNutFrameConsumer implements TcpOutput.Consumer {
+    private final FrameConsumer frameConsumer;
+    private final boolean alphaChannel;
+    private int queueDepth = DEFAULT_QUEUE_DEPTH;
+    private int conversionThreads = Runtime.getRuntime().availableProcessors();
+    private Set<Integer> streamFilter;
+    private boolean frameRecycling = false;
+    private int batchSize = NutFrameConsumer.DEFAULT_BATCH_SIZE;
+
+    private final AtomicLong frameCount = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong readerWaitNanos = new AtomicLong();
+    private final AtomicLong conversionNanos = new AtomicLong();
+    private final AtomicLong deliveryNanos = new AtomicLong();
+    private final AtomicLong deliveryWaitNanos = new AtomicLong();
+
+    private volatile Throwable deliveryFailure;
+
+    /**
+     * Default maximum number of frames being converted or waiting for delivery.
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 16;
+
+    // Marks the end of frames in the queue
+    private static final Future<Frame> END_OF_FRAMES = CompletableFuture.completedFuture(null);
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipelinedNutFrameConsumer.class);
+
+    /**
+     * Creates {@link PipelinedNutFrameConsumer}.
+     *
+     * @param frameConsumer frame consumer
+     * @param alphaChannel  video stream alpha channel
+     */
+    public PipelinedNutFrameConsumer(final FrameConsumer frameConsumer,
+                                     final boolean alphaChannel) {
+        this.frameConsumer = frameConsumer;
+        this.alphaChannel = alphaChannel;
+    }
+
+    /**
+     * Sets maximum number of frames which have been read but not delivered yet.
+     *
+     * @param queueDepth queue depth
+     * @return this
+     */
+    public PipelinedNutFrameConsumer setQueueDepth(final int queueDepth) {
+        if (queueDepth <= 0) {
+            throw new IllegalArgumentException("Wrong queue depth: " + queueDepth);
+        }
+        this.queueDepth = queueDepth;
+        return this;
+    }
+
+    /**
+     * Sets number of threads which convert frames, number of processors by default.
+     *
+     * @param conversionThreads number of threads
+     * @return this
+     */
+    public PipelinedNutFrameConsumer setConversionThreads(final int conversionThreads) {
+        if (conversionThreads <= 0) {
+            throw new IllegalArgumentException("Wrong conversion threads: " + conversionThreads);
+        }
+        this.conversionThreads = conversionThreads;
+        return this;
+    }
+
+    /**
+     * Sets streams to read frames of, frames of other streams are skipped without conversion.
+     *
+     * @param streamFilter ids of streams to read, or null to read all streams
+     * @return this
+     */
+    public PipelinedNutFrameConsumer setStreamFilter(final Set<Integer> streamFilter) {
+        this.streamFilter = streamFilter;
+        return this;
+    }
+
+    /**
+     * Enables frame recycling: images and audio samples of {@link Frame}s released by
+     * {@link FrameConsumer} with {@link Frame#release()} are reused for subsequent frames
+     * of the same stream, NUT frame payloads are read into pooled buffers.
+     * <p>
+     * Frames which aren't released are simply garbage collected.
+     *
+     * @param frameRecycling true to recycle frames
+     * @return this
+     */
+    public PipelinedNutFrameConsumer setFrameRecycling(final boolean frameRecycling) {
+        this.frameRecycling = frameRecycling;
+        return this;
+    }
+
+    /**
+     * Sets maximum number of frames passed to {@link FrameConsumer#consumeBatch} at once.
+     * <p>
+     * Batching is disabled by default. Batch contains only frames which have been already
+     * converted, delivery never waits to fill a batch. With frame recycling, every frame of
+     * a batch may hold a pooled buffer, so pools grow with batch size.
+     *
+     * @param batchSize maximum batch size
+     * @return this
+     */
+    public PipelinedNutFrameConsumer setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Wrong batch size: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Reads media in Nut format from input stream and closes it.
+     *
+     * @param input input to read
+     */
+    @Override
+    public void consumeAndClose(final InputStream input) {
+        try (Closeable toClose = input) {
+            read(input);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read stream", e);
+        }
+    }
+
+    /**
+     * @return number of frames delivered to {@link FrameConsumer}
+     */
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    /**
+     * @return time spent by reading thread parsing NUT stream (including socket reads)
+     */
+    public long getReadNanos() {
+        return readNanos.get();
+    }
+
+    /**
+     * @return time spent by reading thread waiting for free space in the queue
+     */
+    public long getReaderWaitNanos() {
+        return readerWaitNanos.get();
+    }
+
+    /**
+     * @return total time spent by conversion threads
+     */
+    public long getConversionNanos() {
+        return conversionNanos.get();
+    }
+
+    /**
+     * @return time spent in {@link FrameConsumer}
+     */
+    public long getDeliveryNanos() {
+        return deliveryNanos.get();
+    }
+
+    /**
+     * @return time spent by delivery thread waiting for the next frame
+     */
+    public long getDeliveryWaitNanos() {
+        return deliveryWaitNanos.get();
+    }
+
+    private void read(final InputStream input) throws IOException {
+        final NutInputStream stream;
+        if (input instanceof SocketInputStream
+                && ((SocketInputStream) input).getChannel() != null) {
+            stream = new NutInputStream(((SocketInputStream) input).getChannel());
+        } else {
+            stream = new NutInputStream(input);
+        }
+        NutReader nutReader = new NutReader(stream);
+        nutReader.setStreamFilter(streamFilter);
+
+        final NutFrameConverter converter = new NutFrameConverter(nutReader.getMainHeader(),
+                nutReader.getStreamHeaders(), alphaChannel);
+        if (frameRecycling) {
+            // every queued, being converted and being consumed frame may hold a buffer
+            int maxIdle = queueDepth + conversionThreads + batchSize;
+            nutReader.setBufferPool(new NutBufferPool(false, maxIdle));
+            converter.setFramePool(new FramePool(maxIdle));
+        }
+        frameConsumer.consumeStreams(converter.getStreams());
+
+        BlockingQueue<Future<Frame>> queue = new ArrayBlockingQueue<>(queueDepth);
+        ExecutorService conversionPool = Executors.newFixedThreadPool(conversionThreads,
+                new DaemonThreadFactory("NutFrameConverter"));
+        Delivery delivery = new Delivery(queue);
+        Thread deliveryThread = new DaemonThreadFactory("NutFrameDelivery").newThread(delivery);
+        deliveryThread.start();
+
+        try {
+            while (deliveryFailure == null) {
+                long start = System.nanoTime();
+                final NutFrame nutFrame = nutReader.readFrame();
+                readNanos.addAndGet(System.nanoTime() - start);
+
+                if (nutFrame == null) {
+                    break;
+                }
+
+                Future<Frame> converted = conversionPool.submit(new Callable<Frame>() {
+                    @Override
+                    public Frame call() {
+                        long start = System.nanoTime();
+                        Frame result = converter.convert(nutFrame);
+                        if (frameRecycling) {
+                            // frame data has been copied by converter
+                            nutFrame.release();
+                        }
+                        conversionNanos.addAndGet(System.nanoTime() - start);
+                        return result;
+                    }
+                });
+                put(queue, converted);
+            }
+
+            put(queue, END_OF_FRAMES);
+            deliveryThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading frames", e);
+        } finally {
+            if (deliveryThread.isAlive()) {
+                deliveryThread.interrupt();
+            }
+            conversionPool.shutdownNow();
+        }
+
+        if (deliveryFailure != null) {
+            throw new RuntimeException("Failed to deliver frames", deliveryFailure);
+        }
+
+        LOGGER.debug("Frames: {}, read: {} ms, reader wait: {} ms, conversion: {} ms, "
+                        + "delivery: {} ms, delivery wait: {} ms", frameCount,
+                TimeUnit.NANOSECONDS.toMillis(readNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(readerWaitNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(conversionNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(deliveryNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(deliveryWaitNanos.get()));
+    }
+
+    private void put(final BlockingQueue<Future<Frame>> queue, final Future<Frame> item)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        // Delivery may fail and stop taking frames from the queue
+        while (deliveryFailure == null
+                && !queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            LOGGER.trace("Waiting for delivery queue");
+        }
+        readerWaitNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * Takes converted frames in order and passes them to {@link FrameConsumer}.
+     */
+    private class Delivery implements Runnable {
+        private final BlockingQueue<Future<Frame>> queue;
+
+        Delivery(final BlockingQueue<Future<Frame>> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            Frame[] batch = new Frame[batchSize];
+            try {
+                boolean end = false;
+                while (!end) {
+                    long start = System.nanoTime();
+                    int count = 0;
+                    Future<Frame> next = queue.take();
+                    // add to batch frames which are already converted
+                    while (true) {
+                        if (next == END_OF_FRAMES) {
+                            end = true;
+                            break;
+                        }
+                        Frame frame = next.get();
+                        if (frame != null) {
+                            batch[count++] = frame;
+                        }
+
+                        next = queue.peek();
+                        if (count == batch.length || next == null || !next.isDone()) {
+                            break;
+                        }
+                        queue.poll();
+                    }
+                    deliveryWaitNanos.addAndGet(System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    if (count == 1) {
+                        frameConsumer.consume(batch[0]);
+                    } else if (count > 1) {
+                        frameConsumer.consumeBatch(batch, count);
+                    }
+                    deliveryNanos.addAndGet(System.nanoTime() - start);
+                    frameCount.addAndGet(count);
+                    Arrays.fill(batch, 0, count, null);
+                }
+
+                frameConsumer.consume(null);
+            } catch (InterruptedException e) {
+                LOGGER.debug("Frame delivery has been interrupted");
+                deliveryFailure = e;
+            } catch (ExecutionException e) {
+                LOGGER.warn("Failed to convert frame", e.getCause());
+                deliveryFailure = e.getCause();
+            } catch (Throwable e) {
+                LOGGER.warn("Frame consumer has failed", e);
+                deliveryFailure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import java.util.Arrays;
+
+/**
+ * Raw video pixel formats which can be passed to and from ffmpeg in Nut format.
+ * <p>
+ * Frame data is expected to be tightly packed: planes follow each other without padding
+ * and every row of a plane has no padding either.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public enum PixelFormat {
+    /**
+     * Packed BGR 8:8:8, 24 bits per pixel.
+     */
+    BGR24("bgr24", new byte[]{'B', 'G', 'R', 24}),
+
+    /**
+     * Packed ABGR 8:8:8:8, 32 bits per pixel.
+     */
+    ABGR("abgr", new byte[]{'A', 'B', 'G', 'R'}),
+
+    /**
+     * Packed RGBA 8:8:8:8, 32 bits per pixel.
+     */
+    RGBA("rgba", new byte[]{'R', 'G', 'B', 'A'}),
+
+    /**
+     * Y, 8 bits per pixel.
+     */
+    GRAY("gray", new byte[]{'Y', '8', '0', '0'}, new byte[]{'Y', '1', 0, 8}),
+
+    /**
+     * Planar YUV 4:2:0: Y plane followed by U and V planes subsampled 2x2, 12 bits per pixel.
+     */
+    YUV420P("yuv420p", new byte[]{'I', '4', '2', '0'}, new byte[]{'Y', '3', 11, 8}),
+
+    /**
+     * Y plane followed by interleaved UV plane subsampled 2x2, 12 bits per pixel.
+     */
+    NV12("nv12", new byte[]{'N', 'V', '1', '2'});
+
+    private final String name;
+    // the first one is written, others are recognized when reading
+    private final byte[][] fourccs;
+
+    PixelFormat(final String name, final byte[]... fourccs) {
+        this.name = name;
+        this.fourccs = fourccs;
+    }
+
+    /**
+     * @return ffmpeg pixel format name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return fourcc of the pixel format in Nut stream header
+     */
+    public byte[] getFourcc() {
+        return fourccs[0].clone();
+    }
+
+    /**
+     * @return number of planes
+     */
+    public int getPlaneCount() {
+        switch (this) {
+            case YUV420P:
+                return 3;
+            case NV12:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Returns number of bytes in a row of the plane.
+     *
+     * @param plane plane index
+     * @param width image width
+     * @return plane stride
+     */
+    public int getPlaneStride(final int plane, final int width) {
+        checkPlane(plane);
+        switch (this) {
+            case BGR24:
+                return width * 3;
+            case ABGR:
+            case RGBA:
+                return width * 4;
+            case YUV420P:
+                return plane == 0 ? width : chroma(width);
+            case NV12:
+                return plane == 0 ? width : chroma(width) * 2;
+            default:
+                return width;
+        }
+    }
+
+    /**
+     * Returns number of rows in the plane.
+     *
+     * @param plane  plane index
+     * @param height image height
+     * @return plane height
+     */
+    public int getPlaneHeight(final int plane, final int height) {
+        checkPlane(plane);
+        return plane == 0 ? height : chroma(height);
+    }
+
+    /**
+     * Returns offset of the plane from the start of frame data.
+     *
+     * @param plane  plane index
+     * @param width  image width
+     * @param height image height
+     * @return plane offset in bytes
+     */
+    public int getPlaneOffset(final int plane, final int width, final int height) {
+        checkPlane(plane);
+        int result = 0;
+        for (int i = 0; i < plane; i++) {
+            result += getPlaneStride(i, width) * getPlaneHeight(i, height);
+        }
+        return result;
+    }
+
+    /**
+     * Returns frame data size.
+     *
+     * @param width  image width
+     * @param height image height
+     * @return number of bytes in a frame
+     */
+    public int getFrameSize(final int width, final int height) {
+        return getPlaneOffset(getPlaneCount() - 1, width, height)
+                + getPlaneStride(getPlaneCount() - 1, width)
+                * getPlaneHeight(getPlaneCount() - 1, height);
+    }
+
+    /**
+     * Finds pixel format by its fourcc.
+     *
+     * @param fourcc fourcc from Nut stream header
+     * @return pixel format, or null if fourcc is unknown
+     */
+    public static PixelFormat fromFourcc(final byte[] fourcc) {
+        for (PixelFormat pixelFormat : values()) {
+            for (byte[] candidate : pixelFormat.fourccs) {
+                if (Arrays.equals(candidate, fourcc)) {
+                    return pixelFormat;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void checkPlane(final int plane) {
+        if (plane < 0 || plane >= getPlaneCount()) {
+            throw new IllegalArgumentException("Wrong plane " + plane + " for " + name);
+        }
+    }
+
+    private static int chroma(final int size) {
+        return (size + 1) / 2;
+    }
+}
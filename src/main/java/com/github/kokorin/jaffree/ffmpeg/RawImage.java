@@ -0,0 +1,225 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.ByteBuffer;
+
+/**
+ * Video frame data in one of {@link PixelFormat}s as it's passed to or from ffmpeg.
+ * <p>
+ * Unlike {@link BufferedImage} it can hold compact pixel formats (like yuv420p, which takes half
+ * the bytes of bgr24) and doesn't require copying of data read from Nut stream.
+ * {@link BufferedImage} is created only on demand with {@link #toBufferedImage()}.
+ */
+public class RawImage {
+    private final PixelFormat pixelFormat;
+    private final int width;
+    private final int height;
+    private final ByteBuffer data;
+    private BufferedImage image;
+
+    /**
+     * Creates {@link RawImage}.
+     * <p>
+     * Data is used from its current position to its limit, it must not be changed afterwards.
+     *
+     * @param pixelFormat pixel format
+     * @param width       image width
+     * @param height      image height
+     * @param data        tightly packed image data
+     */
+    public RawImage(final PixelFormat pixelFormat, final int width, final int height,
+                    final ByteBuffer data) {
+        int expected = pixelFormat.getFrameSize(width, height);
+        if (data.remaining() != expected) {
+            throw new IllegalArgumentException("Wrong data size for " + pixelFormat.getName()
+                    + " " + width + "x" + height + ": expected " + expected
+                    + " bytes, but got " + data.remaining());
+        }
+
+        this.pixelFormat = pixelFormat;
+        this.width = width;
+        this.height = height;
+        this.data = data.slice();
+    }
+
+    /**
+     * @return pixel format
+     */
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * @return image width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return image height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns image data. Returned buffer is independent from other buffers returned by this
+     * method, but shares content with them. It may be read-only.
+     *
+     * @return image data, all planes one after another
+     */
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    /**
+     * Returns data of a single plane.
+     *
+     * @param plane plane index
+     * @return plane data
+     * @see PixelFormat#getPlaneCount()
+     */
+    public ByteBuffer getPlane(final int plane) {
+        int offset = pixelFormat.getPlaneOffset(plane, width, height);
+        int length = getPlaneStride(plane) * pixelFormat.getPlaneHeight(plane, height);
+
+        ByteBuffer result = data.duplicate();
+        result.position(offset);
+        result.limit(offset + length);
+        return result.slice();
+    }
+
+    /**
+     * @param plane plane index
+     * @return number of bytes in a row of the plane
+     */
+    public int getPlaneStride(final int plane) {
+        return pixelFormat.getPlaneStride(plane, width);
+    }
+
+    /**
+     * Converts image to {@link BufferedImage}.
+     * <p>
+     * bgr24, abgr and gray are only copied, rgba is converted to {@code TYPE_4BYTE_ABGR},
+     * YUV formats are converted (with BT.601 coefficients) to {@code TYPE_3BYTE_BGR}.
+     * Conversion is done once, subsequent invocations return the same image.
+     *
+     * @return image
+     */
+    public synchronized BufferedImage toBufferedImage() {
+        if (image == null) {
+            image = convert();
+        }
+        return image;
+    }
+
+    @SuppressWarnings("checkstyle:magicnumber")
+    private BufferedImage convert() {
+        final BufferedImage result;
+        switch (pixelFormat) {
+            case BGR24:
+                result = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+                data.duplicate().get(pixels(result));
+                break;
+            case ABGR:
+                result = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+                data.duplicate().get(pixels(result));
+                break;
+            case GRAY:
+                result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+                data.duplicate().get(pixels(result));
+                break;
+            case RGBA:
+                result = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+                byte[] abgr = pixels(result);
+                for (int i = 0; i < abgr.length; i += 4) {
+                    abgr[i] = data.get(i + 3);
+                    abgr[i + 1] = data.get(i + 2);
+                    abgr[i + 2] = data.get(i + 1);
+                    abgr[i + 3] = data.get(i);
+                }
+                break;
+            case YUV420P:
+            case NV12:
+                result = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+                yuvToBgr(pixels(result));
+                break;
+            default:
+                throw new IllegalStateException("Unsupported pixel format: " + pixelFormat);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("checkstyle:magicnumber")
+    private void yuvToBgr(final byte[] bgr) {
+        ByteBuffer luma = getPlane(0);
+        ByteBuffer u = getPlane(1);
+        ByteBuffer v = pixelFormat == PixelFormat.NV12 ? u : getPlane(2);
+        int chromaStride = getPlaneStride(1);
+        // NV12 has U and V interleaved in a single plane
+        int uOffset = 0;
+        int vOffset = pixelFormat == PixelFormat.NV12 ? 1 : 0;
+        int chromaStep = pixelFormat == PixelFormat.NV12 ? 2 : 1;
+
+        int out = 0;
+        for (int y = 0; y < height; y++) {
+            int chromaRow = (y / 2) * chromaStride;
+            for (int x = 0; x < width; x++) {
+                int chroma = chromaRow + (x / 2) * chromaStep;
+                int c = 298 * ((luma.get(y * width + x) & 0xFF) - 16) + 128;
+                int d = (u.get(chroma + uOffset) & 0xFF) - 128;
+                int e = (v.get(chroma + vOffset) & 0xFF) - 128;
+
+                bgr[out++] = clip((c + 516 * d) >> 8);
+                bgr[out++] = clip((c - 100 * d - 208 * e) >> 8);
+                bgr[out++] = clip((c + 409 * e) >> 8);
+            }
+        }
+    }
+
+    @SuppressWarnings("checkstyle:magicnumber")
+    private static byte clip(final int value) {
+        if (value < 0) {
+            return 0;
+        }
+        if (value > 255) {
+            return (byte) 255;
+        }
+        return (byte) value;
+    }
+
+    private static byte[] pixels(final BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "RawImage{"
+                + "pixelFormat=" + pixelFormat.getName()
+                + ", width=" + width
+                + ", height=" + height
+                + '}';
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Audio samples in one of {@link SampleFormat}s as they're passed to or from ffmpeg.
+ * <p>
+ * Samples of all channels are interleaved. Typed views ({@link #asShortBuffer()},
+ * {@link #asFloatBuffer()}, {@link #asIntBuffer()}) are created over the data without copying.
+ * Samples are converted to {@code int[]} (see {@link Frame#getSamples()}) only on demand.
+ */
+public class RawSamples {
+    private final SampleFormat sampleFormat;
+    private final ByteBuffer data;
+    private int[] samples;
+
+    /**
+     * Creates {@link RawSamples}.
+     * <p>
+     * Data is used from its current position to its limit, it must not be changed afterwards.
+     *
+     * @param sampleFormat sample format
+     * @param data         interleaved samples
+     */
+    public RawSamples(final SampleFormat sampleFormat, final ByteBuffer data) {
+        if (data.remaining() % sampleFormat.getBytesPerSample() != 0) {
+            throw new IllegalArgumentException("Wrong data size for " + sampleFormat.getCodec()
+                    + ": " + data.remaining());
+        }
+
+        this.sampleFormat = sampleFormat;
+        this.data = data.slice();
+    }
+
+    /**
+     * @return sample format
+     */
+    public SampleFormat getSampleFormat() {
+        return sampleFormat;
+    }
+
+    /**
+     * @return number of samples (of all channels)
+     */
+    public int getSampleCount() {
+        return data.remaining() / sampleFormat.getBytesPerSample();
+    }
+
+    /**
+     * Returns samples data. Returned buffer is independent from other buffers returned by this
+     * method, but shares content with them. It may be read-only.
+     *
+     * @return samples data with byte order of the sample format
+     */
+    public ByteBuffer getData() {
+        return data.duplicate().order(sampleFormat.getByteOrder());
+    }
+
+    /**
+     * @return view of {@link SampleFormat#S16LE} samples
+     * @throws IllegalStateException if samples are in other format
+     */
+    public ShortBuffer asShortBuffer() {
+        checkFormat(SampleFormat.S16LE);
+        return getData().asShortBuffer();
+    }
+
+    /**
+     * @return view of {@link SampleFormat#F32LE} samples
+     * @throws IllegalStateException if samples are in other format
+     */
+    public FloatBuffer asFloatBuffer() {
+        checkFormat(SampleFormat.F32LE);
+        return getData().asFloatBuffer();
+    }
+
+    /**
+     * @return view of {@link SampleFormat#S32BE} samples
+     * @throws IllegalStateException if samples are in other format
+     */
+    public IntBuffer asIntBuffer() {
+        checkFormat(SampleFormat.S32BE);
+        return getData().asIntBuffer();
+    }
+
+    /**
+     * Converts samples to signed 32-bit integers.
+     * <p>
+     * Conversion is done once, subsequent invocations return the same array.
+     *
+     * @return samples
+     */
+    @SuppressWarnings("checkstyle:magicnumber")
+    public synchronized int[] toIntArray() {
+        if (samples != null) {
+            return samples;
+        }
+
+        int[] result = new int[getSampleCount()];
+        switch (sampleFormat) {
+            case S32BE:
+                asIntBuffer().get(result);
+                break;
+            case S16LE:
+                ShortBuffer shorts = asShortBuffer();
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = shorts.get(i) << 16;
+                }
+                break;
+            case F32LE:
+                FloatBuffer floats = asFloatBuffer();
+                for (int i = 0; i < result.length; i++) {
+                    // float to int conversion saturates out of range values
+                    result[i] = (int) (floats.get(i) * 2147483648.0);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unsupported sample format: " + sampleFormat);
+        }
+
+        samples = result;
+        return result;
+    }
+
+    private void checkFormat(final SampleFormat expected) {
+        if (sampleFormat != expected) {
+            throw new IllegalStateException("Samples are in " + sampleFormat.getCodec()
+                    + " format, not " + expected.getCodec());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "RawSamples{"
+                + "sampleFormat=" + sampleFormat.getCodec()
+                + ", samples=" + getSampleCount()
+                + '}';
+    }
+}
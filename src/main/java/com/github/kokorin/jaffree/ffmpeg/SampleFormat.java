@@ -0,0 +1,98 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.ffmpeg;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * PCM audio sample formats which can be passed to and from ffmpeg in Nut format.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public enum SampleFormat {
+    /**
+     * Signed 32-bit big-endian integer samples, {@link Frame#getSamples()} format.
+     */
+    S32BE("pcm_s32be", 4, ByteOrder.BIG_ENDIAN, new byte[]{32, 'D', 'S', 'P'}),
+
+    /**
+     * Signed 16-bit little-endian integer samples.
+     */
+    S16LE("pcm_s16le", 2, ByteOrder.LITTLE_ENDIAN, new byte[]{'P', 'S', 'D', 16}),
+
+    /**
+     * 32-bit little-endian float samples in range [-1.0, 1.0].
+     */
+    F32LE("pcm_f32le", 4, ByteOrder.LITTLE_ENDIAN, new byte[]{'P', 'F', 'D', 32});
+
+    private final String codec;
+    private final int bytesPerSample;
+    private final ByteOrder byteOrder;
+    private final byte[] fourcc;
+
+    SampleFormat(final String codec, final int bytesPerSample, final ByteOrder byteOrder,
+                 final byte[] fourcc) {
+        this.codec = codec;
+        this.bytesPerSample = bytesPerSample;
+        this.byteOrder = byteOrder;
+        this.fourcc = fourcc;
+    }
+
+    /**
+     * @return ffmpeg audio codec name
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return number of bytes in a single sample (of a single channel)
+     */
+    public int getBytesPerSample() {
+        return bytesPerSample;
+    }
+
+    /**
+     * @return byte order of samples
+     */
+    public ByteOrder getByteOrder() {
+        return byteOrder;
+    }
+
+    /**
+     * @return fourcc of the sample format in Nut stream header
+     */
+    public byte[] getFourcc() {
+        return fourcc.clone();
+    }
+
+    /**
+     * Finds sample format by its fourcc.
+     *
+     * @param fourcc fourcc from Nut stream header
+     * @return sample format, or null if fourcc is unknown
+     */
+    public static SampleFormat fromFourcc(final byte[] fourcc) {
+        for (SampleFormat sampleFormat : values()) {
+            if (Arrays.equals(sampleFormat.fourcc, fourcc)) {
+                return sampleFormat;
+            }
+        }
+        return null;
+    }
+}
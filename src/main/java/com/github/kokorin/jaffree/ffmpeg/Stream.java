@@ -23,8 +23,10 @@ public class Stream {
     private Long timebase;
     private Integer width;
     private Integer height;
+    private PixelFormat pixelFormat;
     private Long sampleRate;
     private Integer channels;
+    private SampleFormat sampleFormat;
 
     public enum Type {
         VIDEO,
@@ -80,6 +82,21 @@ public class Stream {
         return setWidth(width).setHeight(height);
     }
 
+    /**
+     * Returns pixel format of video stream. Frames of bgr24 and abgr streams hold
+     * {@link java.awt.image.BufferedImage}, frames of other streams hold {@link RawImage}.
+     *
+     * @return pixel format, null means bgr24 (or abgr if alpha channel is used)
+     */
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    public Stream setPixelFormat(PixelFormat pixelFormat) {
+        this.pixelFormat = pixelFormat;
+        return this;
+    }
+
     public Long getSampleRate() {
         return sampleRate;
     }
@@ -98,6 +115,21 @@ public class Stream {
         return this;
     }
 
+    /**
+     * Returns sample format of audio stream. Frames of pcm_s32be streams hold samples as
+     * int array, frames of other streams hold {@link RawSamples}.
+     *
+     * @return sample format, null means pcm_s32be
+     */
+    public SampleFormat getSampleFormat() {
+        return sampleFormat;
+    }
+
+    public Stream setSampleFormat(SampleFormat sampleFormat) {
+        this.sampleFormat = sampleFormat;
+        return this;
+    }
+
     @Override
     public String toString() {
         return "Stream{" +
@@ -17,41 +17,125 @@
 
 package com.github.kokorin.jaffree.nut;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * CRC32 implementation used in NUT.
  * <p>
  * Generator polynomial is 0x104C11DB7. Starting value is zero.
  * <p>
  * Can't be replaced with java.util.zip.CRC32 because it has different polynomial generator
+ * <p>
+ * Bulk updates use slice-by-8 algorithm: 8 bytes are processed per iteration with 8 lookup
+ * tables of 256 entries each.
  */
 @SuppressWarnings("checkstyle:magicnumber")
 class CRC32 {
     private int crc = 0;
 
-    private static final int[] TABLE = {
-            0x00000000, 0x04C11DB7, 0x09823B6E, 0x0D4326D9,
-            0x130476DC, 0x17C56B6B, 0x1A864DB2, 0x1E475005,
-            0x2608EDB8, 0x22C9F00F, 0x2F8AD6D6, 0x2B4BCB61,
-            0x350C9B64, 0x31CD86D3, 0x3C8EA00A, 0x384FBDBD,
-    };
+    private static final int POLYNOMIAL = 0x04C11DB7;
+    private static final int[][] TABLES = createTables();
+    private static final int[] T0 = TABLES[0];
+    private static final int[] T1 = TABLES[1];
+    private static final int[] T2 = TABLES[2];
+    private static final int[] T3 = TABLES[3];
+    private static final int[] T4 = TABLES[4];
+    private static final int[] T5 = TABLES[5];
+    private static final int[] T6 = TABLES[6];
+    private static final int[] T7 = TABLES[7];
 
     public void reset() {
         crc = 0;
     }
 
     public void update(final int value) {
-        crc ^= value << 24;
-        crc = (crc << 4) ^ TABLE[crc >>> 28];
-        crc = (crc << 4) ^ TABLE[crc >>> 28];
+        crc = (crc << 8) ^ T0[((crc >>> 24) ^ value) & 0xFF];
     }
 
     public void update(final byte[] data) {
-        for (int value : data) {
-            update(value);
+        update(data, 0, data.length);
+    }
+
+    public void update(final byte[] data, final int offset, final int length) {
+        int c = crc;
+        int i = offset;
+        int end = offset + length;
+
+        for (; i + 8 <= end; i += 8) {
+            int high = c ^ ((data[i] & 0xFF) << 24 | (data[i + 1] & 0xFF) << 16
+                    | (data[i + 2] & 0xFF) << 8 | (data[i + 3] & 0xFF));
+            c = T7[high >>> 24] ^ T6[(high >>> 16) & 0xFF]
+                    ^ T5[(high >>> 8) & 0xFF] ^ T4[high & 0xFF]
+                    ^ T3[data[i + 4] & 0xFF] ^ T2[data[i + 5] & 0xFF]
+                    ^ T1[data[i + 6] & 0xFF] ^ T0[data[i + 7] & 0xFF];
+        }
+
+        for (; i < end; i++) {
+            c = (c << 8) ^ T0[((c >>> 24) ^ data[i]) & 0xFF];
+        }
+
+        crc = c;
+    }
+
+    /**
+     * Updates checksum with bytes from buffer's position to its limit.
+     * Buffer's position is set to its limit.
+     *
+     * @param data data
+     */
+    public void update(final ByteBuffer data) {
+        if (data.hasArray()) {
+            update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+
+        int c = crc;
+        ByteBuffer bigEndian = data.order() == ByteOrder.BIG_ENDIAN
+                ? data
+                : data.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        while (bigEndian.remaining() >= 8) {
+            long value = bigEndian.getLong();
+            int high = c ^ (int) (value >>> 32);
+            int low = (int) value;
+            c = T7[high >>> 24] ^ T6[(high >>> 16) & 0xFF]
+                    ^ T5[(high >>> 8) & 0xFF] ^ T4[high & 0xFF]
+                    ^ T3[low >>> 24] ^ T2[(low >>> 16) & 0xFF]
+                    ^ T1[(low >>> 8) & 0xFF] ^ T0[low & 0xFF];
+        }
+
+        while (bigEndian.hasRemaining()) {
+            c = (c << 8) ^ T0[((c >>> 24) ^ bigEndian.get()) & 0xFF];
         }
+
+        data.position(data.limit());
+        crc = c;
     }
 
     public long getValue() {
         return (long) crc & 0xffffffffL;
     }
+
+    private static int[][] createTables() {
+        int[][] result = new int[8][256];
+
+        for (int n = 0; n < 256; n++) {
+            int c = n << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                c = (c << 1) ^ (c < 0 ? POLYNOMIAL : 0);
+            }
+            result[0][n] = c;
+        }
+
+        for (int k = 1; k < 8; k++) {
+            for (int n = 0; n < 256; n++) {
+                int previous = result[k - 1][n];
+                result[k][n] = (previous << 8) ^ result[0][previous >>> 24];
+            }
+        }
+
+        return result;
+    }
 }
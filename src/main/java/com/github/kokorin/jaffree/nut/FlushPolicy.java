@@ -0,0 +1,44 @@
+/*
+ *    Copyright  2021 Alex Katlein
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.nut;
+
+/**
+ * Defines when {@link NutWriter} flushes written data to the underlying output.
+ * <p>
+ * Regardless of policy data is written when {@link NutOutputStream} buffer is full, and all
+ * data is flushed by {@link NutWriter#writeFooter()}.
+ */
+public enum FlushPolicy {
+    /**
+     * Flush after every header, info and syncpoint packet. Frames are written when buffer
+     * is full.
+     */
+    PACKET,
+
+    /**
+     * Flush after every frame, so every frame reaches consumer as soon as it's written.
+     * Intended for live streaming.
+     */
+    LOW_LATENCY,
+
+    /**
+     * Never flush until the end of stream, so small frames (e.g. audio) are coalesced into
+     * big writes. Intended to be used with big {@link NutOutputStream} buffer.
+     */
+    THROUGHPUT
+}
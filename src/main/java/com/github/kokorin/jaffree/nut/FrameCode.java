@@ -31,6 +31,14 @@ import java.util.Set;
 public class FrameCode {
     public final Set<Flag> flags;
 
+    /**
+     * The same flags as {@link #flags}, but as a bitmask.
+     * <p>
+     * Used by NUT reader and writer to process frame headers without allocations,
+     * individual flags can be checked with FLAG_* constants.
+     */
+    public final long flagMask;
+
     /**
      * If {@link Flag#STREAM_ID} is not set then this is the stream number for the
      * frame following this frame_code.
@@ -100,6 +108,19 @@ public class FrameCode {
     public final long elisionHeaderIdx;
 
 
+    public static final long FLAG_KEYFRAME = Flag.KEYFRAME.code;
+    public static final long FLAG_EOR = Flag.EOR.code;
+    public static final long FLAG_CODED_PTS = Flag.CODED_PTS.code;
+    public static final long FLAG_STREAM_ID = Flag.STREAM_ID.code;
+    public static final long FLAG_SIZE_MSB = Flag.SIZE_MSB.code;
+    public static final long FLAG_CHECKSUM = Flag.CHECKSUM.code;
+    public static final long FLAG_RESERVED = Flag.RESERVED.code;
+    public static final long FLAG_SM_DATA = Flag.SM_DATA.code;
+    public static final long FLAG_HEADER_IDX = Flag.HEADER_IDX.code;
+    public static final long FLAG_MATCH_TIME = Flag.MATCH_TIME.code;
+    public static final long FLAG_CODED_FLAGS = Flag.CODED_FLAGS.code;
+    public static final long FLAG_INVALID = Flag.INVALID.code;
+
     public static final FrameCode INVALID = new FrameCode(
             EnumSet.of(Flag.INVALID),
             0, 0, 0,
@@ -123,6 +144,7 @@ public class FrameCode {
                      final int dataSizeLsb, final long ptsDelta, final long reservedCount,
                      final long matchTimeDelta, final long elisionHeaderIdx) {
         this.flags = flags;
+        this.flagMask = Flag.toBitCode(flags);
         this.streamId = streamId;
         this.dataSizeMul = dataSizeMul;
         this.dataSizeLsb = dataSizeLsb;
@@ -231,6 +253,13 @@ public class FrameCode {
             this.code = code;
         }
 
+        /**
+         * @return bitmask value of this flag
+         */
+        public long getCode() {
+            return code;
+        }
+
         /**
          * Creates Set of {@link Flag} from passed in bitmask value.
          *
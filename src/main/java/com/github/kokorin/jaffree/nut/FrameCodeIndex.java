@@ -0,0 +1,235 @@
+/*
+ *    Copyright  2021 Alex Katlein
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.nut;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lookup index which selects frame code with the shortest frame header for a frame.
+ * <p>
+ * Frame codes are grouped by stream id, keyframe and EOR flags. Each group contains only frame
+ * codes which can be used for such frames, sorted by the shortest possible header length.
+ * Lookup walks the group and stops as soon as no remaining frame code can produce shorter
+ * header, so usually only the first few frame codes are checked.
+ * <p>
+ * Selected frame code is the same as if all 256 frame codes were checked: the one with
+ * the shortest header, the lowest one if several frame codes have the same header length.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+class FrameCodeIndex {
+    private final FrameCode[] frameCodes;
+    private final boolean[] codedFlags;
+    // header length for frame codes without CODED_FLAGS
+    private final int[] fixedLength;
+
+    // indexed by group, see group()
+    private final int[][] candidates;
+    private final int[][] minLengths;
+
+    /**
+     * Creates {@link FrameCodeIndex}.
+     *
+     * @param frameCodes  frame codes
+     * @param streamCount number of streams
+     */
+    FrameCodeIndex(final FrameCode[] frameCodes, final int streamCount) {
+        this.frameCodes = frameCodes;
+        this.codedFlags = new boolean[frameCodes.length];
+        this.fixedLength = new int[frameCodes.length];
+
+        for (int i = 0; i < frameCodes.length; i++) {
+            FrameCode ft = frameCodes[i];
+            if (ft == null || (ft.flagMask & FrameCode.FLAG_INVALID) != 0) {
+                continue;
+            }
+
+            codedFlags[i] = (ft.flagMask & FrameCode.FLAG_CODED_FLAGS) != 0;
+
+            // it doesn't fully follow specification, but is simple enough
+            int len = 1; // frame code
+            if ((ft.flagMask & FrameCode.FLAG_STREAM_ID) != 0) {
+                len += 8;
+            }
+            if ((ft.flagMask & FrameCode.FLAG_CODED_PTS) != 0) {
+                len += 8;
+            }
+            if ((ft.flagMask & FrameCode.FLAG_SIZE_MSB) != 0) {
+                len += 8;
+            }
+            if ((ft.flagMask & FrameCode.FLAG_CHECKSUM) != 0) {
+                len += 4;
+            }
+            fixedLength[i] = len;
+        }
+
+        candidates = new int[streamCount * 4][];
+        minLengths = new int[streamCount * 4][];
+
+        for (int streamId = 0; streamId < streamCount; streamId++) {
+            for (int flags = 0; flags < 4; flags++) {
+                boolean keyframe = (flags & 1) != 0;
+                boolean eor = (flags & 2) != 0;
+                buildGroup(streamId, keyframe, eor);
+            }
+        }
+    }
+
+    /**
+     * Finds frame code which results in the shortest frame header.
+     *
+     * @param streamId stream id
+     * @param keyframe keyframe
+     * @param eor      end of relevance
+     * @param ptsDelta difference between frame pts and last pts in the stream
+     * @param dataSize frame data size
+     * @param checksum true if frame header must contain checksum
+     * @return frame code, or -1 if no frame code can be used
+     */
+    public int find(final int streamId, final boolean keyframe, final boolean eor,
+                    final long ptsDelta, final long dataSize, final boolean checksum) {
+        int group = group(streamId, keyframe, eor);
+        int[] codes = candidates[group];
+        int[] minLength = minLengths[group];
+
+        int result = -1;
+        int resultLength = Integer.MAX_VALUE;
+
+        for (int j = 0; j < codes.length; j++) {
+            if (minLength[j] > resultLength) {
+                break;
+            }
+
+            int code = codes[j];
+            int len = getHeaderLength(code, streamId, ptsDelta, dataSize, checksum);
+            if (len < 0) {
+                continue;
+            }
+            if (len < resultLength || (len == resultLength && code < result)) {
+                result = code;
+                resultLength = len;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Estimates frame header length for the frame code.
+     *
+     * @param code     frame code
+     * @param streamId stream id
+     * @param ptsDelta difference between frame pts and last pts in the stream
+     * @param dataSize frame data size
+     * @param checksum true if frame header must contain checksum
+     * @return header length, or -1 if frame code can't be used for the frame
+     */
+    public int getHeaderLength(final int code, final int streamId, final long ptsDelta,
+                               final long dataSize, final boolean checksum) {
+        FrameCode ft = frameCodes[code];
+
+        if (codedFlags[code]) {
+            int len = 1 + 8; // frame code and coded flags
+            if (ft.streamId != streamId) {
+                len += 8;
+            }
+            if (ft.ptsDelta != ptsDelta) {
+                len += 8;
+            }
+            if (ft.dataSizeLsb != dataSize) {
+                if ((dataSize - ft.dataSizeLsb) % ft.dataSizeMul != 0) {
+                    return -1;
+                }
+                len += 8;
+            }
+            if (checksum) {
+                len += 4;
+            }
+            return len;
+        }
+
+        if ((ft.flagMask & FrameCode.FLAG_CODED_PTS) == 0 && ft.ptsDelta != ptsDelta) {
+            return -1;
+        }
+        if ((ft.flagMask & FrameCode.FLAG_SIZE_MSB) != 0) {
+            if ((dataSize - ft.dataSizeLsb) % ft.dataSizeMul != 0) {
+                return -1;
+            }
+        } else if (ft.dataSizeLsb != dataSize) {
+            return -1;
+        }
+        if ((ft.flagMask & FrameCode.FLAG_CHECKSUM) == 0 && checksum) {
+            return -1;
+        }
+
+        return fixedLength[code];
+    }
+
+    private void buildGroup(final int streamId, final boolean keyframe, final boolean eor) {
+        List<int[]> group = new ArrayList<>();
+
+        for (int i = 0; i < frameCodes.length; i++) {
+            FrameCode ft = frameCodes[i];
+            if (ft == null || (ft.flagMask & FrameCode.FLAG_INVALID) != 0) {
+                continue;
+            }
+
+            final int minLength;
+            if (codedFlags[i]) {
+                // keyframe and EOR flags are coded, other fields may match exactly
+                minLength = 1 + 8 + (ft.streamId != streamId ? 8 : 0);
+            } else {
+                boolean ftKeyframe = (ft.flagMask & FrameCode.FLAG_KEYFRAME) != 0;
+                boolean ftEor = (ft.flagMask & FrameCode.FLAG_EOR) != 0;
+                if (ftKeyframe != keyframe || ftEor != eor) {
+                    continue;
+                }
+                if ((ft.flagMask & FrameCode.FLAG_STREAM_ID) == 0 && ft.streamId != streamId) {
+                    continue;
+                }
+                minLength = fixedLength[i];
+            }
+
+            group.add(new int[]{minLength, i});
+        }
+
+        Collections.sort(group, new Comparator<int[]>() {
+            @Override
+            public int compare(final int[] o1, final int[] o2) {
+                if (o1[0] != o2[0]) {
+                    return Integer.compare(o1[0], o2[0]);
+                }
+                return Integer.compare(o1[1], o2[1]);
+            }
+        });
+
+        int index = group(streamId, keyframe, eor);
+        candidates[index] = new int[group.size()];
+        minLengths[index] = new int[group.size()];
+        for (int j = 0; j < group.size(); j++) {
+            minLengths[index][j] = group.get(j)[0];
+            candidates[index][j] = group.get(j)[1];
+        }
+    }
+
+    private static int group(final int streamId, final boolean keyframe, final boolean eor) {
+        return streamId * 4 + (keyframe ? 1 : 0) + (eor ? 2 : 0);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *    Copyright  2021 Alex Katlein
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.nut;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of frames keyed by timestamp.
+ * <p>
+ * Frames with equal timestamps are polled in insertion order. Keys, insertion sequence
+ * numbers and frames are kept in parallel arrays, so adding and polling a frame costs
+ * O(log n) and doesn't allocate (apart from occasional growth of the arrays).
+ */
+class FrameOrderingBuffer {
+    private long[] timestamps;
+    private long[] sequence;
+    private NutFrame[] frames;
+    private int size = 0;
+
+    private long nextSequence = 0;
+    private long maxTimestamp = 0;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    FrameOrderingBuffer() {
+        timestamps = new long[INITIAL_CAPACITY];
+        sequence = new long[INITIAL_CAPACITY];
+        frames = new NutFrame[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Adds frame to the buffer.
+     *
+     * @param timestamp frame timestamp in any common timebase
+     * @param frame     frame
+     */
+    public void add(final long timestamp, final NutFrame frame) {
+        if (size == frames.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            sequence = Arrays.copyOf(sequence, capacity);
+            frames = Arrays.copyOf(frames, capacity);
+        }
+
+        if (size == 0 || timestamp > maxTimestamp) {
+            maxTimestamp = timestamp;
+        }
+
+        long seq = nextSequence++;
+        int i = size++;
+        // sift up
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(timestamp, seq, timestamps[parent], sequence[parent])) {
+                break;
+            }
+            set(i, timestamps[parent], sequence[parent], frames[parent]);
+            i = parent;
+        }
+        set(i, timestamp, seq, frame);
+    }
+
+    /**
+     * Removes and returns the frame with the lowest timestamp.
+     *
+     * @return frame, or null if buffer is empty
+     */
+    public NutFrame poll() {
+        if (size == 0) {
+            return null;
+        }
+
+        NutFrame result = frames[0];
+        size--;
+
+        long timestamp = timestamps[size];
+        long seq = sequence[size];
+        NutFrame frame = frames[size];
+        frames[size] = null;
+
+        if (size > 0) {
+            // sift down
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                int right = child + 1;
+                if (right < size
+                        && less(timestamps[right], sequence[right],
+                        timestamps[child], sequence[child])) {
+                    child = right;
+                }
+                if (!less(timestamps[child], sequence[child], timestamp, seq)) {
+                    break;
+                }
+                set(i, timestamps[child], sequence[child], frames[child]);
+                i = child;
+            }
+            set(i, timestamp, seq, frame);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the lowest timestamp in the buffer, undefined if buffer is empty
+     */
+    public long getMinTimestamp() {
+        return timestamps[0];
+    }
+
+    /**
+     * @return the highest timestamp in the buffer, undefined if buffer is empty
+     */
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void set(final int i, final long timestamp, final long seq, final NutFrame frame) {
+        timestamps[i] = timestamp;
+        sequence[i] = seq;
+        frames[i] = frame;
+    }
+
+    private static boolean less(final long ts1, final long seq1, final long ts2, final long seq2) {
+        return ts1 < ts2 || (ts1 == ts2 && seq1 < seq2);
+    }
+}
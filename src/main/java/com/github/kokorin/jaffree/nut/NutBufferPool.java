@@ -0,0 +1,154 @@
+/*
+ *    Copyright  2021 Alex Katlein
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.nut;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Pool of reusable {@link ByteBuffer}s for NUT frame payloads.
+ * <p>
+ * Buffers are handed out by {@link #acquire(int)} and must be given back with
+ * {@link #release(ByteBuffer)} (usually via {@link NutFrame#release()}) once the payload
+ * is not needed anymore. At most {@code maxIdle} released buffers are retained, so memory
+ * consumption is bounded by the number of frames in flight plus the number of idle buffers.
+ * <p>
+ * Pool is thread-safe: frames may be released by a thread other than the reading one.
+ */
+public class NutBufferPool {
+    private final boolean direct;
+    private final int maxIdle;
+    private final Deque<ByteBuffer> idle = new ArrayDeque<>();
+
+    private long allocationCount = 0;
+
+    /**
+     * Creates {@link NutBufferPool}.
+     *
+     * @param direct  whether to allocate direct (off-heap) buffers
+     * @param maxIdle maximum number of released buffers kept for reuse
+     */
+    public NutBufferPool(final boolean direct, final int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must be non negative");
+        }
+        this.direct = direct;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Returns buffer with at least {@code size} bytes capacity.
+     * <p>
+     * Returned buffer has position set to 0 and limit set to {@code size}.
+     *
+     * @param size required size in bytes
+     * @return buffer
+     */
+    public ByteBuffer acquire(final int size) {
+        ByteBuffer result = null;
+
+        synchronized (idle) {
+            // best fit: the smallest idle buffer which is large enough
+            Iterator<ByteBuffer> iterator = idle.iterator();
+            while (iterator.hasNext()) {
+                ByteBuffer candidate = iterator.next();
+                if (candidate.capacity() >= size
+                        && (result == null || candidate.capacity() < result.capacity())) {
+                    result = candidate;
+                }
+            }
+
+            if (result != null) {
+                idle.remove(result);
+            } else {
+                allocationCount++;
+            }
+        }
+
+        if (result == null) {
+            result = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+
+        result.clear();
+        result.limit(size);
+
+        return result;
+    }
+
+    /**
+     * Returns buffer to the pool. If pool already holds {@code maxIdle} buffers the smallest
+     * one is dropped.
+     *
+     * @param buffer buffer previously obtained with {@link #acquire(int)}
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() != direct) {
+            return;
+        }
+
+        synchronized (idle) {
+            if (idle.size() < maxIdle) {
+                idle.addLast(buffer);
+                return;
+            }
+
+            ByteBuffer smallest = buffer;
+            for (ByteBuffer candidate : idle) {
+                if (candidate.capacity() < smallest.capacity()) {
+                    smallest = candidate;
+                }
+            }
+
+            if (smallest != buffer) {
+                idle.remove(smallest);
+                idle.addLast(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return true if pool allocates direct buffers
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Returns number of buffers allocated by this pool so far.
+     * <p>
+     * For a steady stream this value stops growing once the pool is warmed up.
+     *
+     * @return number of allocated buffers
+     */
+    public long getAllocationCount() {
+        synchronized (idle) {
+            return allocationCount;
+        }
+    }
+
+    /**
+     * @return number of buffers currently available for reuse
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+}
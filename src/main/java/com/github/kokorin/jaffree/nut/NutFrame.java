@@ -17,6 +17,8 @@
 
 package com.github.kokorin.jaffree.nut;
 
+import java.nio.ByteBuffer;
+
 /**
  * Nut frame.
  */
@@ -34,6 +36,10 @@ public class NutFrame {
 
     /**
      * Frame's data.
+     * <p>
+     * Null if frame's data is held in a (possibly pooled) {@link ByteBuffer}.
+     *
+     * @see #getBuffer()
      */
     public final byte[] data;
 
@@ -64,6 +70,10 @@ public class NutFrame {
      */
     public final boolean eor;
 
+    private ByteBuffer buffer;
+    private final NutBufferPool pool;
+    private boolean released = false;
+
     /**
      * Creates {@link NutFrame}.
      *
@@ -86,6 +96,89 @@ public class NutFrame {
         this.metaData = metaData;
         this.keyframe = keyframe;
         this.eor = eor;
+        this.buffer = null;
+        this.pool = null;
+    }
+
+    /**
+     * Creates {@link NutFrame} which data is held in {@link ByteBuffer}.
+     * <p>
+     * Frame data spans from buffer's position to its limit.
+     *
+     * @param streamId stream ID
+     * @param pts      PTS
+     * @param buffer   data
+     * @param sideData side data
+     * @param metaData metadata
+     * @param keyframe keyframe
+     * @param eor      end-of-relevance
+     * @param pool     pool to return buffer to on {@link #release()}, or null
+     */
+    @SuppressWarnings("checkstyle:parameternumber")
+    public NutFrame(final int streamId, final long pts,
+                    final ByteBuffer buffer,
+                    final DataItem[] sideData, final DataItem[] metaData,
+                    final boolean keyframe, final boolean eor,
+                    final NutBufferPool pool) {
+        this.streamId = streamId;
+        this.pts = pts;
+        this.data = null;
+        this.sideData = sideData;
+        this.metaData = metaData;
+        this.keyframe = keyframe;
+        this.eor = eor;
+        this.buffer = buffer;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns frame's data as {@link ByteBuffer} regardless of how it's held.
+     * <p>
+     * Returned buffer is a duplicate: changing its position or limit doesn't affect the frame.
+     *
+     * @return frame's data or null
+     */
+    public ByteBuffer getBuffer() {
+        if (released) {
+            throw new IllegalStateException("NutFrame has been already released");
+        }
+        if (buffer == null && data != null) {
+            buffer = ByteBuffer.wrap(data);
+        }
+        if (buffer == null) {
+            return null;
+        }
+
+        return buffer.duplicate();
+    }
+
+    /**
+     * @return frame's data size in bytes
+     */
+    public int getDataSize() {
+        if (data != null) {
+            return data.length;
+        }
+        if (buffer != null) {
+            return buffer.remaining();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns frame's buffer to the pool it has been taken from.
+     * <p>
+     * Frame's data must not be accessed after this method has been called.
+     * Does nothing if frame isn't backed by a pooled buffer.
+     */
+    public void release() {
+        if (pool == null || released) {
+            return;
+        }
+
+        released = true;
+        pool.release(buffer);
+        buffer = null;
     }
 
     /**
@@ -96,7 +189,7 @@ public class NutFrame {
         return "NutFrame{"
                 + "streamId=" + streamId
                 + ", pts=" + pts
-                + ", data=" + (data != null ? data.length : "null")
+                + ", data=" + (data != null || buffer != null ? getDataSize() : "null")
                 + ", sideData=" + (sideData != null ? sideData.length : "null")
                 + ", metaData=" + (metaData != null ? metaData.length : "null")
                 + ", keyframe=" + keyframe
@@ -0,0 +1,112 @@
+/*
+ *    Copyright  2021 Alex Katlein
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.nut;
+
+/**
+ * Nut format index.
+ * <p>
+ * Index is stored at the end of a file and lists positions of syncpoints together with the
+ * pts of the first keyframe of every stream between consecutive syncpoints.
+ */
+@SuppressWarnings("checkstyle:visibilitymodifier")
+public class NutIndex {
+    /**
+     * Marks absence of keyframe (or EOR) between two syncpoints.
+     */
+    public static final long NO_PTS = Long.MIN_VALUE;
+
+    /**
+     * The highest pts in the entire file.
+     */
+    public final Timestamp maxPts;
+
+    /**
+     * Syncpoint positions. Every position points to up to 15 bytes before the corresponding
+     * syncpoint startcode.
+     */
+    public final long[] syncPointPositions;
+
+    /**
+     * Pts of the first keyframe for every stream between the previous and the current
+     * syncpoint, in the stream's timebase: keyframePts[streamId][syncPoint].
+     * {@link #NO_PTS} if there is no keyframe.
+     */
+    public final long[][] keyframePts;
+
+    /**
+     * Pts of EOR for every stream at the position of the syncpoint: eorPts[streamId][syncPoint].
+     * {@link #NO_PTS} if EOR is not set.
+     */
+    public final long[][] eorPts;
+
+    public NutIndex(Timestamp maxPts, long[] syncPointPositions, long[][] keyframePts,
+                    long[][] eorPts) {
+        this.maxPts = maxPts;
+        this.syncPointPositions = syncPointPositions;
+        this.keyframePts = keyframePts;
+        this.eorPts = eorPts;
+    }
+
+    /**
+     * Finds position to start demuxing from, so that the first keyframe of the stream
+     * with pts lower or equal to the target pts is read.
+     *
+     * @param streamId stream id
+     * @param pts      target pts in the stream's timebase
+     * @return syncpoint position (up to 15 bytes before syncpoint startcode),
+     * or -1 if index has no syncpoints
+     */
+    public long findSyncPointPosition(int streamId, long pts) {
+        if (syncPointPositions.length == 0) {
+            return -1;
+        }
+
+        long[] streamKeyframePts = keyframePts[streamId];
+        // keyframe pts increase with syncpoints, but some syncpoints have no keyframe
+        int low = 1;
+        int high = syncPointPositions.length - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int withKeyframe = mid;
+            while (withKeyframe >= low && streamKeyframePts[withKeyframe] == NO_PTS) {
+                withKeyframe--;
+            }
+
+            if (withKeyframe < low) {
+                low = mid + 1;
+            } else if (streamKeyframePts[withKeyframe] <= pts) {
+                found = withKeyframe;
+                low = mid + 1;
+            } else {
+                high = withKeyframe - 1;
+            }
+        }
+
+        // Keyframe lies between the previous syncpoint and the found one
+        return syncPointPositions[Math.max(found - 1, 0)];
+    }
+
+    @Override
+    public String toString() {
+        return "NutIndex{"
+                + "maxPts=" + maxPts.pts + "@" + maxPts.timebaseId
+                + ", syncPoints=" + syncPointPositions.length
+                + '}';
+    }
+}
@@ -17,20 +17,49 @@
 
 package com.github.kokorin.jaffree.nut;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 
 /**
- * {@link NutInputStream} adapts {@link InputStream} and provides methods to read
- * Nut-specific data structures.
+ * {@link NutInputStream} adapts {@link InputStream} or {@link ReadableByteChannel} and provides
+ * methods to read Nut-specific data structures.
+ * <p>
+ * Data is read from the underlying source in big chunks into a reusable buffer, all NUT
+ * primitives (values, startcodes, timestamps) are decoded directly from that buffer.
+ * Frame payloads bigger than the buffer are read directly into the destination.
+ * <p>
+ * Memory-backed stream (see {@link #NutInputStream(ByteBuffer)} and {@link #map(FileChannel)})
+ * reads data without copying and can return it as read-only slices, see {@link #readSlice(int)}.
  */
 @SuppressWarnings("checkstyle:magicnumber")
 public class NutInputStream implements AutoCloseable {
 
     private final InputStream input;
-    private long position = 0;
+    private final ReadableByteChannel channel;
+    // File which is memory-mapped window by window, buffer holds the current window
+    private final FileChannel mapped;
+    // Bytes between buffer's position and limit have been read from source, but not consumed yet
+    private ByteBuffer buffer;
+    // Position in NUT stream of the first byte in buffer
+    private long bufferOffset = 0;
+
+    // Checksum is tracked only between calls to resetCrc32() and stopCrc32()
+    private final CRC32 crc32 = new CRC32();
+    private boolean crcEnabled = false;
+    // Consumed bytes from crcStart till buffer's position haven't been added to checksum yet
+    private int crcStart = 0;
+
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private Runnable beforeSourceRead;
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
 
     /**
      * Creates {@link NutInputStream}.
@@ -38,22 +67,128 @@ public class NutInputStream implements AutoCloseable {
      * @param input input stream
      */
     public NutInputStream(final InputStream input) {
-        BufferedInputStream bufferedInputStream;
+        this(input, null, null, ByteBuffer.allocate(DEFAULT_BUFFER_SIZE));
+    }
+
+    /**
+     * Creates {@link NutInputStream} which reads from channel into a reusable direct buffer.
+     * <p>
+     * Channel must be in blocking mode.
+     *
+     * @param channel channel to read from
+     */
+    public NutInputStream(final ReadableByteChannel channel) {
+        this(null, channel, null, ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE));
+    }
+
+    /**
+     * Creates {@link NutInputStream} which reads directly from buffer content (for example
+     * from memory-mapped file) without copying it.
+     * <p>
+     * Stream position 0 corresponds to the buffer's current position.
+     *
+     * @param data buffer to read from
+     */
+    public NutInputStream(final ByteBuffer data) {
+        this(null, null, null, data.slice());
+    }
 
-        if (input instanceof BufferedInputStream) {
-            bufferedInputStream = (BufferedInputStream) input;
-        } else {
-            bufferedInputStream = new BufferedInputStream(input);
+    private NutInputStream(final InputStream input, final ReadableByteChannel channel,
+                           final FileChannel mapped, final ByteBuffer buffer) {
+        this.input = input;
+        this.channel = channel;
+        this.mapped = mapped;
+        this.buffer = buffer;
+        if (hasSource()) {
+            this.buffer.limit(0);
         }
+    }
 
-        this.input = bufferedInputStream;
+    /**
+     * Creates {@link NutInputStream} which reads file via memory mapping.
+     * <p>
+     * File is mapped read-only window by window (a window is remapped when reading passes its
+     * end), so files of any size can be read. No data is copied to heap unless requested,
+     * the OS page cache handles residency.
+     *
+     * @param channel file channel to map
+     * @return memory-backed stream
+     */
+    public static NutInputStream map(final FileChannel channel) {
+        return new NutInputStream(null, null, channel, ByteBuffer.allocate(0));
+    }
+
+    /**
+     * Sets size of a window in which memory-mapped file is mapped.
+     * <p>
+     * A window is always big enough to contain requested data, so frame bigger than window size
+     * is mapped in a separate window.
+     *
+     * @param windowSize window size in bytes
+     * @see #map(FileChannel)
+     */
+    public void setWindowSize(final int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Wrong window size: " + windowSize);
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return true if stream reads data from memory (buffer or memory-mapped file)
+     * @see #readSlice(int)
+     */
+    public boolean isMemoryBacked() {
+        return !hasSource();
+    }
+
+    /**
+     * Sets callback which is invoked every time before reading from the underlying input or
+     * channel, i.e. before a read which may block until more data is received.
+     * <p>
+     * Allows passing on data which has been already parsed instead of holding it while
+     * waiting for the source. Callback must not read from this stream.
+     *
+     * @param beforeSourceRead callback, or null
+     */
+    public void setBeforeSourceRead(final Runnable beforeSourceRead) {
+        this.beforeSourceRead = beforeSourceRead;
     }
 
     /**
      * @return current position
      */
     public long getPosition() {
-        return position;
+        return bufferOffset + buffer.position();
+    }
+
+    /**
+     * Starts computing checksum of consumed bytes from current position.
+     * <p>
+     * Until this method is called no checksum is computed at all.
+     */
+    public void resetCrc32() {
+        crc32.reset();
+        crcStart = buffer.position();
+        crcEnabled = true;
+    }
+
+    /**
+     * Stops computing checksum, so data not covered by any checksum (e.g. frame payload)
+     * is read without overhead.
+     */
+    public void stopCrc32() {
+        crcEnabled = false;
+    }
+
+    /**
+     * Returns checksum of bytes consumed since the last call to {@link #resetCrc32()}.
+     *
+     * @return checksum
+     */
+    public long getCrc32() {
+        updateCrc32();
+        return crc32.getValue();
     }
 
     /**
@@ -64,19 +199,17 @@ public class NutInputStream implements AutoCloseable {
     public long readValue() throws IOException {
         long result = 0;
 
-        while (input.available() > 0) {
-            int tmp = input.read();
-            position++;
+        while (true) {
+            if (!buffer.hasRemaining() && !fill(1)) {
+                throw new EOFException("Unexpected end of stream while reading value");
+            }
 
-            boolean hasMore = (tmp & 0x80) > 0;
-            if (hasMore) {
-                result = (result << 7) + tmp - 0x80;
-            } else {
-                return (result << 7) + tmp;
+            int tmp = buffer.get() & 0xFF;
+            result = (result << 7) | (tmp & 0x7F);
+            if (tmp < 0x80) {
+                return result;
             }
         }
-
-        return -1;
     }
 
     /**
@@ -101,14 +234,8 @@ public class NutInputStream implements AutoCloseable {
      * @return long
      */
     public long readLong() throws IOException {
-        long result = 0;
-
-        for (int i = 0; i < 8; i++) {
-            result = (result << 8) + input.read();
-            position++;
-        }
-
-        return result;
+        require(8);
+        return buffer.getLong();
     }
 
     /**
@@ -118,27 +245,22 @@ public class NutInputStream implements AutoCloseable {
      * @return int as long
      */
     long readInt() throws IOException {
-        long result = 0;
-
-        for (int i = 0; i < 4; i++) {
-            result = (result << 8) + input.read();
-            position++;
-        }
-
-        return result;
+        require(4);
+        return buffer.getInt() & 0xFFFFFFFFL;
     }
 
     /**
      * Reads f(n) type (n fixed bits in big-endian order).
      * n == 8
      *
-     * @return byte
+     * @return byte, or -1 if end of stream has been reached
      */
     public int readByte() throws IOException {
-        int result = input.read();
-        position++;
+        if (!buffer.hasRemaining() && !fill(1)) {
+            return -1;
+        }
 
-        return result;
+        return buffer.get() & 0xFF;
     }
 
     /**
@@ -157,15 +279,17 @@ public class NutInputStream implements AutoCloseable {
      * @return String
      */
     public String readCString() throws IOException {
-        try (ByteArrayOutputStream buffer = new ByteArrayOutputStream(32)) {
+        try (ByteArrayOutputStream result = new ByteArrayOutputStream(32)) {
 
             int b;
-            while ((b = input.read()) != 0) {
-                buffer.write(b);
-                position++;
+            while ((b = readByte()) != 0) {
+                if (b == -1) {
+                    throw new EOFException("Unexpected end of stream while reading string");
+                }
+                result.write(b);
             }
 
-            return new String(buffer.toByteArray());
+            return new String(result.toByteArray());
         }
     }
 
@@ -196,14 +320,14 @@ public class NutInputStream implements AutoCloseable {
     /**
      * Returns next byte, which will be read with any read*() method.
      *
-     * @return next byte
+     * @return next byte, or -1 if end of stream has been reached
      */
     public byte checkNextByte() throws IOException {
-        input.mark(1);
-        byte result = (byte) input.read();
-        input.reset();
+        if (!buffer.hasRemaining() && !fill(1)) {
+            return -1;
+        }
 
-        return result;
+        return buffer.get(buffer.position());
     }
 
     /**
@@ -212,34 +336,107 @@ public class NutInputStream implements AutoCloseable {
      * @return next byte
      */
     public boolean hasMoreData() throws IOException {
-        input.mark(1);
-        int result = input.read();
-        input.reset();
-
-        return result != -1;
+        return buffer.hasRemaining() || fill(1);
     }
 
     /**
      * Reads specified number of bytes.
      *
      * @param toRead bytes to read
-     * @return byte array
+     * @return byte array, or null if end of stream has been reached before all bytes were read
      */
     public byte[] readBytes(final long toRead) throws IOException {
         byte[] result = new byte[(int) toRead];
-        int start = 0;
+        if (!readBytes(ByteBuffer.wrap(result))) {
+            return null;
+        }
+
+        return result;
+    }
 
-        while (start < toRead) {
-            long read = input.read(result, start, (int) toRead - start);
+    /**
+     * Reads bytes into the buffer until it has no remaining space.
+     * <p>
+     * Allows reading data without allocating new arrays. Buffered data is copied first,
+     * the rest is read from the source directly into the destination buffer.
+     *
+     * @param destination buffer to read into
+     * @return false if end of stream has been reached before the buffer has been filled
+     */
+    public boolean readBytes(final ByteBuffer destination) throws IOException {
+        if (buffer.hasRemaining()) {
+            int toCopy = Math.min(buffer.remaining(), destination.remaining());
+            ByteBuffer chunk = buffer.duplicate();
+            chunk.limit(chunk.position() + toCopy);
+            destination.put(chunk);
+            buffer.position(buffer.position() + toCopy);
+        }
+
+        while (destination.hasRemaining()) {
+            // Small remainders are read via buffer, so subsequent headers are buffered too
+            if (destination.remaining() < buffer.capacity() / 2 || !canReadDirectly(destination)) {
+                if (!fill(1)) {
+                    return false;
+                }
+                int toCopy = Math.min(buffer.remaining(), destination.remaining());
+                ByteBuffer chunk = buffer.duplicate();
+                chunk.limit(chunk.position() + toCopy);
+                destination.put(chunk);
+                buffer.position(buffer.position() + toCopy);
+                continue;
+            }
+
+            int read = readFromSource(destination);
             if (read == -1) {
+                return false;
+            }
+            if (crcEnabled) {
+                // Bytes consumed from the buffer precede the chunk in the stream
+                updateCrc32();
+                ByteBuffer chunk = destination.duplicate();
+                chunk.flip().position(chunk.limit() - read);
+                crc32.update(chunk);
+            }
+            // buffer is empty at this point, drop its stale content so bufferOffset is always
+            // the stream position of buffer's first byte (see seek)
+            bufferOffset += buffer.position() + read;
+            buffer.clear().limit(0);
+            crcStart = 0;
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads specified number of bytes as read-only buffer.
+     * <p>
+     * Memory-backed stream returns slice of underlying memory without copying, other streams
+     * return buffer with copied data.
+     *
+     * @param length bytes to read
+     * @return read-only buffer, or null if end of stream has been reached before all bytes
+     * were read
+     * @see #isMemoryBacked()
+     */
+    public ByteBuffer readSlice(final int length) throws IOException {
+        if (hasSource()) {
+            byte[] data = readBytes(length);
+            if (data == null) {
                 return null;
             }
+            return ByteBuffer.wrap(data).asReadOnlyBuffer();
+        }
 
-            position += read;
-            start += read;
+        if (!fill(length)) {
+            buffer.position(buffer.limit());
+            return null;
         }
 
-        return result;
+        ByteBuffer result = buffer.slice();
+        result.limit(length);
+        buffer.position(buffer.position() + length);
+
+        return result.asReadOnlyBuffer();
     }
 
     /**
@@ -249,18 +446,206 @@ public class NutInputStream implements AutoCloseable {
      */
     public void skipBytes(final long toSkip) throws IOException {
         long leftToSkip = toSkip;
+
+        int skipInBuffer = (int) Math.min(buffer.remaining(), leftToSkip);
+        buffer.position(buffer.position() + skipInBuffer);
+        leftToSkip -= skipInBuffer;
+
+        // Skipped bytes must be read if checksum is computed
+        if (leftToSkip > 0 && !crcEnabled && mapped != null) {
+            seek(getPosition() + leftToSkip);
+            return;
+        }
+        if (leftToSkip > 0 && !crcEnabled && channel instanceof SeekableByteChannel) {
+            SeekableByteChannel seekable = (SeekableByteChannel) channel;
+            bufferOffset += buffer.position() + leftToSkip;
+            buffer.clear().limit(0);
+            seekable.position(seekable.position() + leftToSkip);
+            return;
+        }
+
         while (leftToSkip > 0) {
-            long skipped = input.skip(toSkip);
-            position += skipped;
-            leftToSkip -= skipped;
+            if (!fill(1)) {
+                throw new EOFException("Unexpected end of stream while skipping bytes");
+            }
+            skipInBuffer = (int) Math.min(buffer.remaining(), leftToSkip);
+            buffer.position(buffer.position() + skipInBuffer);
+            leftToSkip -= skipInBuffer;
         }
     }
 
+    /**
+     * @return true if stream reads from {@link SeekableByteChannel} or from {@link ByteBuffer}
+     */
+    public boolean isSeekable() {
+        return channel instanceof SeekableByteChannel || !hasSource();
+    }
+
+    /**
+     * Returns size of the underlying seekable channel or buffer.
+     *
+     * @return size in bytes
+     * @throws IllegalStateException if stream isn't seekable
+     */
+    public long size() throws IOException {
+        if (mapped != null) {
+            return mapped.size();
+        }
+        if (!hasSource()) {
+            return buffer.limit();
+        }
+        return getSeekableChannel().size();
+    }
+
+    /**
+     * Sets position to read from.
+     * <p>
+     * Checksum computation (if any) is stopped.
+     *
+     * @param position new position
+     * @throws IllegalStateException if stream isn't seekable
+     */
+    public void seek(final long position) throws IOException {
+        crcEnabled = false;
+
+        if (!hasSource() && mapped == null && (position < 0 || position > buffer.limit())) {
+            throw new EOFException("Position is out of buffer bounds: " + position);
+        }
+
+        // Position is still in the buffer
+        if (position >= bufferOffset && position <= bufferOffset + buffer.limit()) {
+            buffer.position((int) (position - bufferOffset));
+            return;
+        }
+
+        if (mapped != null) {
+            // Window is mapped on the next read
+            buffer = ByteBuffer.allocate(0);
+            bufferOffset = position;
+            return;
+        }
+
+        SeekableByteChannel seekable = getSeekableChannel();
+        buffer.clear().limit(0);
+        bufferOffset = position;
+        seekable.position(position);
+    }
+
+    private SeekableByteChannel getSeekableChannel() {
+        if (!isSeekable()) {
+            throw new IllegalStateException("NutInputStream isn't seekable");
+        }
+        return (SeekableByteChannel) channel;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void close() throws IOException {
-        input.close();
+        if (input != null) {
+            input.close();
+        } else if (channel != null) {
+            channel.close();
+        } else if (mapped != null) {
+            mapped.close();
+        }
+    }
+
+    private void require(final int required) throws IOException {
+        if (buffer.remaining() < required && !fill(required)) {
+            throw new EOFException("Unexpected end of stream, " + required + " bytes required");
+        }
+    }
+
+    /**
+     * Reads data from source until buffer contains at least {@code required} bytes.
+     *
+     * @param required minimum number of bytes, must not exceed buffer capacity
+     * @return false if end of stream has been reached before required bytes were read
+     */
+    private boolean fill(final int required) throws IOException {
+        if (buffer.remaining() >= required) {
+            return true;
+        }
+        if (mapped != null) {
+            return map(required);
+        }
+        if (!hasSource()) {
+            return false;
+        }
+
+        updateCrc32();
+        crcStart = 0;
+        bufferOffset += buffer.position();
+        buffer.compact();
+        try {
+            while (buffer.position() < required) {
+                if (readFromSource(buffer) == -1) {
+                    return false;
+                }
+            }
+        } finally {
+            buffer.flip();
+        }
+
+        return true;
+    }
+
+    /**
+     * Maps the next window of the file starting at the current position.
+     *
+     * @param required minimum number of bytes
+     * @return false if end of file has been reached before required bytes
+     */
+    private boolean map(final int required) throws IOException {
+        updateCrc32();
+        crcStart = 0;
+        long position = bufferOffset + buffer.position();
+        long length = Math.min(Math.max(windowSize, required), mapped.size() - position);
+        if (length < 0) {
+            length = 0;
+        }
+
+        buffer = mapped.map(FileChannel.MapMode.READ_ONLY, position, length);
+        bufferOffset = position;
+
+        return buffer.remaining() >= required;
+    }
+
+    private void updateCrc32() {
+        if (!crcEnabled || crcStart == buffer.position()) {
+            return;
+        }
+
+        ByteBuffer consumed = buffer.duplicate();
+        consumed.limit(buffer.position()).position(crcStart);
+        crc32.update(consumed);
+        crcStart = buffer.position();
+    }
+
+    private boolean hasSource() {
+        return input != null || channel != null;
+    }
+
+    private boolean canReadDirectly(final ByteBuffer destination) {
+        return channel != null || (input != null && destination.hasArray());
+    }
+
+    private int readFromSource(final ByteBuffer destination) throws IOException {
+        if (beforeSourceRead != null) {
+            beforeSourceRead.run();
+        }
+        if (channel != null) {
+            return channel.read(destination);
+        }
+
+        int read = input.read(destination.array(),
+                destination.arrayOffset() + destination.position(), destination.remaining());
+        if (read > 0) {
+            destination.position(destination.position() + read);
+        }
+
+        return read;
     }
 }
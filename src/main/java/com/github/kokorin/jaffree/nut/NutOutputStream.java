@@ -17,46 +17,124 @@
 
 package com.github.kokorin.jaffree.nut;
 
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 
+/**
+ * {@link NutOutputStream} adapts {@link OutputStream} or {@link WritableByteChannel} and provides
+ * methods to write Nut-specific data structures.
+ * <p>
+ * Headers are assembled in a small reusable buffer, payloads which don't fit into it are never
+ * copied: pending header bytes and payload are written together, with a single vectored write
+ * if output is a {@link GatheringByteChannel}.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
 public class NutOutputStream implements AutoCloseable {
     private final OutputStream output;
+    private final WritableByteChannel channel;
+    // Bytes between 0 and buffer's position are pending to be written
+    private final ByteBuffer buffer;
+    private final ByteBuffer[] gather = new ByteBuffer[2];
     private final CRC32 crc32 = new CRC32();
+    // Checksum is tracked only between calls to resetCrc32() and stopCrc32()
+    private boolean crcEnabled = false;
+    // Bytes in buffer starting with this index are not yet accounted in crc32
+    private int crcStart = 0;
     private long position = 0;
+    // Used to transfer direct buffers to OutputStream, lazily allocated
+    private byte[] transferBuffer;
 
-    public NutOutputStream(OutputStream output) {
-        if (!(output instanceof BufferedOutputStream)) {
-            output = new BufferedOutputStream(output);
-        }
+    // Counters of writes to the underlying output
+    private long writeCount = 0;
+    private long writtenBytes = 0;
+    private long flushCount = 0;
+
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Creates {@link NutOutputStream}.
+     *
+     * @param output output stream
+     */
+    public NutOutputStream(final OutputStream output) {
+        this(output, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates {@link NutOutputStream} with specified buffer size.
+     * <p>
+     * Bigger buffer results in fewer but bigger writes to the underlying output.
+     *
+     * @param output     output stream
+     * @param bufferSize buffer size in bytes
+     */
+    public NutOutputStream(final OutputStream output, final int bufferSize) {
+        this(output, null, ByteBuffer.allocate(bufferSize));
+    }
 
+    /**
+     * Creates {@link NutOutputStream} which writes to channel.
+     * <p>
+     * Channel must be in blocking mode.
+     *
+     * @param channel channel to write to
+     */
+    public NutOutputStream(final WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates {@link NutOutputStream} which writes to channel with specified buffer size.
+     * <p>
+     * Channel must be in blocking mode.
+     *
+     * @param channel    channel to write to
+     * @param bufferSize buffer size in bytes
+     */
+    public NutOutputStream(final WritableByteChannel channel, final int bufferSize) {
+        this(null, channel, ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    private NutOutputStream(final OutputStream output, final WritableByteChannel channel,
+                            final ByteBuffer buffer) {
         this.output = output;
+        this.channel = channel;
+        this.buffer = buffer;
     }
 
-    public void writeValue(long value) throws IOException {
-        value &= 0x7FFFFFFFFFFFFFFFL;
+    /**
+     * Writes v type (variable length value, unsigned).
+     *
+     * @param value value to write
+     */
+    public void writeValue(final long value) throws IOException {
+        long unsigned = value & 0x7FFFFFFFFFFFFFFFL;
         int i;
         for (i = 7; ; i += 7) {
-            if (value >> i == 0) {
+            if (unsigned >> i == 0) {
                 break;
             }
         }
 
+        ensureCapacity(i / 7);
         for (i -= 7; i > 0; i -= 7) {
-            int b = (int) (0x80 | (value >> i));
-            output.write(b);
-            crc32.update(b);
+            buffer.put((byte) (0x80 | (unsigned >> i)));
             position++;
         }
 
-        int b = (int) (value & 0x7F);
-        output.write(b);
-        crc32.update(b);
+        buffer.put((byte) (unsigned & 0x7F));
         position++;
     }
 
-    public void writeSignedValue(long signed) throws IOException {
+    /**
+     * Writes s type (variable length value, signed).
+     *
+     * @param signed value to write
+     */
+    public void writeSignedValue(final long signed) throws IOException {
         long value;
         if (signed > 0) {
             value = signed << 1;
@@ -67,74 +145,271 @@ public class NutOutputStream implements AutoCloseable {
         writeValue(value);
     }
 
-    public void writeLong(long value) throws IOException {
-        for (int i = 7; i >= 0; i--) {
-            int b = (int) ((value >> (8 * i)) & 0xFF);
-            output.write(b);
-            crc32.update(b);
-            position++;
-        }
+    /**
+     * Writes f(n) type (n fixed bits in big-endian order).
+     * n == 64
+     *
+     * @param value value to write
+     */
+    public void writeLong(final long value) throws IOException {
+        ensureCapacity(8);
+        buffer.putLong(value);
+        position += 8;
     }
 
-    public void writeInt(long value) throws IOException {
-        for (int i = 3; i >= 0; i--) {
-            int b = (int) ((value >> (8 * i)) & 0xFF);
-            output.write(b);
-            crc32.update(b);
-            position++;
-        }
+    /**
+     * Writes u(n) type (unsigned number encoded in n bits in MSB-first order).
+     * n == 32
+     *
+     * @param value value to write
+     */
+    public void writeInt(final long value) throws IOException {
+        ensureCapacity(4);
+        buffer.putInt((int) value);
+        position += 4;
     }
 
-    public void writeByte(int value) throws IOException {
-        output.write(value);
-        crc32.update(value);
+    /**
+     * Writes f(n) type (n fixed bits in big-endian order).
+     * n == 8
+     *
+     * @param value value to write
+     */
+    public void writeByte(final int value) throws IOException {
+        ensureCapacity(1);
+        buffer.put((byte) value);
         position++;
     }
 
-    public void writeVariablesString(String data) throws IOException {
+    /**
+     * Writes vb type (variable length binary data or string).
+     *
+     * @param data string to write
+     */
+    public void writeVariablesString(final String data) throws IOException {
         writeVariableBytes(data.getBytes());
     }
 
-    public void writeVariableBytes(byte[] data) throws IOException {
+    /**
+     * Writes vb type (variable length binary data or string).
+     *
+     * @param data data to write
+     */
+    public void writeVariableBytes(final byte[] data) throws IOException {
         writeValue(data.length);
         writeBytes(data);
     }
 
-
-    public void writeTimestamp(int timeBaseCount, Timestamp timestamp) throws IOException {
+    /**
+     * Writes t type (v coded universal timestamp).
+     *
+     * @param timeBaseCount time base count
+     * @param timestamp     timestamp to write
+     */
+    public void writeTimestamp(final int timeBaseCount, final Timestamp timestamp)
+            throws IOException {
         long value = timestamp.pts * timeBaseCount + timestamp.timebaseId;
         writeValue(value);
     }
 
-    public void writeCString(String data) throws IOException {
+    /**
+     * Writes string followed by \0 char.
+     *
+     * @param data string to write
+     */
+    public void writeCString(final String data) throws IOException {
         writeBytes(data.getBytes());
         writeByte(0);
     }
 
-    public void writeBytes(byte[] data) throws IOException {
-        output.write(data);
-        crc32.update(data);
-        position += data.length;
+    /**
+     * Writes bytes.
+     *
+     * @param data data to write
+     */
+    public void writeBytes(final byte[] data) throws IOException {
+        writeBytes(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Writes bytes from buffer's position to its limit. Buffer's position is not changed.
+     * <p>
+     * Small chunks are copied to the internal buffer, big ones are written together with
+     * pending bytes, without intermediate copying.
+     *
+     * @param data data to write
+     */
+    public void writeBytes(final ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        ByteBuffer toWrite = data.duplicate();
+
+        if (length <= buffer.remaining() || length < buffer.capacity() / 2) {
+            ensureCapacity(length);
+            buffer.put(toWrite);
+            position += length;
+            return;
+        }
+
+        if (crcEnabled) {
+            updateCrc32();
+            crc32.update(data.duplicate());
+        }
+
+        buffer.flip();
+        if (channel instanceof GatheringByteChannel) {
+            gather[0] = buffer;
+            gather[1] = toWrite;
+            while (toWrite.hasRemaining()) {
+                writtenBytes += ((GatheringByteChannel) channel).write(gather);
+                writeCount++;
+            }
+            gather[1] = null;
+        } else {
+            writeFully(buffer);
+            writeFully(toWrite);
+        }
+        buffer.clear();
+        crcStart = 0;
+
+        position += length;
     }
 
+    /**
+     * Resets CRC32 checksum, subsequent writes are accounted in new checksum.
+     */
     public void resetCrc32() {
         crc32.reset();
+        crcStart = buffer.position();
+        crcEnabled = true;
     }
 
+    /**
+     * Stops computing checksum, so data not covered by any checksum (e.g. frame payload)
+     * is written without overhead.
+     */
+    public void stopCrc32() {
+        crcEnabled = false;
+    }
+
+    /**
+     * Writes CRC32 checksum of all data written since last call to {@link #resetCrc32()}.
+     */
     public void writeCrc32() throws IOException {
+        updateCrc32();
         writeInt(crc32.getValue());
     }
 
+    /**
+     * @return current position
+     */
     public long getPosition() {
         return position;
     }
 
+    /**
+     * Writes all pending bytes and flushes underlying output.
+     */
     public void flush() throws IOException {
-        output.flush();
+        drain();
+        if (output != null) {
+            output.flush();
+        }
+        flushCount++;
+    }
+
+    /**
+     * Returns number of writes to the underlying output. Every write to a channel
+     * is a system call.
+     *
+     * @return number of writes
+     */
+    public long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * @return number of bytes written to the underlying output
+     */
+    public long getWrittenBytes() {
+        return writtenBytes;
     }
 
+    /**
+     * @return number of calls to {@link #flush()}
+     */
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
     @Override
     public void close() throws Exception {
-        output.close();
+        try {
+            flush();
+        } finally {
+            if (output != null) {
+                output.close();
+            } else {
+                channel.close();
+            }
+        }
+    }
+
+    private void ensureCapacity(final int required) throws IOException {
+        if (buffer.remaining() < required) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        updateCrc32();
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+        crcStart = 0;
+    }
+
+    private void updateCrc32() {
+        if (crcEnabled && crcStart < buffer.position()) {
+            ByteBuffer unaccounted = buffer.duplicate();
+            unaccounted.flip();
+            unaccounted.position(crcStart);
+            crc32.update(unaccounted);
+            crcStart = buffer.position();
+        }
+    }
+
+    private void writeFully(final ByteBuffer data) throws IOException {
+        if (!data.hasRemaining()) {
+            return;
+        }
+
+        if (output != null) {
+            if (data.hasArray()) {
+                output.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                writtenBytes += data.remaining();
+                writeCount++;
+                data.position(data.limit());
+            } else {
+                if (transferBuffer == null) {
+                    transferBuffer = new byte[DEFAULT_BUFFER_SIZE];
+                }
+                while (data.hasRemaining()) {
+                    int length = Math.min(transferBuffer.length, data.remaining());
+                    data.get(transferBuffer, 0, length);
+                    output.write(transferBuffer, 0, length);
+                    writtenBytes += length;
+                    writeCount++;
+                }
+            }
+            return;
+        }
+
+        while (data.hasRemaining()) {
+            writtenBytes += channel.write(data);
+            writeCount++;
+        }
     }
 }
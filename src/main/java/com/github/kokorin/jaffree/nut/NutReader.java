@@ -19,10 +19,11 @@ package com.github.kokorin.jaffree.nut;
 
 import com.github.kokorin.jaffree.Rational;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.EnumSet;
 import java.util.Objects;
 import java.util.Set;
 
@@ -33,11 +34,65 @@ public class NutReader {
     private StreamHeader[] streamHeaders;
     private Info[] infos;
     private long[] lastPts;
+    private NutBufferPool bufferPool;
+    private boolean checksumVerification = false;
+    private NutIndex index;
+    private boolean indexLoaded = false;
+    private SyncPointTable syncPointTable;
+    private Set<Integer> streamFilter;
 
     public NutReader(NutInputStream input) {
         this.input = input;
     }
 
+    /**
+     * Sets pool to read frame payloads into.
+     * <p>
+     * If pool is set, {@link #readFrame()} returns frames backed by pooled buffers
+     * ({@link NutFrame#data} is null, use {@link NutFrame#getBuffer()}). Every such frame
+     * must be released with {@link NutFrame#release()} when its data is no longer needed,
+     * otherwise the pool can't recycle buffers.
+     *
+     * @param bufferPool buffer pool, or null to allocate new array for every frame
+     */
+    public void setBufferPool(NutBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Enables or disables checksum verification.
+     * <p>
+     * If enabled, packet header checksums, packet footer checksums and frame header checksums
+     * are verified and {@link RuntimeException} is thrown on mismatch. Disabled by default,
+     * as checksums are computed over every byte read (including skipped bytes).
+     *
+     * @param checksumVerification true to verify checksums
+     */
+    public void setChecksumVerification(boolean checksumVerification) {
+        this.checksumVerification = checksumVerification;
+    }
+
+    /**
+     * Sets streams to read frames of.
+     * <p>
+     * Frames of other streams are skipped without reading their data into memory,
+     * {@link #readFrame()} never returns them.
+     *
+     * @param streamFilter ids of streams to read, or null to read all streams
+     */
+    public void setStreamFilter(Set<Integer> streamFilter) {
+        this.streamFilter = streamFilter;
+    }
+
+    /**
+     * Sets syncpoints to seek with if a file has no index.
+     *
+     * @param syncPointTable syncpoints, e.g. found with {@link NutSyncPointScanner}
+     */
+    public void setSyncPointTable(SyncPointTable syncPointTable) {
+        this.syncPointTable = syncPointTable;
+    }
+
     public MainHeader getMainHeader() throws IOException {
         readToFrame();
         return mainHeader;
@@ -65,6 +120,9 @@ public class NutReader {
         while (input.checkNextByte() == (byte) 'N') {
             PacketHeader packetHeader = readPacketHeader();
             long nextPacketPosition = input.getPosition() + packetHeader.forwardPtr;
+            if (checksumVerification) {
+                input.resetCrc32();
+            }
 
             if (packetHeader.startcode == NutConst.MAIN_STARTCODE) {
                 mainHeader = readMainHeader();
@@ -99,15 +157,153 @@ public class NutReader {
                 for (int i = 0; i < mainHeader.timeBases.length; i++) {
                     lastPts[i] = Util.convertTimestamp(pts, ptsTimebase, mainHeader.timeBases[i]);
                 }
+            } else if (packetHeader.startcode == NutConst.INDEX_STARTCODE) {
+                index = readIndex();
+                indexLoaded = true;
             }
 
-            // Intentionally ignore these headers: INDEX (and reserved headers also)
+            // Intentionally ignore reserved headers
 
             input.skipBytes(nextPacketPosition - input.getPosition() - 4);
             readPacketFooter();
         }
     }
 
+    /**
+     * Returns NUT index.
+     * <p>
+     * Index is read from the end of a file if {@link NutInputStream} is seekable, otherwise
+     * index is available only after it has been read (usually it is at the end of a file).
+     *
+     * @return index, or null if there is no index
+     */
+    public NutIndex getIndex() throws IOException {
+        readToFrame();
+
+        if (!indexLoaded && input.isSeekable()) {
+            indexLoaded = true;
+            long position = input.getPosition();
+            try {
+                index = readIndexFromEnd();
+            } finally {
+                input.seek(position);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Seeks to the syncpoint before the last keyframe of the stream with pts lower or equal
+     * to the target pts.
+     * <p>
+     * Subsequent calls to {@link #readFrame()} return frames starting from that syncpoint,
+     * so frames of all streams preceding the target pts may be returned.
+     * <p>
+     * If a file has no index, {@link SyncPointTable} (if set) is used: seek is performed to
+     * the syncpoint referenced by back_ptr of the last syncpoint with global_key_pts
+     * lower than the target pts.
+     *
+     * @param streamId stream id
+     * @param pts      target pts in the stream's timebase
+     * @throws IllegalStateException if {@link NutInputStream} isn't seekable or there is
+     *                               neither index nor syncpoint table
+     * @see #setSyncPointTable(SyncPointTable)
+     */
+    public void seek(int streamId, long pts) throws IOException {
+        NutIndex nutIndex = getIndex();
+        if (nutIndex == null || nutIndex.syncPointPositions.length == 0) {
+            if (syncPointTable != null && syncPointTable.size() > 0) {
+                seekWithSyncPointTable(streamId, pts);
+                return;
+            }
+            throw new IllegalStateException("NUT index is not available, can't seek");
+        }
+
+        input.seek(nutIndex.findSyncPointPosition(streamId, pts));
+
+        // Index position points up to 15 bytes before syncpoint startcode
+        long startcode = 0;
+        while (startcode != NutConst.SYNCPOINT_STARTCODE) {
+            int b = input.readByte();
+            if (b == -1) {
+                throw new EOFException("Syncpoint not found");
+            }
+            startcode = (startcode << 8) | b;
+        }
+        input.seek(input.getPosition() - 8);
+    }
+
+    /**
+     * Sets position to read the next frame from.
+     * <p>
+     * Position must point to a syncpoint startcode (e.g. one of {@link SyncPointTable#positions})
+     * or to the beginning of a file, so frame timestamps can be restored.
+     *
+     * @param position syncpoint position
+     * @throws IllegalStateException if {@link NutInputStream} isn't seekable
+     */
+    public void seekToSyncPoint(long position) throws IOException {
+        readToFrame();
+        input.seek(position);
+    }
+
+    /**
+     * @return current position in the underlying {@link NutInputStream}
+     */
+    public long getPosition() {
+        return input.getPosition();
+    }
+
+    private void seekWithSyncPointTable(int streamId, long pts) throws IOException {
+        Rational timebase = mainHeader.timeBases[streamHeaders[streamId].timeBaseId];
+        int found = syncPointTable.findSyncPoint(pts, timebase, mainHeader.timeBases);
+
+        int syncPoint = 0;
+        if (found >= 0) {
+            // back_ptr points up to 15 bytes before syncpoint startcode
+            long backPtr = syncPointTable.syncPoints[found].backPtrDiv16 * 16 + 15;
+            long position = syncPointTable.positions[found] - backPtr;
+            syncPoint = syncPointTable.findSyncPointAfter(position);
+        }
+
+        input.seek(syncPointTable.positions[syncPoint]);
+    }
+
+    private NutIndex readIndexFromEnd() throws IOException {
+        long size = input.size();
+        // index_ptr is always 12 bytes before the end of a file
+        if (size < 12) {
+            return null;
+        }
+
+        input.seek(size - 12);
+        long indexPtr = input.readLong();
+        if (indexPtr <= 0 || indexPtr > size) {
+            return null;
+        }
+
+        input.seek(size - indexPtr);
+        if (input.checkNextByte() != (byte) 'N') {
+            return null;
+        }
+
+        PacketHeader packetHeader = readPacketHeader();
+        if (packetHeader.startcode != NutConst.INDEX_STARTCODE) {
+            return null;
+        }
+
+        long nextPacketPosition = input.getPosition() + packetHeader.forwardPtr;
+        if (checksumVerification) {
+            input.resetCrc32();
+        }
+        NutIndex result = readIndex();
+        input.skipBytes(nextPacketPosition - input.getPosition() - 4);
+        readPacketFooter();
+
+        return result;
+    }
+
     /*
         packet_header
         startcode                           f(64)
@@ -116,11 +312,15 @@ public class NutReader {
             header_checksum                 u(32)
      */
     private PacketHeader readPacketHeader() throws IOException {
+        if (checksumVerification) {
+            input.resetCrc32();
+        }
+
         long startcode = input.readLong();
         long forwardPtr = input.readValue();
         long headerChecksum = 0;
         if (forwardPtr > 4096) {
-            headerChecksum = input.readInt();
+            headerChecksum = verifyChecksum("packet header");
         }
 
         return new PacketHeader(startcode, forwardPtr, headerChecksum);
@@ -263,17 +463,46 @@ public class NutReader {
         return new SyncPoint(pts, backPtrDiv16, transmitTs);
     }
 
+    /**
+     * Reads the next frame.
+     * <p>
+     * If {@link NutInputStream} is memory-backed (e.g. memory-mapped file) and no buffer pool
+     * is set, frame data is a read-only slice of the underlying memory: {@link NutFrame#data}
+     * is null, use {@link NutFrame#getBuffer()}.
+     *
+     * @return frame, or null if there are no more frames
+     * @see NutInputStream#map(java.nio.channels.FileChannel)
+     * @see #setStreamFilter(Set)
+     */
     public NutFrame readFrame() throws IOException {
-        readToFrame();
+        while (true) {
+            readToFrame();
 
-        if (!input.hasMoreData()) {
-            return null;
+            if (!input.hasMoreData()) {
+                return null;
+            }
+
+            NutFrame frame = readNextFrame();
+            if (frame != null) {
+                return frame;
+            }
+        }
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @return frame, or null if frame has been skipped by stream filter
+     */
+    private NutFrame readNextFrame() throws IOException {
+        if (checksumVerification) {
+            input.resetCrc32();
         }
 
         int frameCode = input.readByte();
         FrameCode frameTable = mainHeader.frameCodes[frameCode];
 
-        Set<FrameCode.Flag> flags = frameTable.flags;
+        long flags = frameTable.flagMask;
         int streamId = frameTable.streamId;
         final StreamHeader streamHeader;
         final long pts;
@@ -286,19 +515,17 @@ public class NutReader {
         DataItem[] sideData = null;
         DataItem[] metaData = null;
 
-        if (flags.contains(FrameCode.Flag.CODED_FLAGS)) {
-            flags = EnumSet.copyOf(flags);
-            Set<FrameCode.Flag> codedFlags = FrameCode.Flag.fromBitCode(input.readValue());
+        if ((flags & FrameCode.FLAG_CODED_FLAGS) != 0) {
             // flags = flags XOR codedFlags
-            flags = FrameCode.Flag.xor(flags, codedFlags);
+            flags ^= input.readValue();
         }
 
-        if (flags.contains(FrameCode.Flag.STREAM_ID)) {
+        if ((flags & FrameCode.FLAG_STREAM_ID) != 0) {
             streamId = (int) input.readValue();
         }
         streamHeader = streamHeaders[streamId];
 
-        if (flags.contains(FrameCode.Flag.CODED_PTS)) {
+        if ((flags & FrameCode.FLAG_CODED_PTS) != 0) {
             /*
             If coded_pts < ( 1 << msb_pts_shift ) then it is an lsb
             pts, otherwise it is a full pts + ( 1 << msb_pts_shift ).
@@ -321,22 +548,22 @@ public class NutReader {
             pts = lastPts[streamId] + frameTable.ptsDelta;
         }
 
-        if (flags.contains(FrameCode.Flag.SIZE_MSB)) {
+        if ((flags & FrameCode.FLAG_SIZE_MSB) != 0) {
             dataSizeMsb = input.readValue();
         }
 
         // MatchTimeDelta is present in NUT specification, but is absent in FFMPEG NUT implementation
-        if (flags.contains(FrameCode.Flag.MATCH_TIME)) {
+        if ((flags & FrameCode.FLAG_MATCH_TIME) != 0) {
             matchTimeDelta = input.readSignedValue();
         }
 
         // ElisionHeaders are present in NUT specification, but are absent in FFMPEG NUT implementation
-        if (flags.contains(FrameCode.Flag.HEADER_IDX)) {
+        if ((flags & FrameCode.FLAG_HEADER_IDX) != 0) {
             int elisionHeaderIdx = (int) input.readValue();
             elisionHeaderSize = mainHeader.elisionHeaderSize[elisionHeaderIdx];
         }
 
-        if (flags.contains(FrameCode.Flag.RESERVED)) {
+        if ((flags & FrameCode.FLAG_RESERVED) != 0) {
             reservedValues = input.readValue();
         }
 
@@ -344,12 +571,11 @@ public class NutReader {
             input.readValue(); // ignore reserved
         }
 
-        // checksum is ignored
-        if (flags.contains(FrameCode.Flag.CHECKSUM)) {
-            long checksum = input.readInt();
+        if ((flags & FrameCode.FLAG_CHECKSUM) != 0) {
+            verifyChecksum("frame header");
         }
 
-        if (flags.contains(FrameCode.Flag.SM_DATA)) {
+        if ((flags & FrameCode.FLAG_SM_DATA) != 0) {
             sideData = readDataItems();
             metaData = readDataItems();
         }
@@ -363,15 +589,115 @@ public class NutReader {
         long dataSizeWithElision = dataSizeLsb + dataSizeMsb * dataSizeMul;
         long dataSize = dataSizeWithElision - elisionHeaderSize;
 
+        // Frame data isn't covered by any checksum
+        if (checksumVerification) {
+            input.stopCrc32();
+        }
+
+        boolean keyframe = (flags & FrameCode.FLAG_KEYFRAME) != 0;
+        boolean eor = (flags & FrameCode.FLAG_EOR) != 0 || dataSize == 0;
+        lastPts[streamId] = pts;
+
+        if (streamFilter != null && !streamFilter.contains(streamId)) {
+            input.skipBytes(dataSize + elisionHeaderSize);
+            return null;
+        }
+
+        if (bufferPool != null) {
+            ByteBuffer buffer = bufferPool.acquire((int) dataSize);
+            if (!input.readBytes(buffer)) {
+                bufferPool.release(buffer);
+                buffer = null;
+            } else {
+                buffer.flip();
+            }
+            input.skipBytes(elisionHeaderSize);
+
+            return new NutFrame(streamId, pts, buffer, sideData, metaData, keyframe, eor, bufferPool);
+        }
+
+        if (input.isMemoryBacked()) {
+            ByteBuffer slice = input.readSlice((int) dataSize);
+            input.skipBytes(elisionHeaderSize);
+
+            return new NutFrame(streamId, pts, slice, sideData, metaData, keyframe, eor, null);
+        }
+
         byte[] data = input.readBytes(dataSize);
         input.skipBytes(elisionHeaderSize);
-        boolean keyframe = flags.contains(FrameCode.Flag.KEYFRAME);
-        boolean eor = flags.contains(FrameCode.Flag.EOR) || dataSize == 0;
 
-        lastPts[streamId] = pts;
         return new NutFrame(streamId, pts, data, sideData, metaData, keyframe, eor);
     }
 
+    private NutIndex readIndex() throws IOException {
+        Timestamp maxPts = input.readTimestamp(mainHeader.timeBases.length);
+        int syncPoints = (int) input.readValue();
+
+        long[] syncPointPositions = new long[syncPoints];
+        long posDiv16 = 0;
+        for (int i = 0; i < syncPoints; i++) {
+            posDiv16 += input.readValue();
+            syncPointPositions[i] = posDiv16 * 16;
+        }
+
+        long[][] keyframePts = new long[mainHeader.streamCount][syncPoints];
+        long[][] eorPts = new long[mainHeader.streamCount][syncPoints];
+        boolean[] hasKeyframe = new boolean[syncPoints];
+
+        for (int i = 0; i < mainHeader.streamCount; i++) {
+            Arrays.fill(keyframePts[i], NutIndex.NO_PTS);
+            Arrays.fill(eorPts[i], NutIndex.NO_PTS);
+            long lastPts = -1;
+
+            for (int j = 0; j < syncPoints; ) {
+                long x = input.readValue();
+                boolean type = (x & 1) != 0;
+                x >>>= 1;
+                int n = j;
+                if (type) {
+                    boolean flag = (x & 1) != 0;
+                    x >>>= 1;
+                    for (; x > 0 && n < syncPoints; x--) {
+                        setFlag(hasKeyframe, n++, flag);
+                    }
+                    setFlag(hasKeyframe, n++, !flag);
+                } else {
+                    if (x == 0) {
+                        throw new RuntimeException("Wrong index: has_keyframe flags are missing");
+                    }
+                    while (x != 1) {
+                        setFlag(hasKeyframe, n++, (x & 1) != 0);
+                        x >>>= 1;
+                    }
+                }
+
+                for (; j < n && j < syncPoints; j++) {
+                    if (!hasKeyframe[j]) {
+                        continue;
+                    }
+                    long a = input.readValue();
+                    long b = 0;
+                    if (a == 0) {
+                        a = input.readValue();
+                        b = input.readValue();
+                        eorPts[i][j] = lastPts + a + b;
+                    }
+                    keyframePts[i][j] = lastPts + a;
+                    lastPts += a + b;
+                }
+            }
+        }
+
+        return new NutIndex(maxPts, syncPointPositions, keyframePts, eorPts);
+    }
+
+    private static void setFlag(boolean[] flags, int index, boolean value) {
+        // flags may be coded for more entries than there are syncpoints
+        if (index < flags.length) {
+            flags[index] = value;
+        }
+    }
+
     private Info readInfo() throws IOException {
         // stream_id_plus1
         int streamId = (int) (input.readValue() - 1);
@@ -429,10 +755,30 @@ public class NutReader {
         headerChecksum                            u(32)
      */
     private PacketFooter readPacketFooter() throws IOException {
-        long checksum = input.readInt();
+        long checksum = verifyChecksum("packet");
         return new PacketFooter(checksum);
     }
 
+    /**
+     * Reads checksum and verifies it against checksum of bytes read since last reset,
+     * if verification is enabled.
+     *
+     * @param what checked structure name, used in error message
+     * @return checksum
+     */
+    private long verifyChecksum(String what) throws IOException {
+        long position = input.getPosition();
+        long expected = checksumVerification ? input.getCrc32() : 0;
+        long checksum = input.readInt();
+
+        if (checksumVerification && checksum != expected) {
+            throw new RuntimeException("Wrong " + what + " checksum at position " + position
+                    + ": expected " + expected + ", found " + checksum);
+        }
+
+        return checksum;
+    }
+
 
     private static class PacketHeader {
         public final long startcode;
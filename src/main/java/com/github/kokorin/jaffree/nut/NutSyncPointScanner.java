@@ -0,0 +1,285 @@
+/*
+ *    Copyright  2021 Alex Katlein
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.nut;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Finds all syncpoints of a NUT file without reading it sequentially and without index.
+ * <p>
+ * File is split into chunks, every chunk is memory-mapped and scanned for syncpoint startcodes
+ * in parallel. Startcode bytes may occur in frame payloads, so every candidate is validated:
+ * syncpoint packet must be well-formed and its checksum must match.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+public class NutSyncPointScanner {
+    private final MainHeader mainHeader;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * Default size of memory-mapped chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Maximum forward_ptr of syncpoint packet, bigger packets require header checksum and
+     * are never produced by muxers: syncpoint contains only 2-3 variable length values.
+     */
+    private static final int MAX_FORWARD_PTR = 4096;
+
+    /**
+     * Chunks overlap by maximum syncpoint packet size, so syncpoint starting in a chunk
+     * can be validated even if it ends in the next chunk.
+     */
+    private static final int OVERLAP = 8 + 10 + MAX_FORWARD_PTR;
+
+    /**
+     * Creates {@link NutSyncPointScanner}.
+     *
+     * @param mainHeader main header of the file to scan, required to decode syncpoints
+     */
+    public NutSyncPointScanner(final MainHeader mainHeader) {
+        this.mainHeader = mainHeader;
+    }
+
+    /**
+     * Sets size of memory-mapped chunk, which is scanned by a single task.
+     *
+     * @param chunkSize chunk size in bytes
+     */
+    public void setChunkSize(final int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE - OVERLAP) {
+            throw new IllegalArgumentException("Wrong chunk size: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets pool to scan chunks in.
+     *
+     * @param pool pool, {@link ForkJoinPool#commonPool()} by default
+     */
+    public void setPool(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Scans the whole file for syncpoints.
+     *
+     * @param channel file channel, its position is not changed
+     * @return syncpoints sorted by position
+     * @throws IOException if file can't be mapped
+     */
+    public SyncPointTable scan(final FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<ForkJoinTask<ChunkResult>> tasks = new ArrayList<>();
+
+        for (long start = 0; start < size; start += chunkSize) {
+            final long chunkStart = start;
+            final int chunkLength = (int) Math.min(chunkSize, size - start);
+            final int mapLength = (int) Math.min((long) chunkLength + OVERLAP, size - start);
+
+            tasks.add(pool.submit(new Callable<ChunkResult>() {
+                @Override
+                public ChunkResult call() throws Exception {
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                            chunkStart, mapLength);
+                    return scanChunk(mapped, chunkStart, chunkLength);
+                }
+            }));
+        }
+
+        // Chunks are joined in file order, so result is sorted by position
+        List<ChunkResult> results = new ArrayList<>(tasks.size());
+        int total = 0;
+        try {
+            for (ForkJoinTask<ChunkResult> task : tasks) {
+                ChunkResult result = task.get();
+                results.add(result);
+                total += result.syncPoints.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning syncpoints", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Failed to scan syncpoints", cause);
+        } finally {
+            for (ForkJoinTask<ChunkResult> task : tasks) {
+                task.cancel(false);
+            }
+        }
+
+        long[] positions = new long[total];
+        SyncPoint[] syncPoints = new SyncPoint[total];
+        int i = 0;
+        for (ChunkResult result : results) {
+            for (int j = 0; j < result.syncPoints.size(); j++, i++) {
+                positions[i] = result.positions.get(j);
+                syncPoints[i] = result.syncPoints.get(j);
+            }
+        }
+
+        return new SyncPointTable(positions, syncPoints);
+    }
+
+    /**
+     * Reads syncpoints at positions listed in the index, without scanning the whole file.
+     * <p>
+     * Index positions which don't point to a valid syncpoint are skipped.
+     *
+     * @param channel file channel, its position is not changed
+     * @param index   index of the file
+     * @return syncpoints sorted by position
+     * @throws IOException if file can't be read
+     */
+    public SyncPointTable scan(final FileChannel channel, final NutIndex index)
+            throws IOException {
+        // not closed: it would close the channel
+        NutInputStream input = NutInputStream.map(channel);
+        List<Long> positions = new ArrayList<>();
+        List<SyncPoint> syncPoints = new ArrayList<>();
+
+        for (long indexPosition : index.syncPointPositions) {
+            // Index position points up to 15 bytes before syncpoint startcode
+            input.seek(indexPosition);
+            long startcode = 0;
+            for (int i = 0; i < 16 + 8 && startcode != NutConst.SYNCPOINT_STARTCODE; i++) {
+                int b = input.readByte();
+                if (b == -1) {
+                    break;
+                }
+                startcode = (startcode << 8) | b;
+            }
+            if (startcode != NutConst.SYNCPOINT_STARTCODE) {
+                continue;
+            }
+
+            long position = input.getPosition() - 8;
+            input.seek(position);
+            SyncPoint syncPoint = readSyncPoint(input);
+            if (syncPoint != null) {
+                positions.add(position);
+                syncPoints.add(syncPoint);
+            }
+        }
+
+        long[] result = new long[positions.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = positions.get(i);
+        }
+
+        return new SyncPointTable(result, syncPoints.toArray(new SyncPoint[0]));
+    }
+
+    /**
+     * Scans the chunk for syncpoints starting in the first {@code chunkLength} bytes.
+     *
+     * @param data        chunk data, may extend beyond chunk length
+     * @param chunkStart  position of the chunk in a file
+     * @param chunkLength chunk length
+     * @return syncpoints found
+     */
+    private ChunkResult scanChunk(final ByteBuffer data, final long chunkStart,
+                                  final int chunkLength) {
+        ChunkResult result = new ChunkResult();
+        int lastStart = Math.min(chunkLength, data.limit() - 8);
+
+        for (int i = 0; i < lastStart; i++) {
+            if (data.get(i) != 'N' || data.getLong(i) != NutConst.SYNCPOINT_STARTCODE) {
+                continue;
+            }
+
+            ByteBuffer packet = data.duplicate();
+            packet.position(i);
+            SyncPoint syncPoint = readSyncPoint(new NutInputStream(packet));
+            if (syncPoint != null) {
+                result.positions.add(chunkStart + i);
+                result.syncPoints.add(syncPoint);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads and validates syncpoint packet.
+     *
+     * @param input stream positioned at syncpoint startcode
+     * @return syncpoint, or null if data is not a valid syncpoint packet
+     */
+    private SyncPoint readSyncPoint(final NutInputStream input) {
+        int timeBaseCount = mainHeader.timeBases.length;
+        try {
+            input.readLong();
+            long forwardPtr = input.readValue();
+            // at least global_key_pts, back_ptr_div16 and checksum
+            if (forwardPtr < 6 || forwardPtr > MAX_FORWARD_PTR) {
+                return null;
+            }
+
+            long footerPosition = input.getPosition() + forwardPtr - 4;
+            input.resetCrc32();
+            Timestamp globalKeyPts = input.readTimestamp(timeBaseCount);
+            long backPtrDiv16 = input.readValue();
+            Timestamp transmitTs = globalKeyPts;
+            if (mainHeader.flags.contains(MainHeader.Flag.BROADCAST_MODE)) {
+                transmitTs = input.readTimestamp(timeBaseCount);
+            }
+
+            if (input.getPosition() > footerPosition) {
+                return null;
+            }
+            input.skipBytes(footerPosition - input.getPosition());
+
+            long expected = input.getCrc32();
+            if (input.readInt() != expected) {
+                return null;
+            }
+
+            return new SyncPoint(globalKeyPts, backPtrDiv16, transmitTs);
+        } catch (EOFException e) {
+            // truncated packet at the end of a file
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read syncpoint", e);
+        }
+    }
+
+    private static class ChunkResult {
+        private final List<Long> positions = new ArrayList<>();
+        private final List<SyncPoint> syncPoints = new ArrayList<>();
+    }
+}
@@ -18,23 +18,18 @@
 package com.github.kokorin.jaffree.nut;
 
 import com.github.kokorin.jaffree.Rational;
-import com.github.kokorin.jaffree.nut.FrameCode.Flag;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.EnumSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
 
 public class NutWriter {
     private final NutOutputStream output;
     private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
     private MainHeader mainHeader;
+    private FrameCodeIndex frameCodeIndex;
     private StreamHeader[] streamHeaders;
     private Info[] infos;
     private long[] lastPts;
@@ -46,8 +41,27 @@ public class NutWriter {
     private boolean closed = false;
 
     private long frameOrderingBufferMillis = 200;
+    private FlushPolicy flushPolicy = FlushPolicy.PACKET;
 
-    private final List<TsFrame> frameOrderingBuffer = new ArrayList<>();
+    private boolean writeIndex = true;
+    // Index data: positions of syncpoints and pts of the first keyframe of every stream
+    // between consecutive syncpoints, keyframes after syncpoint i are stored at i + 1
+    private long[] syncPointPositions = new long[INDEX_INITIAL_CAPACITY];
+    private int syncPointCount = 0;
+    private long[][] indexKeyframePts;
+    private long[] lastIndexedPts;
+    private long maxPtsNanos = -1;
+    private long maxPts = 0;
+    private int maxPtsTimebaseId = 0;
+
+    // Frames are ordered by timestamp in nanoseconds
+    private final FrameOrderingBuffer frameOrderingBuffer = new FrameOrderingBuffer();
+
+    private static final Rational NANOSECONDS = new Rational(1, 1_000_000_000L);
+
+    private static final int INDEX_INITIAL_CAPACITY = 64;
+    // Number of has_keyframe flags stored in one v value of index
+    private static final int INDEX_FLAGS_PER_VALUE = 60;
 
     private static final long MAJOR_VERSION = 3;
     private static final long MINOR_VERSION = 0;
@@ -70,6 +84,7 @@ public class NutWriter {
                 new long[0],
                 EnumSet.noneOf(MainHeader.Flag.class)
         );
+        this.frameCodeIndex = new FrameCodeIndex(frameCodes, streamCount);
     }
 
     public void setStreamHeaders(StreamHeader[] streamHeaders) {
@@ -95,6 +110,28 @@ public class NutWriter {
         this.frameOrderingBufferMillis = frameOrderingBufferMillis;
     }
 
+    /**
+     * Whether to write index at the end of a file (when {@link #writeFooter()} is called).
+     * <p>
+     * Index allows fast seeking in NUT files, see {@link NutReader#seek(int, long)}.
+     * By default index is written.
+     *
+     * @param writeIndex true to write index
+     */
+    public void setWriteIndex(boolean writeIndex) {
+        this.writeIndex = writeIndex;
+    }
+
+    /**
+     * Sets when written data is flushed to the underlying output.
+     * By default data is flushed after every packet.
+     *
+     * @param flushPolicy flush policy
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
     private void initialize() throws IOException {
         if (initialized) {
             return;
@@ -102,6 +139,12 @@ public class NutWriter {
 
         lastPts = new long[mainHeader.streamCount];
         eor = new boolean[mainHeader.streamCount];
+        indexKeyframePts = new long[mainHeader.streamCount][INDEX_INITIAL_CAPACITY];
+        for (long[] keyframePts : indexKeyframePts) {
+            Arrays.fill(keyframePts, NutIndex.NO_PTS);
+        }
+        lastIndexedPts = new long[mainHeader.streamCount];
+        Arrays.fill(lastIndexedPts, -1);
 
         output.writeCString(NutConst.FILE_ID);
         writeMainHeader();
@@ -150,12 +193,12 @@ public class NutWriter {
 
         int fields, streamId = 0, size;
         long ptsDelta = 0, dataSizeMul = 1;
-        Set<Flag> flags;
+        long flags;
 
         for (int i = 0; i < 256; ) {
             fields = 0;
             FrameCode frameCode = mainHeader.frameCodes[i];
-            flags = frameCode.flags;
+            flags = frameCode.flagMask;
 
             if (frameCode.ptsDelta != ptsDelta) {
                 fields = 1;
@@ -185,8 +228,7 @@ public class NutWriter {
                 }
 
                 frameCode = mainHeader.frameCodes[i];
-                boolean flagsAreEqual = frameCode.flags.containsAll(flags) && frameCode.flags.size() == flags.size();
-                if (!flagsAreEqual) {
+                if (frameCode.flagMask != flags) {
                     break;
                 }
                 if (frameCode.streamId != streamId) {
@@ -207,7 +249,7 @@ public class NutWriter {
                 fields = 6;
             }
 
-            bufOutput.writeValue(Flag.toBitCode(flags));
+            bufOutput.writeValue(flags);
             bufOutput.writeValue(fields);
             if (fields > 0) {
                 bufOutput.writeSignedValue(ptsDelta);
@@ -273,6 +315,8 @@ public class NutWriter {
      * Note: When all frames are passed to this method the caller MUST invoke {@link #writeFooter()}
      * <p>
      * Note: frames are not written immediately to stream, instead they are buffered, reordered and than written.
+     * <p>
+     * Frames backed by pooled buffer are released once they have been written.
      *
      * @param frame frame to write
      * @throws IOException
@@ -283,50 +327,79 @@ public class NutWriter {
             throw new RuntimeException("NutWriter is ");
         }
 
-        StreamHeader stream = streamHeaders[frame.streamId];
-        Rational timestamp = mainHeader.timeBases[stream.timeBaseId].multiply(frame.pts);
-        frameOrderingBuffer.add(new TsFrame(timestamp, frame));
-        Collections.sort(frameOrderingBuffer, TsFrame.COMPARATOR);
+        frameOrderingBuffer.add(toNanos(frame), frame);
+        writeReadyFrames();
+    }
 
-        Rational lastFrameTimestamp = frameOrderingBuffer.get(frameOrderingBuffer.size() - 1).timestamp;
+    /**
+     * Writes several frames to underlying OutputStream.
+     * <p>
+     * Frames are added to the frame ordering buffer all at once, so ready frames are
+     * selected and written once per batch rather than once per frame.
+     *
+     * @param frames frames to write
+     * @param count  number of frames in the array, starting from 0
+     * @throws IOException
+     * @see #writeFrame(NutFrame)
+     */
+    public void writeFrames(NutFrame[] frames, int count) throws IOException {
+        if (closed) {
+            throw new RuntimeException("NutWriter is closed");
+        }
+
+        for (int i = 0; i < count; i++) {
+            frameOrderingBuffer.add(toNanos(frames[i]), frames[i]);
+        }
+        writeReadyFrames();
+    }
+
+    private void writeReadyFrames() throws IOException {
+        long lastFrameTimestamp = frameOrderingBuffer.getMaxTimestamp();
+        long bufferNanos = frameOrderingBufferMillis * 1_000_000L;
         // Check if we have to remove some frames from buffer and to write them to ouput
-        Iterator<TsFrame> frameIterator = frameOrderingBuffer.iterator();
-        while (frameIterator.hasNext()) {
-            TsFrame tsFrame = frameIterator.next();
+        while (!frameOrderingBuffer.isEmpty()) {
             // current frame can't be written yet, as well as all subsequent
-            if (lastFrameTimestamp.subtract(tsFrame.timestamp).lessThanOrEqual(new Rational(frameOrderingBufferMillis, 1000))) {
+            if (lastFrameTimestamp - frameOrderingBuffer.getMinTimestamp() <= bufferNanos) {
                 break;
             }
 
-            writeFrameInternal(tsFrame.frame);
-            frameIterator.remove();
+            writeFrameInternal(frameOrderingBuffer.poll());
         }
     }
 
+    private long toNanos(NutFrame frame) {
+        StreamHeader stream = streamHeaders[frame.streamId];
+        return Util.convertTimestamp(frame.pts, mainHeader.timeBases[stream.timeBaseId], NANOSECONDS);
+    }
+
     private void writeFrameInternal(NutFrame frame) throws IOException {
         initialize();
 
         // EOR frames by specification use TS of the previous frame in the same stream.
         // TODO: do we need this check?
         if (!frame.eor) {
-            Rational maxTs = Rational.ZERO;
+            long maxTs = 0;
             for (int i = 0; i < mainHeader.timeBases.length; i++) {
-                Rational ts = mainHeader.timeBases[i].multiply(lastPts[i]);
-                if (ts.greaterThan(maxTs)) {
+                long ts = Util.convertTimestamp(lastPts[i], mainHeader.timeBases[i], NANOSECONDS);
+                if (ts > maxTs) {
                     maxTs = ts;
                 }
             }
-            StreamHeader steam = streamHeaders[frame.streamId];
-            Rational framedTs = mainHeader.timeBases[steam.timeBaseId].multiply(frame.pts);
-            if (framedTs.lessThan(maxTs)) {
-                throw new RuntimeException("Unordered frames! Try to increase frameOrderingBufferMillis. maxTs: " + maxTs + ", but current: " + framedTs);
+            long framedTs = toNanos(frame);
+            if (framedTs < maxTs) {
+                throw new RuntimeException("Unordered frames! Try to increase frameOrderingBufferMillis. maxTs: " + maxTs + " ns, but current: " + framedTs + " ns");
+            }
+            if (framedTs > maxPtsNanos) {
+                maxPtsNanos = framedTs;
+                maxPts = frame.pts;
+                maxPtsTimebaseId = streamHeaders[frame.streamId].timeBaseId;
             }
         }
 
         StreamHeader sc = streamHeaders[frame.streamId];
 
-        int i, ftnum = -1, size = 0, msb_pts = (1 << sc.msbPtsShift);
-        Set<Flag> codedFlags = Collections.emptySet();
+        int ftnum, size, msb_pts = (1 << sc.msbPtsShift);
+        long codedFlags;
         long coded_pts, pts_delta = frame.pts - lastPts[frame.streamId];
         boolean checksum = false;
 
@@ -336,143 +409,102 @@ public class NutWriter {
             coded_pts = frame.pts + msb_pts;
         }
 
-        if (frame.data.length > 2 * mainHeader.maxDistance) {
+        if (frame.getDataSize() > 2 * mainHeader.maxDistance) {
             checksum = true;
         }
         if (Math.abs(pts_delta) > sc.maxPtsDistance) {
             checksum = true;
         }
 
-        for (i = 0; i < 256; i++) {
-            int len = 1; // frame code
-            FrameCode ft = mainHeader.frameCodes[i];
+        ftnum = frameCodeIndex.find(frame.streamId, frame.keyframe, frame.eor, pts_delta,
+                frame.getDataSize(), checksum);
 
-            Set<Flag> flags = ft.flags;
-            if (flags.contains(Flag.INVALID)) {
-                continue;
-            }
+        if (ftnum == -1) {
+            throw new IllegalArgumentException("Can't find appropriate FrameCode for " + frame);
+        }
 
-            Set<Flag> fdFlags = EnumSet.noneOf(Flag.class);
+        FrameCode ft = mainHeader.frameCodes[ftnum];
+        size = frameCodeIndex.getHeaderLength(ftnum, frame.streamId, pts_delta,
+                frame.getDataSize(), checksum);
+        if ((ft.flagMask & FrameCode.FLAG_CODED_FLAGS) != 0) {
+            codedFlags = FrameCode.FLAG_CODED_FLAGS;
             if (frame.keyframe) {
-                fdFlags.add(Flag.KEYFRAME);
+                codedFlags |= FrameCode.FLAG_KEYFRAME;
             }
             if (frame.eor) {
-                fdFlags.add(Flag.EOR);
-            }
-
-            if (flags.contains(Flag.CODED_FLAGS)) {
-                flags = EnumSet.copyOf(fdFlags);
-
-                if (ft.streamId != frame.streamId) {
-                    flags.add(Flag.STREAM_ID);
-                }
-                if (ft.ptsDelta != pts_delta) {
-                    flags.add(Flag.CODED_PTS);
-                }
-                if (ft.dataSizeLsb != frame.data.length) {
-                    flags.add(Flag.SIZE_MSB);
-                }
-                if (checksum) {
-                    flags.add(Flag.CHECKSUM);
-                }
-                flags.add(Flag.CODED_FLAGS);
-            }
-
-
-            // if ((flags ^ fd -> flags) & NUT_API_FLAGS) continue;
-            Set<Flag> xor = Flag.xor(flags, fdFlags);
-            if (xor.contains(Flag.KEYFRAME) || xor.contains(Flag.EOR)) {
-                continue;
-            }
-
-            if (!flags.contains(Flag.STREAM_ID) && ft.streamId != frame.streamId) {
-                continue;
-            }
-
-            if (!flags.contains(Flag.CODED_PTS) && ft.ptsDelta != pts_delta) {
-                continue;
-            }
-
-            if (flags.contains(Flag.SIZE_MSB)) {
-                if ((frame.data.length - ft.dataSizeLsb) % ft.dataSizeMul != 0) {
-                    continue;
-                }
-            } else {
-                if (ft.dataSizeLsb != frame.data.length) {
-                    continue;
-                }
-            }
-
-            if (!flags.contains(Flag.CHECKSUM) && checksum) {
-                continue;
-            }
-
-            // it doesn't fully follow specification, but is simple enough
-            if (flags.contains(Flag.CODED_FLAGS)) {
-                len += 8;
+                codedFlags |= FrameCode.FLAG_EOR;
             }
-            if (flags.contains(Flag.STREAM_ID)) {
-                len += 8;
+            if (ft.streamId != frame.streamId) {
+                codedFlags |= FrameCode.FLAG_STREAM_ID;
             }
-            if (flags.contains(Flag.CODED_PTS)) {
-                len += 8;
+            if (ft.ptsDelta != pts_delta) {
+                codedFlags |= FrameCode.FLAG_CODED_PTS;
             }
-            if (flags.contains(Flag.SIZE_MSB)) {
-                len += 8;
+            if (ft.dataSizeLsb != frame.getDataSize()) {
+                codedFlags |= FrameCode.FLAG_SIZE_MSB;
             }
-            if (flags.contains(Flag.CHECKSUM)) {
-                len += 4;
+            if (checksum) {
+                codedFlags |= FrameCode.FLAG_CHECKSUM;
             }
-
-            if (size == 0 || len < size) {
-                ftnum = i;
-                codedFlags = flags;
-                size = len;
-            }
-        }
-
-        if (ftnum == -1) {
-            throw new IllegalArgumentException("Can't find appropriate FrameCode for " + frame);
+        } else {
+            codedFlags = ft.flagMask;
         }
 
         // Distance between synpoints (in bytes) should be no more that maxDistance
-        if (lastSyncPointPosition + mainHeader.maxDistance < output.getPosition() + size + frame.data.length) {
+        if (lastSyncPointPosition + mainHeader.maxDistance < output.getPosition() + size + frame.getDataSize()) {
             writeSyncPoint();
         }
 
+        // EOR frames aren't indexed: they have the same pts as the previous frame
+        int streamId = frame.streamId;
+        if (frame.keyframe && !frame.eor && frame.pts > lastIndexedPts[streamId]
+                && indexKeyframePts[streamId][syncPointCount] == NutIndex.NO_PTS) {
+            indexKeyframePts[streamId][syncPointCount] = frame.pts;
+            lastIndexedPts[streamId] = frame.pts;
+        }
+
         output.resetCrc32();
         output.writeByte(ftnum);
-        FrameCode ft = mainHeader.frameCodes[ftnum];
-        if (codedFlags.contains(Flag.CODED_FLAGS)) {
-            Set<Flag> codedXor = Flag.xor(codedFlags, ft.flags);
-            output.writeValue(Flag.toBitCode(codedXor));
+        if ((codedFlags & FrameCode.FLAG_CODED_FLAGS) != 0) {
+            output.writeValue(codedFlags ^ ft.flagMask);
         }
-        if (codedFlags.contains(Flag.STREAM_ID)) {
+        if ((codedFlags & FrameCode.FLAG_STREAM_ID) != 0) {
             output.writeValue(frame.streamId);
         }
-        if (codedFlags.contains(Flag.CODED_PTS)) {
+        if ((codedFlags & FrameCode.FLAG_CODED_PTS) != 0) {
             output.writeValue(coded_pts);
         }
-        if (codedFlags.contains(Flag.SIZE_MSB)) {
-            output.writeValue((frame.data.length - ft.dataSizeLsb) / ft.dataSizeMul);
+        if ((codedFlags & FrameCode.FLAG_SIZE_MSB) != 0) {
+            output.writeValue((frame.getDataSize() - ft.dataSizeLsb) / ft.dataSizeMul);
         }
-        if (codedFlags.contains(Flag.CHECKSUM)) {
+        if ((codedFlags & FrameCode.FLAG_CHECKSUM) != 0) {
             output.writeCrc32();
         }
+        // frame payload isn't covered by checksum
+        output.stopCrc32();
 
         // TODO: elision headers?
-        output.writeBytes(frame.data);
+        // Header is still in output's buffer: big payload is written together with it
+        if (frame.data != null) {
+            output.writeBytes(frame.data);
+        } else if (frame.getDataSize() > 0) {
+            output.writeBytes(frame.getBuffer());
+        }
+        frame.release();
 
         lastPts[frame.streamId] = frame.pts;
-        eor[frame.streamId] = codedFlags.contains(Flag.EOR);
+        eor[frame.streamId] = (codedFlags & FrameCode.FLAG_EOR) != 0;
+
+        if (flushPolicy == FlushPolicy.LOW_LATENCY) {
+            output.flush();
+        }
     }
 
     public void writeFooter() throws Exception {
         // writeEorFrame uses lastPts, it is updated by writeFrameInternal
-        for (TsFrame tsFrame : frameOrderingBuffer) {
-            writeFrameInternal(tsFrame.frame);
+        while (!frameOrderingBuffer.isEmpty()) {
+            writeFrameInternal(frameOrderingBuffer.poll());
         }
-        frameOrderingBuffer.clear();
 
         for (int streamId = 0; streamId < eor.length; streamId++) {
             if (!eor[streamId]) {
@@ -480,10 +512,9 @@ public class NutWriter {
             }
         }
 
-        for (TsFrame tsFrame : frameOrderingBuffer) {
-            writeFrameInternal(tsFrame.frame);
+        while (!frameOrderingBuffer.isEmpty()) {
+            writeFrameInternal(frameOrderingBuffer.poll());
         }
-        frameOrderingBuffer.clear();
 
         writeMainHeader();
         for (StreamHeader streamHeader : streamHeaders) {
@@ -491,6 +522,10 @@ public class NutWriter {
         }
 
         writeSyncPoint();
+        if (writeIndex) {
+            writeIndex();
+        }
+        output.flush();
 
         closed = true;
     }
@@ -550,11 +585,101 @@ public class NutWriter {
             bufOutput.writeTimestamp(mainHeader.timeBases.length, syncPoint.transmitTs);
         }
         lastSyncPointPosition = output.getPosition();
+        addIndexSyncPoint(lastSyncPointPosition);
 
         bufOutput.flush();
         writePacket(NutConst.SYNCPOINT_STARTCODE, buffer.toByteArray());
     }
 
+    private void addIndexSyncPoint(long position) {
+        // Index stores positions divided by 16, it can't refer 2 syncpoints within 16 bytes
+        if (syncPointCount > 0 && position >> 4 <= syncPointPositions[syncPointCount - 1] >> 4) {
+            return;
+        }
+
+        if (syncPointCount + 1 >= syncPointPositions.length) {
+            int capacity = syncPointPositions.length * 2;
+            syncPointPositions = Arrays.copyOf(syncPointPositions, capacity);
+            for (int i = 0; i < indexKeyframePts.length; i++) {
+                int oldCapacity = indexKeyframePts[i].length;
+                indexKeyframePts[i] = Arrays.copyOf(indexKeyframePts[i], capacity);
+                Arrays.fill(indexKeyframePts[i], oldCapacity, capacity, NutIndex.NO_PTS);
+            }
+        }
+
+        syncPointPositions[syncPointCount] = position;
+        syncPointCount++;
+    }
+
+    /*
+        index:
+        max_pts                             t
+        syncpoints                          v
+        for(i=0; i<syncpoints; i++){
+            syncpoint_pos_div16             v
+        }
+        for(i=0; i<stream_count; i++){
+            ... (has_keyframe flags and keyframe_pts deltas)
+        }
+        reserved_bytes
+        index_ptr                           u(64)
+     */
+    private void writeIndex() throws IOException {
+        buffer.reset();
+        // Temp buffer, used to calculate data size
+        NutOutputStream bufOutput = new NutOutputStream(buffer);
+
+        bufOutput.writeTimestamp(mainHeader.timeBases.length, new Timestamp(maxPtsTimebaseId, maxPts));
+        bufOutput.writeValue(syncPointCount);
+        long lastPosDiv16 = 0;
+        for (int i = 0; i < syncPointCount; i++) {
+            long posDiv16 = syncPointPositions[i] >> 4;
+            bufOutput.writeValue(posDiv16 - lastPosDiv16);
+            lastPosDiv16 = posDiv16;
+        }
+
+        for (long[] keyframePts : indexKeyframePts) {
+            long lastKeyframePts = -1;
+            for (int j = 0; j < syncPointCount; j += INDEX_FLAGS_PER_VALUE) {
+                int n = Math.min(INDEX_FLAGS_PER_VALUE, syncPointCount - j);
+
+                // type 0: has_keyframe flags as bitmask terminated with 1
+                long x = 1L << n;
+                for (int k = 0; k < n; k++) {
+                    if (keyframePts[j + k] != NutIndex.NO_PTS) {
+                        x |= 1L << k;
+                    }
+                }
+                bufOutput.writeValue(x << 1);
+
+                for (int k = 0; k < n; k++) {
+                    long pts = keyframePts[j + k];
+                    if (pts != NutIndex.NO_PTS) {
+                        bufOutput.writeValue(pts - lastKeyframePts);
+                        lastKeyframePts = pts;
+                    }
+                }
+            }
+        }
+        bufOutput.flush();
+
+        // index_ptr is the length of the entire index packet
+        long forwardPtr = buffer.size() + 8 + 4;
+        long indexPtr = 8 + valueLength(forwardPtr) + (forwardPtr > 4096 ? 4 : 0) + forwardPtr;
+        bufOutput.writeLong(indexPtr);
+        bufOutput.flush();
+
+        writePacket(NutConst.INDEX_STARTCODE, buffer.toByteArray());
+    }
+
+    private static int valueLength(long value) {
+        int result = 1;
+        while ((value >>>= 7) != 0) {
+            result++;
+        }
+        return result;
+    }
+
     private void writeDataItems(DataItem[] items, NutOutputStream output) throws IOException {
         if (items == null) {
             items = new DataItem[0];
@@ -611,24 +736,9 @@ public class NutWriter {
         output.resetCrc32();
         output.writeBytes(data);
         output.writeCrc32();
-        output.flush();
-    }
-
-
-    private static class TsFrame {
-        public final Rational timestamp;
-        public final NutFrame frame;
-
-        private static final Comparator<TsFrame> COMPARATOR = new Comparator<TsFrame>() {
-            @Override
-            public int compare(TsFrame o1, TsFrame o2) {
-                return o1.timestamp.compareTo(o2.timestamp);
-            }
-        };
-
-        public TsFrame(Rational timestamp, NutFrame frame) {
-            this.timestamp = timestamp;
-            this.frame = frame;
+        output.stopCrc32();
+        if (flushPolicy != FlushPolicy.THROUGHPUT) {
+            output.flush();
         }
     }
 }
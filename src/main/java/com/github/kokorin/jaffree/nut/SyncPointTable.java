@@ -0,0 +1,117 @@
+/*
+ *    Copyright  2021 Alex Katlein
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.nut;
+
+import com.github.kokorin.jaffree.Rational;
+
+/**
+ * Positions of syncpoints found in a NUT file together with syncpoint contents.
+ * <p>
+ * Unlike {@link NutIndex} positions point exactly to syncpoint startcodes.
+ *
+ * @see NutSyncPointScanner
+ */
+@SuppressWarnings("checkstyle:visibilitymodifier")
+public class SyncPointTable {
+    /**
+     * Syncpoint startcode positions in ascending order.
+     */
+    public final long[] positions;
+
+    /**
+     * Syncpoints, syncPoints[i] is located at positions[i].
+     */
+    public final SyncPoint[] syncPoints;
+
+    public SyncPointTable(long[] positions, SyncPoint[] syncPoints) {
+        if (positions.length != syncPoints.length) {
+            throw new IllegalArgumentException(
+                    "Positions and syncpoints must have the same length");
+        }
+        this.positions = positions;
+        this.syncPoints = syncPoints;
+    }
+
+    /**
+     * @return number of syncpoints
+     */
+    public int size() {
+        return positions.length;
+    }
+
+    /**
+     * Finds the last syncpoint with global_key_pts lower than the target timestamp.
+     * <p>
+     * global_key_pts is bigger or equal to dts of all preceding frames, so such syncpoint
+     * precedes frames with the target pts (unless frames are reordered).
+     *
+     * @param pts       target pts
+     * @param timebase  timebase of target pts
+     * @param timebases timebases from {@link MainHeader}
+     * @return syncpoint number, or -1 if target pts precedes all syncpoints
+     */
+    public int findSyncPoint(long pts, Rational timebase, Rational[] timebases) {
+        int low = 0;
+        int high = positions.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Timestamp globalKeyPts = syncPoints[mid].globalKeyPts;
+            long midPts = Util.convertTimestamp(globalKeyPts.pts,
+                    timebases[globalKeyPts.timebaseId], timebase);
+            if (midPts < pts) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Finds the first syncpoint located at or after the specified position.
+     *
+     * @param position position
+     * @return syncpoint number, or -1 if there is no syncpoint after the position
+     */
+    public int findSyncPointAfter(long position) {
+        int low = 0;
+        int high = positions.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (positions[mid] >= position) {
+                found = mid;
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        return found;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncPointTable{"
+                + "syncPoints=" + positions.length
+                + '}';
+    }
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 public class SocketInputStream extends InputStream {
     private final ServerSocket serverSocket;
@@ -37,6 +38,16 @@ public class SocketInputStream extends InputStream {
         this.inputStream = socket.getInputStream();
     }
 
+    /**
+     * Returns channel of the underlying socket. Only sockets accepted by
+     * {@link java.nio.channels.ServerSocketChannel} have one.
+     *
+     * @return socket channel, or null if socket has no channel
+     */
+    public SocketChannel getChannel() {
+        return socket.getChannel();
+    }
+
     @Override
     public int read() throws IOException {
         return inputStream.read();
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 public class SocketOutputStream extends OutputStream {
     private final ServerSocket serverSocket;
@@ -34,6 +35,16 @@ public class SocketOutputStream extends OutputStream {
         this.outputStream = socket.getOutputStream();
     }
 
+    /**
+     * Returns channel of the underlying socket. Only sockets accepted by
+     * {@link java.nio.channels.ServerSocketChannel} have one.
+     *
+     * @return socket channel, or null if socket has no channel
+     */
+    public SocketChannel getChannel() {
+        return socket.getChannel();
+    }
+
     @Override
     public void write(int b) throws IOException {
         outputStream.write(b);
@@ -0,0 +1,48 @@
+/*
+ *    Copyright  2021 Denis Kokorin
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.github.kokorin.jaffree.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Socket utils.
+ */
+public final class SocketUtil {
+    private SocketUtil() {
+    }
+
+    /**
+     * Allocates loopback server socket backed by {@link ServerSocketChannel}, so accepted
+     * connections can be read and written with NIO (into direct buffers, with gathering writes).
+     *
+     * @return server socket bound to a free port
+     */
+    public static ServerSocket allocateChannelSocket() {
+        try {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+            return channel.socket();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to allocate socket", e);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.github.kokorin.jaffree.ffmpeg;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.List;
+
 public class BaseInOutTest {
     @Test
     public void testFormatDuration() throws Exception {
@@ -19,4 +21,29 @@ public class BaseInOutTest {
         Assert.assertEquals("1000.000", BaseInOut.formatDuration(1_000_000));
     }
 
+    @Test
+    public void testKeyframesOnly() throws Exception {
+        List<String> input = UrlInput.fromUrl("input.mp4")
+                .setKeyframesOnly(true)
+                .buildArguments();
+        int skipFrame = input.indexOf("-skip_frame:v");
+        Assert.assertTrue(skipFrame >= 0);
+        Assert.assertEquals("nokey", input.get(skipFrame + 1));
+        Assert.assertTrue(skipFrame < input.indexOf("-i"));
+
+        Assert.assertFalse(UrlInput.fromUrl("input.mp4").buildArguments().contains("nokey"));
+
+        FrameOutput frameOutput = FrameOutput.withConsumer(null)
+                .setKeyframesOnly(true)
+                .setKeyframesOnly(true);
+        frameOutput.buildArguments();
+        List<String> output = frameOutput.buildArguments();
+        int vsync = output.indexOf("-vsync");
+        Assert.assertTrue(vsync >= 0);
+        Assert.assertEquals("passthrough", output.get(vsync + 1));
+        Assert.assertEquals(vsync, output.lastIndexOf("-vsync"));
+
+        Assert.assertFalse(FrameOutput.withConsumer(null).setKeyframesOnly(false)
+                .buildArguments().contains("-vsync"));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.ffmpeg.ParallelNutReaderTest.CollectingConsumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FrameBatchTest {
+
+    @Test
+    public void consumeFramesInBatches() throws Exception {
+        byte[] nut = ParallelNutReaderTest.writeNut(true);
+
+        BatchCollectingConsumer single = new BatchCollectingConsumer();
+        new NutFrameConsumer(single, false)
+                .setBatchSize(1)
+                .consumeAndClose(new ByteArrayInputStream(nut));
+        Assert.assertTrue(single.batchSizes.isEmpty());
+
+        BatchCollectingConsumer sequential = new BatchCollectingConsumer();
+        new NutFrameConsumer(sequential, false)
+                .setBatchSize(8)
+                .consumeAndClose(new ByteArrayInputStream(nut));
+
+        BatchCollectingConsumer pipelined = new BatchCollectingConsumer();
+        new PipelinedNutFrameConsumer(pipelined, false)
+                .setBatchSize(8)
+                .consumeAndClose(new ByteArrayInputStream(nut));
+
+        for (BatchCollectingConsumer batched : Arrays.asList(sequential, pipelined)) {
+            Assert.assertTrue(batched.completed);
+            Assert.assertEquals(single.frames.size(), batched.frames.size());
+            for (int i = 0; i < single.frames.size(); i++) {
+                Assert.assertEquals(single.frames.get(i).getStreamId(),
+                        batched.frames.get(i).getStreamId());
+                Assert.assertEquals(single.frames.get(i).getPts(),
+                        batched.frames.get(i).getPts());
+            }
+            for (int batchSize : batched.batchSizes) {
+                Assert.assertTrue(batchSize > 1 && batchSize <= 8);
+            }
+        }
+        // whole input is available at once, so most frames are batched
+        Assert.assertFalse(sequential.batchSizes.isEmpty());
+    }
+
+    @Test
+    public void deliverPendingFramesBeforeReading() throws Exception {
+        byte[] nut = ParallelNutReaderTest.writeNut(true);
+
+        // with batch size 1 every frame is delivered as soon as it's read
+        BatchCollectingConsumer single = new BatchCollectingConsumer();
+        List<Integer> expected = new ArrayList<>();
+        new NutFrameConsumer(single, false)
+                .consumeAndClose(new ChunkedInputStream(nut, single, expected));
+
+        BatchCollectingConsumer batched = new BatchCollectingConsumer();
+        List<Integer> actual = new ArrayList<>();
+        new NutFrameConsumer(batched, false)
+                .setBatchSize(8)
+                .consumeAndClose(new ChunkedInputStream(nut, batched, actual));
+
+        Assert.assertEquals(single.frames.size(), batched.frames.size());
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void produceFramesInBatches() {
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        new NutFrameSupplier(new BatchProducer(), false).supplyAndClose(single);
+
+        BatchProducer batchProducer = new BatchProducer();
+        ByteArrayOutputStream batched = new ByteArrayOutputStream();
+        new NutFrameSupplier(batchProducer, false)
+                .setBatchSize(16)
+                .supplyAndClose(batched);
+
+        Assert.assertTrue(batchProducer.batchCalls > 0);
+        Assert.assertArrayEquals(single.toByteArray(), batched.toByteArray());
+
+        CollectingConsumer consumer = new CollectingConsumer();
+        new NutFrameConsumer(consumer, false)
+                .consumeAndClose(new ByteArrayInputStream(batched.toByteArray()));
+        Assert.assertEquals(BatchProducer.FRAME_COUNT, consumer.frames.size());
+    }
+
+    private static class BatchCollectingConsumer extends CollectingConsumer {
+        final List<Integer> batchSizes = new ArrayList<>();
+
+        @Override
+        public void consumeBatch(Frame[] frames, int count) {
+            batchSizes.add(count);
+            super.consumeBatch(frames, count);
+        }
+    }
+
+    /**
+     * Returns at most 1000 bytes per read, like a socket, and records how many frames
+     * have been delivered before every read.
+     */
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+        private final CollectingConsumer consumer;
+        private final List<Integer> deliveredBeforeRead;
+
+        ChunkedInputStream(byte[] data, CollectingConsumer consumer,
+                           List<Integer> deliveredBeforeRead) {
+            super(data);
+            this.consumer = consumer;
+            this.deliveredBeforeRead = deliveredBeforeRead;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            deliveredBeforeRead.add(consumer.frames.size());
+            return super.read(b, off, Math.min(len, 1000));
+        }
+
+        @Override
+        public synchronized int available() {
+            return 0;
+        }
+    }
+
+    /**
+     * Produces audio with small packets, in batches if asked to.
+     */
+    private static class BatchProducer implements FrameProducer {
+        static final int FRAME_COUNT = 1000;
+        private int produced = 0;
+        private int batchCalls = 0;
+
+        @Override
+        public List<Stream> produceStreams() {
+            return Arrays.asList(
+                    new Stream().setId(0).setType(Stream.Type.AUDIO).setTimebase(8000L)
+                            .setSampleRate(8000).setChannels(1),
+                    new Stream().setId(1).setType(Stream.Type.AUDIO).setTimebase(8000L)
+                            .setSampleRate(8000).setChannels(1)
+            );
+        }
+
+        @Override
+        public Frame produce() {
+            if (produced == FRAME_COUNT) {
+                return null;
+            }
+            Frame result = new Frame(produced % 2, produced / 2 * 16L, new int[16]);
+            produced++;
+            return result;
+        }
+
+        @Override
+        public int produceBatch(Frame[] frames) {
+            batchCalls++;
+            return FrameProducer.super.produceBatch(frames);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.ffmpeg.ParallelNutReaderTest.CollectingConsumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FrameMergerTest {
+    private static final List<Stream> STREAMS = Arrays.asList(
+            new Stream().setId(0).setType(Stream.Type.AUDIO).setTimebase(44100L)
+                    .setSampleRate(44100).setChannels(1),
+            new Stream().setId(1).setType(Stream.Type.AUDIO).setTimebase(8000L)
+                    .setSampleRate(8000).setChannels(1)
+    );
+
+    @Test
+    public void mergeConcurrentlyProducedFrames() throws Exception {
+        FrameMerger merger = new FrameMerger(STREAMS, 2);
+        Thread first = push(merger, 0, 1000, 1024, new AtomicReference<Throwable>());
+        Thread second = push(merger, 1, 700, 160, new AtomicReference<Throwable>());
+
+        long lastNanos = -1;
+        int[] counts = new int[2];
+        Frame frame;
+        while ((frame = merger.produce()) != null) {
+            long nanos = frame.getPts() * 1_000_000_000L
+                    / STREAMS.get(frame.getStreamId()).getTimebase();
+            Assert.assertTrue(lastNanos <= nanos);
+            lastNanos = nanos;
+            counts[frame.getStreamId()]++;
+        }
+
+        first.join();
+        second.join();
+        Assert.assertArrayEquals(new int[]{1000, 700}, counts);
+        Assert.assertNull(merger.produce());
+    }
+
+    @Test
+    public void writeMergedFrames() throws Exception {
+        FrameMerger merger = new FrameMerger(STREAMS, 4);
+        Thread first = push(merger, 0, 100, 1024, new AtomicReference<Throwable>());
+        Thread second = push(merger, 1, 100, 160, new AtomicReference<Throwable>());
+
+        ByteArrayOutputStream nut = new ByteArrayOutputStream();
+        merger.getInput().supplier().supplyAndClose(nut);
+        first.join();
+        second.join();
+
+        CollectingConsumer consumer = new CollectingConsumer();
+        new NutFrameConsumer(consumer, false)
+                .consumeAndClose(new ByteArrayInputStream(nut.toByteArray()));
+        Assert.assertEquals(200, consumer.frames.size());
+    }
+
+    @Test
+    public void abortFailsInput() throws Exception {
+        final FrameMerger merger = new FrameMerger(STREAMS, 2);
+        AtomicReference<Throwable> pushFailure = new AtomicReference<>();
+        Thread first = push(merger, 0, 1000, 1024, pushFailure);
+        merger.getSink(1).abort(new RuntimeException("test"));
+
+        try {
+            merger.getInput().supplier().supplyAndClose(new ByteArrayOutputStream());
+            Assert.fail("Abort must fail input");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        // producer waiting for free space is released
+        first.join();
+        Assert.assertTrue(pushFailure.get() instanceof CancellationException);
+    }
+
+    @Test
+    public void unorderedFramesAreRejected() {
+        FrameMerger.Sink sink = new FrameMerger(STREAMS).getSink(0);
+        sink.push(new Frame(0, 10, new int[1]));
+        try {
+            sink.push(new Frame(0, 9, new int[1]));
+            Assert.fail("Unordered frame must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            sink.push(new Frame(1, 11, new int[1]));
+            Assert.fail("Frame of another stream must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static Thread push(final FrameMerger merger, final int streamId, final int count,
+                               final int samplesPerFrame,
+                               final AtomicReference<Throwable> failure) {
+        Thread result = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FrameMerger.Sink sink = merger.getSink(streamId);
+                try {
+                    for (int i = 0; i < count; i++) {
+                        sink.push(new Frame(streamId, (long) i * samplesPerFrame,
+                                new int[samplesPerFrame]));
+                    }
+                    sink.close();
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        result.start();
+        return result;
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.ffmpeg.ParallelNutReaderTest.CollectingConsumer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FramePublisherTest {
+
+    @Test
+    public void publishWithBackpressure() throws Exception {
+        byte[] nut = ParallelNutReaderTest.writeNut(true);
+        CollectingConsumer expected = new CollectingConsumer();
+        new NutFrameConsumer(expected, false).consumeAndClose(new ByteArrayInputStream(nut));
+
+        FramePublisher publisher = new FramePublisher(false);
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        publisher.subscribe(subscriber);
+        Thread reader = read(publisher, nut, new AtomicReference<Throwable>());
+
+        // reader waits for demand
+        Thread.sleep(200);
+        Assert.assertEquals(1, subscriber.frames.size());
+        Assert.assertTrue(reader.isAlive());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        Assert.assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        reader.join();
+
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertNull(subscriber.error);
+        Assert.assertEquals(2, publisher.getStreams().size());
+        Assert.assertEquals(expected.frames.size(), subscriber.frames.size());
+        for (int i = 0; i < expected.frames.size(); i++) {
+            Assert.assertEquals(expected.frames.get(i).getPts(), subscriber.frames.get(i).getPts());
+        }
+    }
+
+    @Test
+    public void cancelStopsReading() throws Exception {
+        FramePublisher publisher = new FramePublisher(false);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(10) {
+            @Override
+            public void onNext(Frame frame) {
+                super.onNext(frame);
+                if (frames.size() == 3) {
+                    subscription.cancel();
+                }
+            }
+        };
+        publisher.subscribe(subscriber);
+
+        AtomicReference<Throwable> readFailure = new AtomicReference<>();
+        read(publisher, ParallelNutReaderTest.writeNut(true), readFailure).join();
+
+        Assert.assertEquals(3, subscriber.frames.size());
+        Assert.assertNotNull(readFailure.get());
+        Assert.assertFalse(subscriber.completed);
+        Assert.assertNull(subscriber.error);
+    }
+
+    @Test
+    public void nonPositiveRequestIsSignalledAsError() throws Exception {
+        FramePublisher publisher = new FramePublisher(false);
+        RecordingSubscriber subscriber = new RecordingSubscriber(2);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+
+        read(publisher, ParallelNutReaderTest.writeNut(true), new AtomicReference<Throwable>())
+                .join();
+
+        Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+        Assert.assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void terminationBeforeSubscription() {
+        FramePublisher completed = new FramePublisher(false);
+        completed.consume(null);
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        completed.subscribe(subscriber);
+        Assert.assertTrue(subscriber.completed);
+
+        // only one subscriber is supported
+        RecordingSubscriber second = new RecordingSubscriber(1);
+        completed.subscribe(second);
+        Assert.assertTrue(second.error instanceof IllegalStateException);
+
+        FramePublisher failed = new FramePublisher(false);
+        failed.signalError(new RuntimeException("test"));
+        subscriber = new RecordingSubscriber(1);
+        failed.subscribe(subscriber);
+        Assert.assertEquals("test", subscriber.error.getMessage());
+    }
+
+    private static Thread read(final FramePublisher publisher, final byte[] nut,
+                               final AtomicReference<Throwable> failure) {
+        Thread result = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    publisher.getOutput().consumer()
+                            .consumeAndClose(new ByteArrayInputStream(nut));
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        result.start();
+        return result;
+    }
+
+    private static class RecordingSubscriber implements Subscriber<Frame> {
+        final List<Frame> frames = new CopyOnWriteArrayList<>();
+        final CountDownLatch terminated = new CountDownLatch(1);
+        final long initialRequest;
+        volatile Subscription subscription;
+        volatile boolean completed = false;
+        volatile Throwable error;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(Frame frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            terminated.countDown();
+        }
+    }
+}
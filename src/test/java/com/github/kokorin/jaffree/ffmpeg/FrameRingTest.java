@@ -0,0 +1,180 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.ffmpeg.ParallelNutReaderTest.CollectingConsumer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+public class FrameRingTest {
+    private Path ringFile;
+
+    @Before
+    public void setUp() throws Exception {
+        ringFile = Files.createTempFile("jaffree", ".ring");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(ringFile);
+    }
+
+    @Test
+    public void readFramesWrittenFromNut() throws Exception {
+        byte[] nut = ParallelNutReaderTest.writeNut(true);
+        CollectingConsumer expected = new CollectingConsumer();
+        new NutFrameConsumer(expected, false).consumeAndClose(new ByteArrayInputStream(nut));
+
+        FrameRingWriter writer = new FrameRingWriter(ringFile, expected.frames.size(), 4096);
+        new NutFrameConsumer(writer, false).consumeAndClose(new ByteArrayInputStream(nut));
+        Assert.assertEquals(expected.frames.size(), writer.getFrameCount());
+
+        try (FrameRingReader reader = new FrameRingReader(ringFile)) {
+            List<Stream> streams = reader.getStreams();
+            Assert.assertEquals(2, streams.size());
+            Assert.assertEquals(PixelFormat.BGR24, streams.get(0).getPixelFormat());
+            Assert.assertEquals(SampleFormat.S32BE, streams.get(1).getSampleFormat());
+            Assert.assertEquals(expected.streams.get(0).getWidth(), streams.get(0).getWidth());
+
+            for (Frame expectedFrame : expected.frames) {
+                FrameRingReader.RingFrame ringFrame = reader.poll();
+                Frame frame = ringFrame.getFrame();
+                Assert.assertEquals(expectedFrame.getStreamId(), frame.getStreamId());
+                Assert.assertEquals(expectedFrame.getPts(), frame.getPts());
+                if (expectedFrame.getSamples() != null) {
+                    Assert.assertArrayEquals(expectedFrame.getSamples(), frame.getSamples());
+                } else {
+                    assertImagesEqual(expectedFrame.getImage(), frame.getImage());
+                }
+                Assert.assertTrue(ringFrame.isValid());
+            }
+
+            Assert.assertNull(reader.poll());
+            Assert.assertTrue(reader.isEnded());
+            Assert.assertEquals(0, reader.getLostFrames());
+        }
+    }
+
+    @Test
+    public void skipOverwrittenFrames() throws Exception {
+        FrameRingWriter writer = new FrameRingWriter(ringFile, 4, 16);
+        writer.consumeStreams(Arrays.asList(
+                new Stream().setId(0).setType(Stream.Type.VIDEO).setTimebase(25L)
+                        .setWidth(4).setHeight(2).setPixelFormat(PixelFormat.GRAY),
+                new Stream().setId(1).setType(Stream.Type.AUDIO).setTimebase(8000L)
+                        .setSampleRate(8000).setChannels(1)
+                        .setSampleFormat(SampleFormat.S16LE)
+        ));
+
+        try (FrameRingReader reader = new FrameRingReader(ringFile)) {
+            Assert.assertNull(reader.poll());
+            Assert.assertFalse(reader.isEnded());
+
+            writer.consume(grayFrame(0));
+            FrameRingReader.RingFrame first = reader.poll();
+            Assert.assertEquals(0, first.getFrameNumber());
+            Assert.assertEquals(0, first.getFrame().getRawImage().getData().get(0));
+
+            for (int i = 1; i < 10; i++) {
+                writer.consume(grayFrame(i));
+            }
+            Assert.assertFalse(first.isValid());
+
+            // frames 1..6 are overwritten
+            FrameRingReader.RingFrame next = reader.poll();
+            Assert.assertEquals(7, next.getFrameNumber());
+            Assert.assertEquals(7, next.getFrame().getPts());
+            Assert.assertEquals(6, reader.getLostFrames());
+
+            ByteBuffer samples = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            samples.putShort(0, (short) 0x0102).putShort(2, (short) -1);
+            writer.consume(new Frame(1, 80, new RawSamples(SampleFormat.S16LE, samples)));
+            writer.consume(null);
+
+            Assert.assertEquals(8, reader.poll().getFrameNumber());
+            Assert.assertEquals(9, reader.poll().getFrameNumber());
+            Frame audio = reader.poll().getFrame();
+            Assert.assertEquals(80, audio.getPts());
+            Assert.assertEquals(SampleFormat.S16LE, audio.getRawSamples().getSampleFormat());
+            Assert.assertEquals(0x0102, audio.getRawSamples().asShortBuffer().get(0));
+            Assert.assertEquals(-1, audio.getRawSamples().asShortBuffer().get(1));
+
+            Assert.assertNull(reader.poll());
+            Assert.assertTrue(reader.isEnded());
+        }
+    }
+
+    @Test
+    public void abortRingWhenReadingFails() throws Exception {
+        byte[] nut = ParallelNutReaderTest.writeNut(true);
+        FrameRingWriter writer = new FrameRingWriter(ringFile, 4, 4096);
+        TcpOutput.Consumer consumer = writer.createOutput(false).consumer();
+        try {
+            consumer.consumeAndClose(new SequenceInputStream(
+                    new ByteArrayInputStream(Arrays.copyOf(nut, nut.length / 2)),
+                    new InputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            // like socket which is reset when ffmpeg fails
+                            throw new IOException("Connection reset");
+                        }
+                    }));
+            Assert.fail("Truncated stream must fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        try (FrameRingReader reader = new FrameRingReader(ringFile)) {
+            while (reader.poll() != null) {
+                // skip written frames
+            }
+            Assert.assertTrue(reader.isFailed());
+            Assert.assertTrue(reader.isEnded());
+        }
+
+        // already aborted
+        writer.abort();
+    }
+
+    @Test
+    public void fencesAreIssuedWithUnsafe() {
+        Assert.assertTrue(MemoryFence.isSupported());
+        MemoryFence.storeFence();
+        MemoryFence.loadFence();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void videoFramesMustFitIntoSlot() {
+        new FrameRingWriter(ringFile, 4, 16).consumeStreams(Arrays.asList(
+                new Stream().setId(0).setType(Stream.Type.VIDEO).setTimebase(25L)
+                        .setWidth(4).setHeight(4).setPixelFormat(PixelFormat.BGR24)));
+    }
+
+    private static Frame grayFrame(int i) {
+        byte[] data = new byte[8];
+        Arrays.fill(data, (byte) i);
+        return new Frame(0, i, new RawImage(PixelFormat.GRAY, 4, 2, ByteBuffer.wrap(data)));
+    }
+
+    private static void assertImagesEqual(BufferedImage expected, BufferedImage actual) {
+        Assert.assertEquals(expected.getWidth(), actual.getWidth());
+        Assert.assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                Assert.assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+}
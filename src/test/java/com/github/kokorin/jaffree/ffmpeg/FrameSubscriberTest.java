@@ -0,0 +1,124 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.ffmpeg.ParallelNutReaderTest.CollectingConsumer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.List;
+
+public class FrameSubscriberTest {
+    private static final List<Stream> STREAMS = Collections.singletonList(
+            new Stream().setId(0).setType(Stream.Type.AUDIO).setTimebase(8000L)
+                    .setSampleRate(8000).setChannels(1));
+
+    @Test
+    public void writeFramesFromPublisher() {
+        AudioPublisher publisher = new AudioPublisher(100, -1, false);
+        FrameSubscriber subscriber = new FrameSubscriber(STREAMS, 4);
+        publisher.subscribe(subscriber);
+
+        ByteArrayOutputStream nut = new ByteArrayOutputStream();
+        subscriber.getInput().supplier().supplyAndClose(nut);
+
+        Assert.assertTrue(publisher.maxOutstanding <= 4);
+        Assert.assertFalse(publisher.cancelled);
+
+        CollectingConsumer consumer = new CollectingConsumer();
+        new NutFrameConsumer(consumer, false)
+                .consumeAndClose(new ByteArrayInputStream(nut.toByteArray()));
+        Assert.assertEquals(100, consumer.frames.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i * 10L, consumer.frames.get(i).getPts());
+        }
+    }
+
+    @Test
+    public void publisherFailureFailsInput() {
+        AudioPublisher publisher = new AudioPublisher(100, 5, false);
+        FrameSubscriber subscriber = new FrameSubscriber(STREAMS, 4);
+        publisher.subscribe(subscriber);
+
+        try {
+            subscriber.getInput().supplier().supplyAndClose(new ByteArrayOutputStream());
+            Assert.fail("Publisher failure must fail input");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(publisher.cancelled);
+        }
+    }
+
+    @Test
+    public void tooManyFramesCancelSubscription() {
+        AudioPublisher publisher = new AudioPublisher(100, -1, true);
+        FrameSubscriber subscriber = new FrameSubscriber(STREAMS, 4);
+        publisher.subscribe(subscriber);
+
+        Assert.assertTrue(publisher.cancelled);
+        try {
+            subscriber.produce();
+            Assert.fail("Protocol violation must be reported");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertNull(subscriber.produce());
+    }
+
+    /**
+     * Synchronous publisher of audio frames, which emits frames from request() call.
+     */
+    private static class AudioPublisher implements Publisher<Frame> {
+        private final int frameCount;
+        private final int failAt;
+        private final boolean ignoreDemand;
+        private long demand = 0;
+        private int emitted = 0;
+        private boolean emitting = false;
+        long maxOutstanding = 0;
+        boolean cancelled = false;
+
+        AudioPublisher(int frameCount, int failAt, boolean ignoreDemand) {
+            this.frameCount = frameCount;
+            this.failAt = failAt;
+            this.ignoreDemand = ignoreDemand;
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super Frame> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    demand += n;
+                    maxOutstanding = Math.max(maxOutstanding, demand);
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    while (!cancelled && emitted < frameCount
+                            && (demand > 0 || ignoreDemand)) {
+                        if (emitted == failAt) {
+                            subscriber.onError(new RuntimeException("test"));
+                            return;
+                        }
+                        demand--;
+                        subscriber.onNext(new Frame(0, emitted * 10L, new int[10]));
+                        emitted++;
+                    }
+                    if (emitted == frameCount && !cancelled) {
+                        subscriber.onComplete();
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+}
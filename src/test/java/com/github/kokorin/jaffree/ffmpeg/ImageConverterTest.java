@@ -0,0 +1,166 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.ffmpeg.ParallelNutReaderTest.CollectingConsumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class ImageConverterTest {
+    private static final int[] TYPES = {
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_INT_BGR,
+            BufferedImage.TYPE_INT_ARGB_PRE,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_USHORT_565_RGB
+    };
+
+    @Test
+    public void convertImageTypes() {
+        ImageConverter converter = new ImageConverter(new ForkJoinPool(4));
+        for (int type : TYPES) {
+            // small images are converted in the calling thread, big ones in parallel
+            for (int[] size : new int[][]{{7, 5}, {640, 360}}) {
+                BufferedImage source = createImage(type, size[0], size[1]);
+                assertConverted(source, converter.toBgr(source), false);
+                assertConverted(source, converter.toAbgr(source), true);
+            }
+        }
+    }
+
+    @Test
+    public void convertByteRgbaAndSubimage() {
+        ImageConverter converter = new ImageConverter();
+
+        ComponentColorModel colorModel = new ComponentColorModel(
+                ColorSpace.getInstance(ColorSpace.CS_sRGB), true, false,
+                Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE,
+                300, 300, 300 * 4, 4, new int[]{0, 1, 2, 3}, null);
+        BufferedImage rgba = new BufferedImage(colorModel, raster, false, null);
+        fill(rgba, new Random(1));
+        assertConverted(rgba, converter.toBgr(rgba), false);
+        assertConverted(rgba, converter.toAbgr(rgba), true);
+
+        BufferedImage intRgb = createImage(BufferedImage.TYPE_INT_RGB, 400, 300);
+        BufferedImage subimage = intRgb.getSubimage(13, 17, 301, 203);
+        assertConverted(subimage, converter.toBgr(subimage), false);
+
+        BufferedImage abgr = createImage(BufferedImage.TYPE_4BYTE_ABGR, 30, 20);
+        BufferedImage abgrSubimage = abgr.getSubimage(3, 2, 20, 10);
+        assertConverted(abgrSubimage, converter.toBgr(abgrSubimage), false);
+    }
+
+    @Test
+    public void keepImageOfRequiredType() {
+        ImageConverter converter = new ImageConverter();
+        BufferedImage bgr = createImage(BufferedImage.TYPE_3BYTE_BGR, 10, 10);
+        BufferedImage abgr = createImage(BufferedImage.TYPE_4BYTE_ABGR, 10, 10);
+        Assert.assertSame(bgr, converter.toBgr(bgr));
+        Assert.assertSame(abgr, converter.toAbgr(abgr));
+    }
+
+    @Test
+    public void copySubimageOfRequiredType() {
+        ImageConverter converter = new ImageConverter();
+        BufferedImage bgr = createImage(BufferedImage.TYPE_3BYTE_BGR, 100, 100);
+        BufferedImage abgr = createImage(BufferedImage.TYPE_4BYTE_ABGR, 100, 100);
+
+        // sub-images share data array with parent image
+        BufferedImage bgrSubimage = bgr.getSubimage(20, 30, 50, 50);
+        BufferedImage converted = converter.toBgr(bgrSubimage);
+        Assert.assertNotSame(bgrSubimage, converted);
+        Assert.assertEquals(50 * 50 * 3,
+                ((DataBufferByte) converted.getRaster().getDataBuffer()).getData().length);
+        assertConverted(bgrSubimage, converted, false);
+
+        BufferedImage abgrSubimage = abgr.getSubimage(0, 0, 50, 100);
+        converted = converter.toAbgr(abgrSubimage);
+        Assert.assertNotSame(abgrSubimage, converted);
+        Assert.assertEquals(50 * 100 * 4,
+                ((DataBufferByte) converted.getRaster().getDataBuffer()).getData().length);
+        assertConverted(abgrSubimage, converted, true);
+    }
+
+    @Test
+    public void writeIntRgbFrames() {
+        final BufferedImage image = createImage(BufferedImage.TYPE_INT_RGB, 32, 24);
+        FrameProducer producer = new FrameProducer() {
+            private int count = 0;
+
+            @Override
+            public List<Stream> produceStreams() {
+                return Collections.singletonList(new Stream().setId(0)
+                        .setType(Stream.Type.VIDEO).setTimebase(25L)
+                        .setWidth(32).setHeight(24));
+            }
+
+            @Override
+            public Frame produce() {
+                if (count == 3) {
+                    return null;
+                }
+                return new Frame(0, count++, image);
+            }
+        };
+
+        ByteArrayOutputStream nut = new ByteArrayOutputStream();
+        new NutFrameSupplier(producer, false).supplyAndClose(nut);
+
+        CollectingConsumer consumer = new CollectingConsumer();
+        new NutFrameConsumer(consumer, false)
+                .consumeAndClose(new ByteArrayInputStream(nut.toByteArray()));
+        Assert.assertEquals(3, consumer.frames.size());
+        assertConverted(image, consumer.frames.get(2).getImage(), false);
+    }
+
+    private static BufferedImage createImage(int type, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, type);
+        fill(result, new Random(type));
+        return result;
+    }
+
+    private static void fill(BufferedImage image, Random random) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+    }
+
+    private static void assertConverted(BufferedImage source, BufferedImage converted,
+                                        boolean alpha) {
+        Assert.assertEquals(alpha ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR,
+                converted.getType());
+        Assert.assertEquals(source.getWidth(), converted.getWidth());
+        Assert.assertEquals(source.getHeight(), converted.getHeight());
+
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                int expected = source.getRGB(x, y);
+                int actual = converted.getRGB(x, y);
+                if (!alpha) {
+                    expected |= 0xFF000000;
+                }
+                Assert.assertEquals("Pixel " + x + "x" + y + " of image type " + source.getType(),
+                        expected, actual);
+            }
+        }
+    }
+}
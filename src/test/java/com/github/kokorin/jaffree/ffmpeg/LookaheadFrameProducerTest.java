@@ -0,0 +1,119 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LookaheadFrameProducerTest {
+
+    @Test
+    public void produceRenderedFramesInOrder() throws Exception {
+        final AtomicLong maxRendered = new AtomicLong(-1);
+        TestRenderer renderer = new TestRenderer(200) {
+            private final Random random = new Random(42);
+
+            @Override
+            public Frame render(long frameNumber) {
+                updateMax(maxRendered, frameNumber);
+                sleep(random.nextInt(3));
+                return super.render(frameNumber);
+            }
+        };
+        LookaheadFrameProducer producer = new LookaheadFrameProducer(renderer)
+                .setLookahead(8)
+                .setRenderThreads(4);
+
+        Assert.assertEquals(1, producer.produceStreams().size());
+        for (int i = 0; i < 200; i++) {
+            Frame frame = producer.produce();
+            Assert.assertEquals(i * 10L, frame.getPts());
+            // window bounds frames rendered ahead
+            Assert.assertTrue(maxRendered.get() < i + 8);
+        }
+        Assert.assertNull(producer.produce());
+        Assert.assertNull(producer.produce());
+
+        Assert.assertEquals(200, producer.getFrameCount());
+        Assert.assertTrue(producer.getRenderNanos() > 0);
+        Assert.assertTrue(producer.getRenderStalls() > 0);
+    }
+
+    @Test
+    public void countWriterStalls() {
+        LookaheadFrameProducer producer = new LookaheadFrameProducer(new TestRenderer(20))
+                .setLookahead(4)
+                .setRenderThreads(2);
+
+        while (producer.produce() != null) {
+            // slow writer
+            sleep(10);
+        }
+        Assert.assertEquals(20, producer.getFrameCount());
+        Assert.assertTrue(producer.getWriterStalls() > 0);
+    }
+
+    @Test
+    public void renderFailureFailsProducer() {
+        LookaheadFrameProducer producer = new LookaheadFrameProducer(new TestRenderer(20) {
+            @Override
+            public Frame render(long frameNumber) {
+                if (frameNumber == 5) {
+                    throw new IllegalStateException("test");
+                }
+                return super.render(frameNumber);
+            }
+        });
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNotNull(producer.produce());
+        }
+        try {
+            producer.produce();
+            Assert.fail("Render failure must be reported");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertNull(producer.produce());
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        do {
+            current = max.get();
+        } while (current < value && !max.compareAndSet(current, value));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class TestRenderer implements FrameRenderer {
+        private final int frameCount;
+
+        TestRenderer(int frameCount) {
+            this.frameCount = frameCount;
+        }
+
+        @Override
+        public List<Stream> produceStreams() {
+            return Collections.singletonList(new Stream().setId(0).setType(Stream.Type.AUDIO)
+                    .setTimebase(1000L).setSampleRate(1000).setChannels(1));
+        }
+
+        @Override
+        public Frame render(long frameNumber) {
+            if (frameNumber >= frameCount) {
+                return null;
+            }
+            return new Frame(0, frameNumber * 10, new int[10]);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.Rational;
+import com.github.kokorin.jaffree.nut.DataItem;
+import com.github.kokorin.jaffree.nut.FrameCode;
+import com.github.kokorin.jaffree.nut.MainHeader;
+import com.github.kokorin.jaffree.nut.NutFrame;
+import com.github.kokorin.jaffree.nut.StreamHeader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.List;
+
+public class NutFrameConverterTest {
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 2;
+
+    @Test
+    public void convertArrayBackedFrame() {
+        NutFrameConverter converter = createConverter(false);
+        byte[] data = createPixels(3);
+
+        Frame frame = converter.convert(new NutFrame(0, 7, data, new DataItem[0],
+                new DataItem[0], true, false));
+
+        Assert.assertEquals(7, frame.getPts());
+        assertPixels(frame.getImage(), data, 3);
+    }
+
+    @Test
+    public void convertMemoryMappedLikeFrame() {
+        NutFrameConverter converter = createConverter(true);
+        byte[] data = createPixels(4);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 10);
+        direct.position(10);
+        direct.put(data);
+        direct.position(10);
+
+        Frame frame = converter.convert(new NutFrame(0, 1, direct.asReadOnlyBuffer(),
+                new DataItem[0], new DataItem[0], true, false, null));
+
+        assertPixels(frame.getImage(), data, 4);
+    }
+
+    @Test
+    public void convertAudioAndSkipWrongFrames() {
+        NutFrameConverter converter = createConverter(false);
+        ByteBuffer samples = ByteBuffer.allocate(8).putInt(1).putInt(-2);
+        samples.flip();
+
+        Frame frame = converter.convert(new NutFrame(1, 5, samples.asReadOnlyBuffer(),
+                new DataItem[0], new DataItem[0], true, false, null));
+        Assert.assertArrayEquals(new int[]{1, -2}, frame.getSamples());
+
+        // insufficient video data and EOR
+        Assert.assertNull(converter.convert(new NutFrame(0, 1, new byte[5], new DataItem[0],
+                new DataItem[0], true, false)));
+        Assert.assertNull(converter.convert(new NutFrame(1, 1, new byte[0], new DataItem[0],
+                new DataItem[0], false, true)));
+
+        List<Stream> streams = converter.getStreams();
+        Assert.assertEquals(2, streams.size());
+        Assert.assertEquals(Stream.Type.VIDEO, streams.get(0).getType());
+        Assert.assertEquals(Long.valueOf(25), streams.get(0).getTimebase());
+        Assert.assertEquals(Stream.Type.AUDIO, streams.get(1).getType());
+    }
+
+    @Test
+    public void recycleReleasedFrames() {
+        FramePool pool = new FramePool(2);
+        NutFrameConverter converter = createConverter(false).setFramePool(pool);
+        byte[] data = createPixels(3);
+
+        Frame first = converter.convert(new NutFrame(0, 1, data, new DataItem[0],
+                new DataItem[0], true, false));
+        // data is copied into pooled image
+        Assert.assertNotSame(data, ((DataBufferByte) first.getImage().getRaster()
+                .getDataBuffer()).getData());
+        assertPixels(first.getImage(), data, 3);
+        BufferedImage image = first.getImage();
+        first.release();
+        first.release();
+
+        byte[] otherData = createPixels(3);
+        otherData[0] = 42;
+        Frame second = converter.convert(new NutFrame(0, 2, otherData, new DataItem[0],
+                new DataItem[0], true, false));
+        Assert.assertSame(image, second.getImage());
+        assertPixels(second.getImage(), otherData, 3);
+
+        // not released frame forces allocation
+        Frame third = converter.convert(new NutFrame(0, 3, data, new DataItem[0],
+                new DataItem[0], true, false));
+        Assert.assertNotSame(image, third.getImage());
+        Assert.assertEquals(2, pool.getAllocationCount());
+
+        ByteBuffer samples = ByteBuffer.allocate(8).putInt(1).putInt(-2);
+        samples.flip();
+        Frame audio = converter.convert(new NutFrame(1, 5, samples.duplicate(),
+                new DataItem[0], new DataItem[0], true, false, null));
+        int[] sampleArray = audio.getSamples();
+        audio.release();
+        Frame nextAudio = converter.convert(new NutFrame(1, 6, samples.duplicate(),
+                new DataItem[0], new DataItem[0], true, false, null));
+        Assert.assertSame(sampleArray, nextAudio.getSamples());
+        Assert.assertArrayEquals(new int[]{1, -2}, nextAudio.getSamples());
+        Assert.assertEquals(3, pool.getAllocationCount());
+    }
+
+    @Test
+    public void convertRawImageFrame() {
+        NutFrameConverter converter = createConverter(PixelFormat.YUV420P.getFourcc(), false);
+        // white and black rows, neutral chroma
+        ByteBuffer data = ByteBuffer.allocate(WIDTH * HEIGHT * 3 / 2);
+        for (int i = 0; i < WIDTH; i++) {
+            data.put((byte) 235);
+        }
+        for (int i = 0; i < WIDTH; i++) {
+            data.put((byte) 16);
+        }
+        while (data.hasRemaining()) {
+            data.put((byte) 128);
+        }
+        data.flip();
+
+        Frame frame = converter.convert(new NutFrame(0, 3, data.asReadOnlyBuffer(),
+                new DataItem[0], new DataItem[0], true, false, null));
+
+        RawImage rawImage = frame.getRawImage();
+        Assert.assertEquals(PixelFormat.YUV420P, rawImage.getPixelFormat());
+        Assert.assertEquals(WIDTH / 2, rawImage.getPlaneStride(1));
+        Assert.assertEquals(WIDTH / 2, rawImage.getPlane(2).remaining());
+
+        BufferedImage image = frame.getImage();
+        Assert.assertSame(image, frame.getImage());
+        Assert.assertEquals(0xFFFFFFFF, image.getRGB(1, 0));
+        Assert.assertEquals(0xFF000000, image.getRGB(1, 1));
+
+        Assert.assertEquals(PixelFormat.YUV420P, converter.getStreams().get(0).getPixelFormat());
+        // insufficient data
+        Assert.assertNull(converter.convert(new NutFrame(0, 4, new byte[WIDTH * HEIGHT],
+                new DataItem[0], new DataItem[0], true, false)));
+    }
+
+    @Test
+    public void unknownFourccFallsBackToAlphaChannel() {
+        NutFrameConverter converter = createConverter(new byte[]{'X', 'X', 'X', 'X'}, true);
+        byte[] data = createPixels(4);
+
+        Frame frame = converter.convert(new NutFrame(0, 1, data, new DataItem[0],
+                new DataItem[0], true, false));
+
+        Assert.assertNull(frame.getRawImage());
+        assertPixels(frame.getImage(), data, 4);
+    }
+
+    private static NutFrameConverter createConverter(boolean alpha) {
+        PixelFormat pixelFormat = alpha ? PixelFormat.ABGR : PixelFormat.BGR24;
+        return createConverter(pixelFormat.getFourcc(), alpha);
+    }
+
+    private static NutFrameConverter createConverter(byte[] videoFourcc, boolean alpha) {
+        FrameCode[] frameCodes = new FrameCode[256];
+        for (int i = 0; i < frameCodes.length; i++) {
+            frameCodes[i] = FrameCode.INVALID;
+        }
+        MainHeader mainHeader = new MainHeader(3, 0, 2, 1024,
+                new Rational[]{new Rational(1, 25), new Rational(1, 44100)},
+                frameCodes, new long[]{0}, EnumSet.noneOf(MainHeader.Flag.class));
+
+        StreamHeader[] streamHeaders = new StreamHeader[]{
+                new StreamHeader(0, StreamHeader.Type.VIDEO, videoFourcc,
+                        0, 0, 60_000, 0, EnumSet.noneOf(StreamHeader.Flag.class), new byte[0],
+                        new StreamHeader.Video(WIDTH, HEIGHT, 1, 1,
+                                StreamHeader.ColourspaceType.UNKNOWN), null),
+                new StreamHeader(1, StreamHeader.Type.AUDIO, new byte[]{32, 'D', 'S', 'P'},
+                        1, 0, 60_000, 0, EnumSet.noneOf(StreamHeader.Flag.class), new byte[0],
+                        null, new StreamHeader.Audio(new Rational(44100, 1), 1))
+        };
+
+        return new NutFrameConverter(mainHeader, streamHeaders, alpha);
+    }
+
+    private static byte[] createPixels(int bytesPerPixel) {
+        byte[] result = new byte[WIDTH * HEIGHT * bytesPerPixel];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) (i * 7);
+        }
+        return result;
+    }
+
+    private static void assertPixels(BufferedImage image, byte[] data, int bytesPerPixel) {
+        Assert.assertEquals(WIDTH, image.getWidth());
+        Assert.assertEquals(HEIGHT, image.getHeight());
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int offset = (y * WIDTH + x) * bytesPerPixel;
+                // bgr24 or abgr
+                int alpha = bytesPerPixel == 4 ? data[offset++] & 0xFF : 0xFF;
+                int expected = alpha << 24
+                        | (data[offset + 2] & 0xFF) << 16
+                        | (data[offset + 1] & 0xFF) << 8
+                        | (data[offset] & 0xFF);
+                Assert.assertEquals(expected, image.getRGB(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class PacedFrameProducerTest {
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void passFramesOnTime() {
+        FakeClock clock = new FakeClock();
+        PacedFrameProducer producer = new PacedFrameProducer(new VideoProducer(clock, 10, -1),
+                clock);
+        producer.produceStreams();
+
+        long start = clock.now;
+        for (int i = 0; i < 10; i++) {
+            Frame frame = producer.produce();
+            Assert.assertEquals(i * 40L, frame.getPts());
+            Assert.assertEquals(start + i * 40 * MILLIS, clock.now);
+        }
+        Assert.assertNull(producer.produce());
+
+        Assert.assertEquals(10, producer.getFrameCount());
+        Assert.assertEquals(9 * 40 * MILLIS, producer.getWaitNanos());
+        Assert.assertEquals(0, producer.getMaxLatenessNanos());
+        Assert.assertEquals(0, producer.getTimelineShiftNanos());
+    }
+
+    @Test
+    public void delayLateFrames() {
+        // frame 3 is late by 60 ms, the rest of timeline is shifted
+        produceAll(PacedFrameProducer.LatePolicy.DELAY, 0, 40, 80, 180, 220);
+    }
+
+    @Test
+    public void dropLateFrames() {
+        FakeClock clock = new FakeClock();
+        PacedFrameProducer producer = new PacedFrameProducer(new VideoProducer(clock, 5, 3),
+                clock).setLatePolicy(PacedFrameProducer.LatePolicy.DROP);
+        producer.produceStreams();
+
+        Assert.assertEquals(0, producer.produce().getPts());
+        Assert.assertEquals(40, producer.produce().getPts());
+        Assert.assertEquals(80, producer.produce().getPts());
+        // frame 3 is late by 60 ms, frame 4 is late by 20 ms which is below threshold
+        Assert.assertEquals(160, producer.produce().getPts());
+        Assert.assertNull(producer.produce());
+
+        Assert.assertEquals(1, producer.getDroppedFrames());
+        Assert.assertEquals(60 * MILLIS, producer.getMaxLatenessNanos());
+        Assert.assertEquals(0, producer.getTimelineShiftNanos());
+    }
+
+    @Test
+    public void duplicateFramesToFillGap() {
+        // frame 2 is repeated for 2 slots
+        produceAll(PacedFrameProducer.LatePolicy.DUPLICATE, 0, 40, 80, 120, 160, 200, 240);
+    }
+
+    @Test
+    public void latenessBelowThresholdIsIgnored() {
+        FakeClock clock = new FakeClock();
+        PacedFrameProducer producer = new PacedFrameProducer(new VideoProducer(clock, 5, 3),
+                clock).setLatenessThreshold(100, TimeUnit.MILLISECONDS);
+        producer.produceStreams();
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(i * 40L, producer.produce().getPts());
+        }
+        Assert.assertEquals(0, producer.getTimelineShiftNanos());
+    }
+
+    private static void produceAll(PacedFrameProducer.LatePolicy policy, long... expected) {
+        FakeClock clock = new FakeClock();
+        PacedFrameProducer producer = new PacedFrameProducer(new VideoProducer(clock, 5, 3),
+                clock).setLatePolicy(policy);
+        producer.produceStreams();
+
+        List<Long> result = new ArrayList<>();
+        Frame frame;
+        while ((frame = producer.produce()) != null) {
+            result.add(frame.getPts());
+        }
+
+        long[] actual = new long[result.size()];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = result.get(i);
+        }
+        Assert.assertArrayEquals(expected, actual);
+        Assert.assertEquals(expected.length, producer.getFrameCount());
+    }
+
+    private static class FakeClock implements PacedFrameProducer.Clock {
+        long now = 1_000 * MILLIS;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void sleep(long nanos) {
+            now += nanos;
+        }
+    }
+
+    /**
+     * Produces 25 fps video with millisecond timebase, one of frames takes 100 ms to render.
+     */
+    private static class VideoProducer implements FrameProducer {
+        private final FakeClock clock;
+        private final int frameCount;
+        private final int slowFrame;
+        private final BufferedImage image = new BufferedImage(2, 2, BufferedImage.TYPE_3BYTE_BGR);
+        private int frameNumber = 0;
+
+        VideoProducer(FakeClock clock, int frameCount, int slowFrame) {
+            this.clock = clock;
+            this.frameCount = frameCount;
+            this.slowFrame = slowFrame;
+        }
+
+        @Override
+        public List<Stream> produceStreams() {
+            return Collections.singletonList(new Stream().setId(0).setType(Stream.Type.VIDEO)
+                    .setTimebase(1000L).setWidth(2).setHeight(2));
+        }
+
+        @Override
+        public Frame produce() {
+            if (frameNumber == frameCount) {
+                return null;
+            }
+            if (frameNumber == slowFrame) {
+                clock.now += 100 * MILLIS;
+            }
+            return new Frame(0, frameNumber++ * 40L, image);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.Rational;
+import com.github.kokorin.jaffree.nut.DataItem;
+import com.github.kokorin.jaffree.nut.FrameCode;
+import com.github.kokorin.jaffree.nut.Info;
+import com.github.kokorin.jaffree.nut.NutFrame;
+import com.github.kokorin.jaffree.nut.NutOutputStream;
+import com.github.kokorin.jaffree.nut.NutWriter;
+import com.github.kokorin.jaffree.nut.StreamHeader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelNutReaderTest {
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 24;
+    private static final int FRAME_COUNT = 200;
+    private static final int SAMPLES_PER_FRAME = 1764;
+
+    @Test
+    public void readInPtsOrderWithIndex() throws Exception {
+        testRead(true);
+    }
+
+    @Test
+    public void readInPtsOrderWithoutIndex() throws Exception {
+        testRead(false);
+    }
+
+    private void testRead(boolean writeIndex) throws Exception {
+        byte[] nut = writeNut(writeIndex);
+
+        CollectingConsumer expected = new CollectingConsumer();
+        new NutFrameConsumer(expected, false).consumeAndClose(new ByteArrayInputStream(nut));
+
+        Path path = Files.createTempFile("parallel", ".nut");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Files.write(path, nut);
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                CollectingConsumer actual = new CollectingConsumer();
+                new ParallelNutReader(channel)
+                        .setPool(pool)
+                        .setRangeSize(16 * 1024)
+                        .setMaxPendingRanges(3)
+                        .read(actual);
+
+                Assert.assertEquals(2, actual.streams.size());
+                Assert.assertTrue(actual.completed);
+                Assert.assertEquals(2 * FRAME_COUNT, actual.frames.size());
+                Assert.assertEquals(expected.frames.size(), actual.frames.size());
+
+                double previousTime = -1;
+                for (int i = 0; i < actual.frames.size(); i++) {
+                    Frame frame = actual.frames.get(i);
+                    double time = frame.getStreamId() == 0
+                            ? frame.getPts() / 25.
+                            : frame.getPts() / 44100.;
+                    Assert.assertTrue(time >= previousTime);
+                    previousTime = time;
+
+                    // the same frames as produced by sequential reading
+                    Frame reference = expected.frames.get(i);
+                    Assert.assertEquals(reference.getStreamId(), frame.getStreamId());
+                    Assert.assertEquals(reference.getPts(), frame.getPts());
+                    if (frame.getImage() != null) {
+                        Assert.assertEquals(reference.getImage().getRGB(3, 5),
+                                frame.getImage().getRGB(3, 5));
+                    } else {
+                        Assert.assertArrayEquals(reference.getSamples(), frame.getSamples());
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+            Files.delete(path);
+        }
+    }
+
+    static byte[] writeNut(boolean writeIndex) throws Exception {
+        FrameCode[] frameCodes = new FrameCode[256];
+        for (int i = 0; i < frameCodes.length; i++) {
+            frameCodes[i] = FrameCode.INVALID;
+        }
+        frameCodes[1] = new FrameCode(EnumSet.of(FrameCode.Flag.CODED_FLAGS),
+                0, 1, 0, 0, 0, 0, 0);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        NutWriter writer = new NutWriter(new NutOutputStream(output));
+        writer.setWriteIndex(writeIndex);
+        writer.setMainHeader(2, 1024,
+                new Rational[]{new Rational(1, 25), new Rational(1, 44100)}, frameCodes);
+        writer.setStreamHeaders(new StreamHeader[]{
+                new StreamHeader(0, StreamHeader.Type.VIDEO, new byte[]{'B', 'G', 'R', 24},
+                        0, 0, 60_000, 0, EnumSet.noneOf(StreamHeader.Flag.class), new byte[0],
+                        new StreamHeader.Video(WIDTH, HEIGHT, 1, 1,
+                                StreamHeader.ColourspaceType.UNKNOWN), null),
+                new StreamHeader(1, StreamHeader.Type.AUDIO, new byte[]{32, 'D', 'S', 'P'},
+                        1, 0, 60_000, 0, EnumSet.noneOf(StreamHeader.Flag.class), new byte[0],
+                        null, new StreamHeader.Audio(new Rational(44100, 1), 1))
+        });
+        writer.setInfos(new Info[0]);
+
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            writer.writeFrame(createFrame(0, i, WIDTH * HEIGHT * 3));
+            writer.writeFrame(createFrame(1, (long) i * SAMPLES_PER_FRAME, 4 * 100));
+        }
+        writer.writeFooter();
+
+        return output.toByteArray();
+    }
+
+    private static NutFrame createFrame(int streamId, long pts, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (streamId + pts + i);
+        }
+        return new NutFrame(streamId, pts, data, new DataItem[0], new DataItem[0], true, false);
+    }
+
+    static class CollectingConsumer implements FrameConsumer {
+        final List<Frame> frames = new ArrayList<>();
+        List<Stream> streams;
+        boolean completed = false;
+
+        @Override
+        public void consumeStreams(List<Stream> streams) {
+            this.streams = streams;
+        }
+
+        @Override
+        public void consume(Frame frame) {
+            if (frame == null) {
+                completed = true;
+            } else {
+                Assert.assertFalse(completed);
+                frames.add(frame);
+            }
+        }
+    }
+}
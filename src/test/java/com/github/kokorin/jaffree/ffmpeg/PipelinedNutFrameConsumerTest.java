@@ -0,0 +1,185 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.ffmpeg.ParallelNutReaderTest.CollectingConsumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+public class PipelinedNutFrameConsumerTest {
+
+    @Test
+    public void deliverFramesInOrder() throws Exception {
+        byte[] nut = ParallelNutReaderTest.writeNut(true);
+
+        CollectingConsumer expected = new CollectingConsumer();
+        new NutFrameConsumer(expected, false).consumeAndClose(new ByteArrayInputStream(nut));
+
+        CollectingConsumer actual = new CollectingConsumer() {
+            @Override
+            public void consume(Frame frame) {
+                super.consume(frame);
+                // slow consumer
+                if (frames.size() % 50 == 0) {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        };
+        PipelinedNutFrameConsumer consumer = new PipelinedNutFrameConsumer(actual, false)
+                .setQueueDepth(4)
+                .setConversionThreads(3);
+        consumer.consumeAndClose(new ByteArrayInputStream(nut));
+
+        Assert.assertTrue(actual.completed);
+        Assert.assertEquals(2, actual.streams.size());
+        Assert.assertEquals(expected.frames.size(), actual.frames.size());
+        for (int i = 0; i < expected.frames.size(); i++) {
+            Assert.assertEquals(expected.frames.get(i).getStreamId(),
+                    actual.frames.get(i).getStreamId());
+            Assert.assertEquals(expected.frames.get(i).getPts(), actual.frames.get(i).getPts());
+        }
+
+        Assert.assertEquals(expected.frames.size(), consumer.getFrameCount());
+        Assert.assertTrue(consumer.getReadNanos() > 0);
+        Assert.assertTrue(consumer.getConversionNanos() > 0);
+        Assert.assertTrue(consumer.getDeliveryNanos() > 0);
+    }
+
+    @Test
+    public void skipFramesOfFilteredStreams() throws Exception {
+        byte[] nut = ParallelNutReaderTest.writeNut(true);
+
+        CollectingConsumer sequential = new CollectingConsumer();
+        new NutFrameConsumer(sequential, false)
+                .setStreamFilter(Collections.singleton(1))
+                .consumeAndClose(new ByteArrayInputStream(nut));
+
+        CollectingConsumer pipelined = new CollectingConsumer();
+        new PipelinedNutFrameConsumer(pipelined, false)
+                .setStreamFilter(Collections.singleton(0))
+                .consumeAndClose(new ByteArrayInputStream(nut));
+
+        // all streams are reported
+        Assert.assertEquals(2, sequential.streams.size());
+        Assert.assertEquals(2, pipelined.streams.size());
+
+        Assert.assertFalse(sequential.frames.isEmpty());
+        for (Frame frame : sequential.frames) {
+            Assert.assertEquals(1, frame.getStreamId());
+        }
+        Assert.assertEquals(sequential.frames.size(), pipelined.frames.size());
+        for (Frame frame : pipelined.frames) {
+            Assert.assertEquals(0, frame.getStreamId());
+        }
+    }
+
+    @Test
+    public void recycleReleasedFrames() throws Exception {
+        byte[] nut = ParallelNutReaderTest.writeNut(true);
+
+        ReleasingConsumer expected = new ReleasingConsumer(false);
+        new NutFrameConsumer(expected, false).consumeAndClose(new ByteArrayInputStream(nut));
+
+        ReleasingConsumer sequential = new ReleasingConsumer(true);
+        new NutFrameConsumer(sequential, false)
+                .setFrameRecycling(true)
+                .setBatchSize(1)
+                .consumeAndClose(new ByteArrayInputStream(nut));
+
+        ReleasingConsumer pipelined = new ReleasingConsumer(true);
+        new PipelinedNutFrameConsumer(pipelined, false)
+                .setQueueDepth(4)
+                .setConversionThreads(2)
+                .setFrameRecycling(true)
+                .consumeAndClose(new ByteArrayInputStream(nut));
+
+        Assert.assertFalse(expected.digests.isEmpty());
+        Assert.assertEquals(expected.digests, sequential.digests);
+        Assert.assertEquals(expected.digests, pipelined.digests);
+
+        Assert.assertTrue(expected.images.size() > 2);
+        Assert.assertTrue(sequential.images.size() <= 2);
+        Assert.assertTrue(pipelined.images.size() < expected.images.size());
+    }
+
+    @Test
+    public void consumerFailureStopsReading() throws Exception {
+        byte[] nut = ParallelNutReaderTest.writeNut(true);
+        final RuntimeException failure = new RuntimeException("Consumer failure");
+
+        CollectingConsumer failing = new CollectingConsumer() {
+            @Override
+            public void consume(Frame frame) {
+                super.consume(frame);
+                if (frames.size() == 10) {
+                    throw failure;
+                }
+            }
+        };
+
+        try {
+            new PipelinedNutFrameConsumer(failing, false)
+                    .setQueueDepth(2)
+                    .consumeAndClose(new ByteArrayInputStream(nut));
+            Assert.fail("Exception expected");
+        } catch (RuntimeException e) {
+            Assert.assertSame(failure, e.getCause());
+        }
+
+        Assert.assertEquals(10, failing.frames.size());
+        Assert.assertFalse(failing.completed);
+    }
+
+    /**
+     * Digests every frame before releasing it, so reused image or samples which are
+     * overwritten too early result in a wrong digest.
+     */
+    private static class ReleasingConsumer implements FrameConsumer {
+        final List<Long> digests = new ArrayList<>();
+        final Set<BufferedImage> images = Collections.newSetFromMap(
+                new IdentityHashMap<BufferedImage, Boolean>());
+        final boolean release;
+
+        ReleasingConsumer(boolean release) {
+            this.release = release;
+        }
+
+        @Override
+        public void consumeStreams(List<Stream> streams) {
+        }
+
+        @Override
+        public void consume(Frame frame) {
+            if (frame == null) {
+                return;
+            }
+
+            long digest = frame.getStreamId() * 31L + frame.getPts();
+            if (frame.getImage() != null) {
+                images.add(frame.getImage());
+                byte[] data = ((DataBufferByte) frame.getImage().getRaster().getDataBuffer())
+                        .getData();
+                digest = digest * 31 + Arrays.hashCode(data);
+            } else {
+                digest = digest * 31 + Arrays.hashCode(frame.getSamples());
+            }
+            digests.add(digest);
+
+            if (release) {
+                frame.release();
+            }
+        }
+    }
+}
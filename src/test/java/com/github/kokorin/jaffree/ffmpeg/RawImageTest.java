@@ -0,0 +1,140 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.ffmpeg.ParallelNutReaderTest.CollectingConsumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+public class RawImageTest {
+
+    @Test
+    public void planeLayout() {
+        // odd sizes round chroma planes up
+        Assert.assertEquals(5 * 3 + 3 * 2 * 2, PixelFormat.YUV420P.getFrameSize(5, 3));
+        Assert.assertEquals(15, PixelFormat.YUV420P.getPlaneOffset(1, 5, 3));
+        Assert.assertEquals(21, PixelFormat.YUV420P.getPlaneOffset(2, 5, 3));
+        Assert.assertEquals(6, PixelFormat.NV12.getPlaneStride(1, 5));
+        Assert.assertEquals(2, PixelFormat.NV12.getPlaneCount());
+        Assert.assertEquals(4 * 2 * 4, PixelFormat.RGBA.getFrameSize(4, 2));
+        Assert.assertEquals(4 * 2, PixelFormat.GRAY.getFrameSize(4, 2));
+
+        Assert.assertEquals(PixelFormat.GRAY,
+                PixelFormat.fromFourcc(new byte[]{'Y', '8', '0', '0'}));
+        Assert.assertEquals(PixelFormat.BGR24,
+                PixelFormat.fromFourcc(new byte[]{'B', 'G', 'R', 24}));
+        Assert.assertNull(PixelFormat.fromFourcc(new byte[]{'B', 'G', 'R', 32}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongDataSize() {
+        new RawImage(PixelFormat.NV12, 4, 2, ByteBuffer.allocate(8));
+    }
+
+    @Test
+    public void convertToBufferedImage() {
+        RawImage rgba = new RawImage(PixelFormat.RGBA, 1, 1,
+                ByteBuffer.wrap(new byte[]{10, 20, 30, 40}));
+        Assert.assertEquals(40 << 24 | 10 << 16 | 20 << 8 | 30,
+                rgba.toBufferedImage().getRGB(0, 0));
+
+        RawImage gray = new RawImage(PixelFormat.GRAY, 2, 1,
+                ByteBuffer.wrap(new byte[]{0, (byte) 255}));
+        Assert.assertEquals(BufferedImage.TYPE_BYTE_GRAY, gray.toBufferedImage().getType());
+        Assert.assertEquals(0xFF000000, gray.toBufferedImage().getRGB(0, 0));
+        Assert.assertEquals(0xFFFFFFFF, gray.toBufferedImage().getRGB(1, 0));
+
+        // pure red in BT.601 limited range: Y=81, U=90, V=240
+        RawImage nv12 = new RawImage(PixelFormat.NV12, 2, 2,
+                ByteBuffer.wrap(new byte[]{81, 81, 81, 81, 90, (byte) 240}));
+        int rgb = nv12.toBufferedImage().getRGB(1, 1);
+        Assert.assertTrue(((rgb >> 16) & 0xFF) > 250);
+        Assert.assertTrue(((rgb >> 8) & 0xFF) < 5);
+        Assert.assertTrue((rgb & 0xFF) < 5);
+    }
+
+    @Test
+    public void passRawFramesThroughNut() {
+        final int width = 6;
+        final int height = 4;
+        final List<Stream> streams = Arrays.asList(
+                new Stream().setId(0).setType(Stream.Type.VIDEO).setTimebase(25L)
+                        .setResolution(width, height).setPixelFormat(PixelFormat.YUV420P),
+                new Stream().setId(1).setType(Stream.Type.VIDEO).setTimebase(25L)
+                        .setResolution(width, height).setPixelFormat(PixelFormat.NV12)
+        );
+
+        FrameProducer producer = new FrameProducer() {
+            private int counter = 0;
+
+            @Override
+            public List<Stream> produceStreams() {
+                return streams;
+            }
+
+            @Override
+            public Frame produce() {
+                if (counter == 10) {
+                    return null;
+                }
+                int streamId = counter % 2;
+                PixelFormat pixelFormat = streams.get(streamId).getPixelFormat();
+                byte[] data = new byte[pixelFormat.getFrameSize(width, height)];
+                Arrays.fill(data, (byte) counter);
+                Frame result = new Frame(streamId, counter / 2,
+                        new RawImage(pixelFormat, width, height, ByteBuffer.wrap(data)));
+                counter++;
+                return result;
+            }
+        };
+
+        ByteArrayOutputStream nut = new ByteArrayOutputStream();
+        new NutFrameSupplier(producer, false).supplyAndClose(nut);
+
+        CollectingConsumer consumer = new CollectingConsumer();
+        new NutFrameConsumer(consumer, false)
+                .setFrameRecycling(true)
+                .consumeAndClose(new ByteArrayInputStream(nut.toByteArray()));
+
+        Assert.assertEquals(PixelFormat.YUV420P, consumer.streams.get(0).getPixelFormat());
+        Assert.assertEquals(PixelFormat.NV12, consumer.streams.get(1).getPixelFormat());
+        Assert.assertEquals(10, consumer.frames.size());
+        for (Frame frame : consumer.frames) {
+            RawImage rawImage = frame.getRawImage();
+            Assert.assertEquals(streams.get(frame.getStreamId()).getPixelFormat(),
+                    rawImage.getPixelFormat());
+            ByteBuffer data = rawImage.getData();
+            byte expected = (byte) (frame.getPts() * 2 + frame.getStreamId());
+            while (data.hasRemaining()) {
+                Assert.assertEquals(expected, data.get());
+            }
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void bufferedImageForRawStreamIsRejected() {
+        final List<Stream> streams = Arrays.asList(
+                new Stream().setId(0).setType(Stream.Type.VIDEO).setTimebase(25L)
+                        .setResolution(2, 2).setPixelFormat(PixelFormat.GRAY));
+
+        FrameProducer producer = new FrameProducer() {
+            @Override
+            public List<Stream> produceStreams() {
+                return streams;
+            }
+
+            @Override
+            public Frame produce() {
+                return new Frame(0, 0,
+                        new BufferedImage(2, 2, BufferedImage.TYPE_3BYTE_BGR));
+            }
+        };
+
+        new NutFrameSupplier(producer, false).supplyAndClose(new ByteArrayOutputStream());
+    }
+}
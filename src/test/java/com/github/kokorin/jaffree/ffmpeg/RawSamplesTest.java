@@ -0,0 +1,114 @@
+package com.github.kokorin.jaffree.ffmpeg;
+
+import com.github.kokorin.jaffree.ffmpeg.ParallelNutReaderTest.CollectingConsumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Collections;
+import java.util.List;
+
+public class RawSamplesTest {
+
+    @Test
+    public void viewsShareData() {
+        ByteBuffer data = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+        data.putShort((short) 1).putShort((short) -1).putShort(Short.MIN_VALUE);
+        data.flip();
+
+        RawSamples samples = new RawSamples(SampleFormat.S16LE, data.asReadOnlyBuffer());
+        Assert.assertEquals(3, samples.getSampleCount());
+        ShortBuffer shorts = samples.asShortBuffer();
+        Assert.assertEquals(1, shorts.get(0));
+        Assert.assertEquals(-1, shorts.get(1));
+        Assert.assertArrayEquals(new int[]{1 << 16, -1 << 16, Integer.MIN_VALUE},
+                samples.toIntArray());
+        Assert.assertSame(samples.toIntArray(), samples.toIntArray());
+
+        data.putShort(0, (short) 7);
+        Assert.assertEquals(7, samples.asShortBuffer().get(0));
+    }
+
+    @Test
+    public void floatSamplesSaturate() {
+        ByteBuffer data = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        data.putFloat(0.5f).putFloat(1.0f).putFloat(-2.0f);
+        data.flip();
+
+        RawSamples samples = new RawSamples(SampleFormat.F32LE, data);
+        FloatBuffer floats = samples.asFloatBuffer();
+        Assert.assertEquals(0.5f, floats.get(0), 0);
+        Assert.assertArrayEquals(new int[]{1 << 30, Integer.MAX_VALUE, Integer.MIN_VALUE},
+                samples.toIntArray());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void wrongView() {
+        new RawSamples(SampleFormat.F32LE, ByteBuffer.allocate(8)).asShortBuffer();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongDataSize() {
+        new RawSamples(SampleFormat.S16LE, ByteBuffer.allocate(3));
+    }
+
+    @Test
+    public void passSamplesThroughNut() {
+        for (SampleFormat sampleFormat : SampleFormat.values()) {
+            // int samples are converted, lower 16 bits are lost with s16le
+            int[] samples = {0, 1 << 16, -3 << 16, Integer.MIN_VALUE, 1 << 30};
+            CollectingConsumer fromInts = passThroughNut(sampleFormat, new Frame(0, 0, samples));
+            Assert.assertEquals(sampleFormat, fromInts.streams.get(0).getSampleFormat());
+            Assert.assertArrayEquals(samples, fromInts.frames.get(0).getSamples());
+            Assert.assertEquals(sampleFormat != SampleFormat.S32BE,
+                    fromInts.frames.get(0).getRawSamples() != null);
+
+            ByteBuffer data = ByteBuffer.allocate(8).order(sampleFormat.getByteOrder());
+            data.putInt(0, 42);
+            RawSamples rawSamples = new RawSamples(sampleFormat, data);
+            CollectingConsumer fromRaw = passThroughNut(sampleFormat,
+                    new Frame(0, 0, rawSamples));
+            Assert.assertArrayEquals(rawSamples.toIntArray(),
+                    fromRaw.frames.get(0).getSamples());
+        }
+    }
+
+    private static CollectingConsumer passThroughNut(SampleFormat sampleFormat,
+                                                     final Frame frame) {
+        final List<Stream> streams = Collections.singletonList(
+                new Stream().setId(0).setType(Stream.Type.AUDIO).setTimebase(8000L)
+                        .setSampleRate(8000).setChannels(1).setSampleFormat(sampleFormat));
+
+        FrameProducer producer = new FrameProducer() {
+            private boolean produced = false;
+
+            @Override
+            public List<Stream> produceStreams() {
+                return streams;
+            }
+
+            @Override
+            public Frame produce() {
+                if (produced) {
+                    return null;
+                }
+                produced = true;
+                return frame;
+            }
+        };
+
+        ByteArrayOutputStream nut = new ByteArrayOutputStream();
+        new NutFrameSupplier(producer, false).supplyAndClose(nut);
+
+        CollectingConsumer result = new CollectingConsumer();
+        new NutFrameConsumer(result, false)
+                .consumeAndClose(new ByteArrayInputStream(nut.toByteArray()));
+        Assert.assertEquals(1, result.frames.size());
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.kokorin.jaffree.nut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+public class CRC32Test {
+
+    @Test
+    public void checkValue() throws Exception {
+        CRC32 crc32 = new CRC32();
+        crc32.update("123456789".getBytes("ASCII"));
+
+        // CRC-32/POSIX check value without final XOR
+        Assert.assertEquals(0x765E7680L ^ 0xFFFFFFFFL, crc32.getValue());
+    }
+
+    @Test
+    public void bulkUpdateMatchesBytewise() throws Exception {
+        Random random = new Random(42);
+        byte[] data = new byte[1000];
+        random.nextBytes(data);
+
+        for (int offset = 0; offset < 9; offset++) {
+            for (int length = 0; length < data.length - offset; length += 7) {
+                long expected = bitwise(data, offset, length);
+
+                CRC32 crc32 = new CRC32();
+                crc32.update(data, offset, length);
+                Assert.assertEquals(expected, crc32.getValue());
+
+                crc32.reset();
+                for (int i = offset; i < offset + length; i++) {
+                    crc32.update(data[i]);
+                }
+                Assert.assertEquals(expected, crc32.getValue());
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(length);
+                direct.put(data, offset, length).flip();
+                crc32.reset();
+                crc32.update(direct);
+                Assert.assertEquals(expected, crc32.getValue());
+                Assert.assertFalse(direct.hasRemaining());
+
+                ByteBuffer littleEndian = ByteBuffer.wrap(data, offset, length).slice()
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                crc32.reset();
+                crc32.update(littleEndian);
+                Assert.assertEquals(expected, crc32.getValue());
+            }
+        }
+    }
+
+    private static long bitwise(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xFF) << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc << 1) ^ (crc < 0 ? 0x04C11DB7 : 0);
+            }
+        }
+        return crc & 0xFFFFFFFFL;
+    }
+}
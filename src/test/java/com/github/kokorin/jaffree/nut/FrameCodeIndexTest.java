@@ -0,0 +1,179 @@
+package com.github.kokorin.jaffree.nut;
+
+import com.github.kokorin.jaffree.nut.FrameCode.Flag;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+
+public class FrameCodeIndexTest {
+
+    @Test
+    public void findSameFrameCodeAsFullScan() {
+        Random random = new Random(42);
+        int streamCount = 3;
+        FrameCode[] frameCodes = createFrameCodes(random, streamCount);
+        FrameCodeIndex index = new FrameCodeIndex(frameCodes, streamCount);
+
+        for (int i = 0; i < 100_000; i++) {
+            int streamId = random.nextInt(streamCount);
+            boolean keyframe = random.nextBoolean();
+            boolean eor = random.nextInt(10) == 0;
+            long ptsDelta = random.nextInt(5) - 1;
+            long dataSize = random.nextInt(10) == 0 ? 0 : random.nextInt(64);
+            boolean checksum = random.nextInt(5) == 0;
+
+            int expected = fullScan(frameCodes, streamId, keyframe, eor, ptsDelta, dataSize, checksum);
+            int actual = index.find(streamId, keyframe, eor, ptsDelta, dataSize, checksum);
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void noMatchingFrameCode() {
+        FrameCode[] frameCodes = new FrameCode[256];
+        for (int i = 0; i < frameCodes.length; i++) {
+            frameCodes[i] = FrameCode.INVALID;
+        }
+        frameCodes[1] = new FrameCode(EnumSet.of(Flag.KEYFRAME), 0, 1, 10, 1, 0, 0, 0);
+
+        FrameCodeIndex index = new FrameCodeIndex(frameCodes, 2);
+        Assert.assertEquals(1, index.find(0, true, false, 1, 10, false));
+        Assert.assertEquals(1, index.getHeaderLength(1, 0, 1, 10, false));
+        Assert.assertEquals(-1, index.find(0, false, false, 1, 10, false));
+        Assert.assertEquals(-1, index.find(1, true, false, 1, 10, false));
+        Assert.assertEquals(-1, index.find(0, true, false, 2, 10, false));
+        Assert.assertEquals(-1, index.find(0, true, false, 1, 10, true));
+    }
+
+    @Test
+    public void flagMaskMatchesFlags() {
+        FrameCode frameCode = new FrameCode(EnumSet.of(Flag.KEYFRAME, Flag.CODED_FLAGS),
+                0, 1, 0, 0, 0, 0, 0);
+
+        Assert.assertEquals(FrameCode.FLAG_KEYFRAME | FrameCode.FLAG_CODED_FLAGS, frameCode.flagMask);
+        Assert.assertEquals(frameCode.flags, Flag.fromBitCode(frameCode.flagMask));
+        Assert.assertEquals(FrameCode.FLAG_INVALID, FrameCode.INVALID.flagMask);
+        Assert.assertEquals(Flag.CHECKSUM.getCode(), FrameCode.FLAG_CHECKSUM);
+    }
+
+    private static FrameCode[] createFrameCodes(Random random, int streamCount) {
+        Flag[] optional = {Flag.KEYFRAME, Flag.EOR, Flag.CODED_PTS, Flag.STREAM_ID, Flag.SIZE_MSB,
+                Flag.CHECKSUM};
+
+        FrameCode[] result = new FrameCode[256];
+        for (int i = 0; i < result.length; i++) {
+            if (i == 0 || i == 'N' || random.nextInt(8) == 0) {
+                result[i] = FrameCode.INVALID;
+                continue;
+            }
+
+            Set<Flag> flags = EnumSet.noneOf(Flag.class);
+            if (random.nextInt(10) == 0) {
+                flags.add(Flag.CODED_FLAGS);
+            }
+            for (Flag flag : optional) {
+                if (random.nextBoolean()) {
+                    flags.add(flag);
+                }
+            }
+
+            result[i] = new FrameCode(flags, random.nextInt(streamCount), 1 + random.nextInt(4),
+                    random.nextInt(8), random.nextInt(3), 0, 0, 0);
+        }
+
+        return result;
+    }
+
+    /**
+     * Frame code selection as it was implemented in NutWriter before the index.
+     */
+    private static int fullScan(FrameCode[] frameCodes, int streamId, boolean keyframe, boolean eor,
+                                long ptsDelta, long dataSize, boolean checksum) {
+        int ftnum = -1, size = 0;
+
+        for (int i = 0; i < 256; i++) {
+            int len = 1;
+            FrameCode ft = frameCodes[i];
+
+            Set<Flag> flags = ft.flags;
+            if (flags.contains(Flag.INVALID)) {
+                continue;
+            }
+
+            Set<Flag> fdFlags = EnumSet.noneOf(Flag.class);
+            if (keyframe) {
+                fdFlags.add(Flag.KEYFRAME);
+            }
+            if (eor) {
+                fdFlags.add(Flag.EOR);
+            }
+
+            if (flags.contains(Flag.CODED_FLAGS)) {
+                flags = EnumSet.copyOf(fdFlags);
+
+                if (ft.streamId != streamId) {
+                    flags.add(Flag.STREAM_ID);
+                }
+                if (ft.ptsDelta != ptsDelta) {
+                    flags.add(Flag.CODED_PTS);
+                }
+                if (ft.dataSizeLsb != dataSize) {
+                    flags.add(Flag.SIZE_MSB);
+                }
+                if (checksum) {
+                    flags.add(Flag.CHECKSUM);
+                }
+                flags.add(Flag.CODED_FLAGS);
+            }
+
+            Set<Flag> xor = Flag.xor(flags, fdFlags);
+            if (xor.contains(Flag.KEYFRAME) || xor.contains(Flag.EOR)) {
+                continue;
+            }
+            if (!flags.contains(Flag.STREAM_ID) && ft.streamId != streamId) {
+                continue;
+            }
+            if (!flags.contains(Flag.CODED_PTS) && ft.ptsDelta != ptsDelta) {
+                continue;
+            }
+            if (flags.contains(Flag.SIZE_MSB)) {
+                if ((dataSize - ft.dataSizeLsb) % ft.dataSizeMul != 0) {
+                    continue;
+                }
+            } else {
+                if (ft.dataSizeLsb != dataSize) {
+                    continue;
+                }
+            }
+            if (!flags.contains(Flag.CHECKSUM) && checksum) {
+                continue;
+            }
+
+            if (flags.contains(Flag.CODED_FLAGS)) {
+                len += 8;
+            }
+            if (flags.contains(Flag.STREAM_ID)) {
+                len += 8;
+            }
+            if (flags.contains(Flag.CODED_PTS)) {
+                len += 8;
+            }
+            if (flags.contains(Flag.SIZE_MSB)) {
+                len += 8;
+            }
+            if (flags.contains(Flag.CHECKSUM)) {
+                len += 4;
+            }
+
+            if (size == 0 || len < size) {
+                ftnum = i;
+                size = len;
+            }
+        }
+
+        return ftnum;
+    }
+}
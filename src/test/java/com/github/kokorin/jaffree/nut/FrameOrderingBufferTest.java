@@ -0,0 +1,56 @@
+package com.github.kokorin.jaffree.nut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class FrameOrderingBufferTest {
+
+    @Test
+    public void pollInTimestampAndInsertionOrder() {
+        FrameOrderingBuffer buffer = new FrameOrderingBuffer();
+        Random random = new Random(42);
+
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            // a lot of equal timestamps, pts holds insertion order
+            long timestamp = random.nextInt(50);
+            buffer.add(timestamp, new NutFrame((int) timestamp, i, new byte[0], null, null, true, false));
+        }
+        Assert.assertEquals(count, buffer.size());
+        Assert.assertEquals(49, buffer.getMaxTimestamp());
+
+        NutFrame previous = null;
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(count - i, buffer.size());
+            long minTimestamp = buffer.getMinTimestamp();
+            NutFrame frame = buffer.poll();
+            Assert.assertEquals(frame.streamId, minTimestamp);
+
+            if (previous != null) {
+                Assert.assertTrue(previous.streamId <= frame.streamId);
+                if (previous.streamId == frame.streamId) {
+                    Assert.assertTrue(previous.pts < frame.pts);
+                }
+            }
+            previous = frame;
+        }
+
+        Assert.assertTrue(buffer.isEmpty());
+        Assert.assertNull(buffer.poll());
+    }
+
+    @Test
+    public void maxTimestampIsResetWhenBufferIsDrained() {
+        FrameOrderingBuffer buffer = new FrameOrderingBuffer();
+        buffer.add(100, new NutFrame(0, 0, new byte[0], null, null, true, false));
+        buffer.add(10, new NutFrame(0, 0, new byte[0], null, null, true, false));
+        Assert.assertEquals(100, buffer.getMaxTimestamp());
+
+        buffer.poll();
+        buffer.poll();
+        buffer.add(20, new NutFrame(0, 0, new byte[0], null, null, true, false));
+        Assert.assertEquals(20, buffer.getMaxTimestamp());
+    }
+}
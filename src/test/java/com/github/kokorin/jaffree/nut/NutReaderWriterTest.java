@@ -0,0 +1,536 @@
+package com.github.kokorin.jaffree.nut;
+
+import com.github.kokorin.jaffree.Rational;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.EnumSet;
+
+public class NutReaderWriterTest {
+
+    private static final int VIDEO_FRAME_SIZE = 64 * 48 * 3;
+    private static final int AUDIO_FRAME_SIZE = 1024;
+    private static final int FRAME_COUNT = 100;
+
+    @Test
+    public void readWithoutPool() throws Exception {
+        byte[] nut = writeNut(FRAME_COUNT);
+
+        NutReader reader = new NutReader(new NutInputStream(new ByteArrayInputStream(nut)));
+        Assert.assertEquals(2, reader.getMainHeader().streamCount);
+
+        int count = 0;
+        NutFrame frame;
+        while ((frame = reader.readFrame()) != null) {
+            if (frame.eor) {
+                continue;
+            }
+            Assert.assertNotNull(frame.data);
+            assertPayload(frame);
+            count++;
+        }
+
+        Assert.assertEquals(2 * FRAME_COUNT, count);
+    }
+
+    @Test
+    public void readWithPool() throws Exception {
+        byte[] nut = writeNut(FRAME_COUNT);
+
+        for (boolean direct : new boolean[]{false, true}) {
+            NutBufferPool pool = new NutBufferPool(direct, 4);
+            NutReader reader = new NutReader(new NutInputStream(new ByteArrayInputStream(nut)));
+            reader.setBufferPool(pool);
+
+            int count = 0;
+            NutFrame frame;
+            while ((frame = reader.readFrame()) != null) {
+                if (!frame.eor) {
+                    Assert.assertNull(frame.data);
+                    Assert.assertEquals(direct, frame.getBuffer().isDirect());
+                    assertPayload(frame);
+                    count++;
+                }
+                frame.release();
+            }
+
+            Assert.assertEquals(2 * FRAME_COUNT, count);
+            // Every frame is released right after reading, so buffers are recycled
+            Assert.assertTrue(pool.getAllocationCount() <= 3);
+        }
+    }
+
+    @Test
+    public void readFromChannel() throws Exception {
+        byte[] nut = writeNut(FRAME_COUNT);
+
+        NutInputStream input = new NutInputStream(Channels.newChannel(new ByteArrayInputStream(nut)));
+        NutReader reader = new NutReader(input);
+        reader.setBufferPool(new NutBufferPool(true, 4));
+
+        int count = 0;
+        NutFrame frame;
+        while ((frame = reader.readFrame()) != null) {
+            if (!frame.eor) {
+                assertPayload(frame);
+                count++;
+            }
+            frame.release();
+        }
+
+        Assert.assertEquals(2 * FRAME_COUNT, count);
+        Assert.assertEquals(nut.length, input.getPosition());
+    }
+
+    @Test
+    public void readFromByteBuffer() throws Exception {
+        byte[] nut = writeNut(FRAME_COUNT);
+
+        NutInputStream input = new NutInputStream(ByteBuffer.wrap(nut));
+        NutReader reader = new NutReader(input);
+        reader.setChecksumVerification(true);
+        Assert.assertNotNull(reader.getIndex());
+
+        int count = 0;
+        NutFrame frame;
+        while ((frame = reader.readFrame()) != null) {
+            if (!frame.eor) {
+                assertPayload(frame);
+                count++;
+            }
+        }
+
+        Assert.assertEquals(2 * FRAME_COUNT, count);
+        Assert.assertEquals(nut.length, input.getPosition());
+    }
+
+    @Test
+    public void readFromMappedFile() throws Exception {
+        Path path = Files.createTempFile("mapped", ".nut");
+        try {
+            byte[] nut = writeNut(FRAME_COUNT, 1024);
+            Files.write(path, nut);
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                NutInputStream input = NutInputStream.map(channel);
+                // Smaller than video frame: windows are remapped and some frames exceed them
+                input.setWindowSize(4096);
+                Assert.assertTrue(input.isMemoryBacked());
+
+                NutReader reader = new NutReader(input);
+                reader.setChecksumVerification(true);
+                Assert.assertNotNull(reader.getIndex());
+
+                int count = 0;
+                NutFrame frame;
+                while ((frame = reader.readFrame()) != null) {
+                    if (!frame.eor) {
+                        Assert.assertNull(frame.data);
+                        Assert.assertTrue(frame.getBuffer().isReadOnly());
+                        assertPayload(frame);
+                        count++;
+                    }
+                }
+                Assert.assertEquals(2 * FRAME_COUNT, count);
+                Assert.assertEquals(nut.length, input.getPosition());
+
+                reader.seek(0, 50);
+                do {
+                    frame = reader.readFrame();
+                    assertPayload(frame);
+                } while (frame.streamId != 0 || frame.pts != 50);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void skipFramesOfFilteredStreams() throws Exception {
+        byte[] nut = writeNut(FRAME_COUNT);
+
+        NutReader reader = new NutReader(new NutInputStream(new ByteArrayInputStream(nut)));
+        reader.setChecksumVerification(true);
+        reader.setStreamFilter(Collections.singleton(1));
+
+        long expectedPts = 0;
+        NutFrame frame;
+        while ((frame = reader.readFrame()) != null) {
+            Assert.assertEquals(1, frame.streamId);
+            if (!frame.eor) {
+                Assert.assertEquals(expectedPts, frame.pts);
+                assertPayload(frame);
+                expectedPts += 1764;
+            }
+        }
+
+        Assert.assertEquals(FRAME_COUNT * 1764L, expectedPts);
+    }
+
+    @Test
+    public void writeToGatheringChannel() throws Exception {
+        byte[] expected = writeNut(FRAME_COUNT);
+
+        Path path = Files.createTempFile("gathering", ".nut");
+        try {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                NutWriter writer = new NutWriter(new NutOutputStream(channel));
+                initWriter(writer);
+                writeFrames(writer, FRAME_COUNT);
+                writer.writeFooter();
+            }
+
+            Assert.assertArrayEquals(expected, Files.readAllBytes(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void verifyChecksums() throws Exception {
+        // Small max distance forces frame header checksums for video frames
+        for (int maxDistance : new int[]{Short.MAX_VALUE, 1024}) {
+            byte[] nut = writeNut(FRAME_COUNT, maxDistance);
+
+            for (NutInputStream input : new NutInputStream[]{
+                    new NutInputStream(new ByteArrayInputStream(nut)),
+                    new NutInputStream(Channels.newChannel(new ByteArrayInputStream(nut)))}) {
+                NutReader reader = new NutReader(input);
+                reader.setChecksumVerification(true);
+
+                int count = 0;
+                NutFrame frame;
+                while ((frame = reader.readFrame()) != null) {
+                    if (!frame.eor) {
+                        assertPayload(frame);
+                        count++;
+                    }
+                }
+
+                Assert.assertEquals(2 * FRAME_COUNT, count);
+            }
+        }
+    }
+
+    @Test
+    public void detectCorruptedPacket() throws Exception {
+        byte[] nut = writeNut(FRAME_COUNT);
+
+        // Corrupt main header's footer checksum
+        NutInputStream headerInput = new NutInputStream(new ByteArrayInputStream(nut));
+        headerInput.readCString();
+        headerInput.readLong();
+        long forwardPtr = headerInput.readValue();
+        nut[(int) (headerInput.getPosition() + forwardPtr - 4)] ^= 1;
+
+        NutReader reader = new NutReader(new NutInputStream(new ByteArrayInputStream(nut)));
+        Assert.assertEquals(2, reader.getMainHeader().streamCount);
+
+        reader = new NutReader(new NutInputStream(new ByteArrayInputStream(nut)));
+        reader.setChecksumVerification(true);
+        try {
+            reader.getMainHeader();
+            Assert.fail("Corrupted checksum must be detected");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().contains("checksum"));
+        }
+    }
+
+    @Test
+    public void writeIndex() throws Exception {
+        byte[] nut = writeNut(FRAME_COUNT, 1024);
+
+        NutReader reader = new NutReader(new NutInputStream(new ByteArrayInputStream(nut)));
+        reader.setChecksumVerification(true);
+        while (reader.readFrame() != null) {
+            // read till the end, index is read as well
+        }
+
+        NutIndex index = reader.getIndex();
+        Assert.assertNotNull(index);
+        // the last video and audio frames have the same timestamp, video frame is written first
+        Assert.assertEquals(new Timestamp(0, FRAME_COUNT - 1), index.maxPts);
+        Assert.assertTrue(index.syncPointPositions.length > 1);
+
+        long[] videoKeyframePts = index.keyframePts[0];
+        Assert.assertEquals(NutIndex.NO_PTS, videoKeyframePts[0]);
+        long lastPts = -1;
+        int keyframes = 0;
+        for (int i = 0; i < index.syncPointPositions.length; i++) {
+            long position = index.syncPointPositions[i];
+            // syncpoint startcode is up to 15 bytes after indexed position
+            Assert.assertTrue(findStartcode(nut, position, NutConst.SYNCPOINT_STARTCODE) < position + 16);
+
+            if (videoKeyframePts[i] != NutIndex.NO_PTS) {
+                Assert.assertTrue(videoKeyframePts[i] > lastPts);
+                lastPts = videoKeyframePts[i];
+                keyframes++;
+            }
+        }
+        Assert.assertTrue(keyframes > 1);
+
+        // index_ptr is 12 bytes before the end
+        long indexPtr = ByteBuffer.wrap(nut, nut.length - 12, 8).getLong();
+        Assert.assertEquals(nut.length - indexPtr,
+                findStartcode(nut, nut.length - indexPtr, NutConst.INDEX_STARTCODE));
+    }
+
+    @Test
+    public void seekWithIndex() throws Exception {
+        Path path = Files.createTempFile("seek", ".nut");
+        try {
+            Files.write(path, writeNut(FRAME_COUNT, 1024));
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                NutReader reader = new NutReader(new NutInputStream(channel));
+                reader.setChecksumVerification(true);
+                Assert.assertNotNull(reader.getIndex());
+
+                for (long target : new long[]{FRAME_COUNT - 1, 0, 37, 38, 1}) {
+                    reader.seek(0, target);
+
+                    NutFrame frame;
+                    long firstVideoPts = -1;
+                    do {
+                        frame = reader.readFrame();
+                        Assert.assertNotNull(frame);
+                        assertPayload(frame);
+                        if (frame.streamId == 0 && firstVideoPts == -1) {
+                            firstVideoPts = frame.pts;
+                        }
+                    } while (frame.streamId != 0 || frame.pts != target);
+
+                    Assert.assertTrue(firstVideoPts <= target);
+                    // syncpoint before the keyframe is found, not the first one
+                    Assert.assertTrue(target - firstVideoPts < 10);
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void seekBackIntoFrameBiggerThanBuffer() throws Exception {
+        // bigger than NutInputStream's buffer: payload is read directly from the channel
+        int frameSize = 150 * 1024;
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        NutWriter writer = new NutWriter(new NutOutputStream(outputStream));
+        initWriter(writer, 1024);
+        for (int i = 0; i < 3; i++) {
+            writer.writeFrame(createFrame(0, i, frameSize));
+        }
+        writer.writeFooter();
+
+        Path path = Files.createTempFile("seek", ".nut");
+        try {
+            Files.write(path, outputStream.toByteArray());
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                NutInputStream input = new NutInputStream(channel);
+                NutReader reader = new NutReader(input);
+                reader.setChecksumVerification(true);
+
+                NutFrame frame = reader.readFrame();
+                Assert.assertEquals(0, frame.pts);
+                Assert.assertEquals(frameSize, frame.getDataSize());
+
+                // the last bytes of the payload
+                int tail = 4096;
+                input.seek(input.getPosition() - tail);
+                byte[] bytes = input.readBytes(tail);
+                for (int i = 0; i < tail; i++) {
+                    Assert.assertEquals((byte) (frameSize - tail + i), bytes[i]);
+                }
+
+                reader.seek(0, 1);
+                frame = reader.readFrame();
+                Assert.assertEquals(1, frame.pts);
+                ByteBuffer payload = frame.getBuffer();
+                for (int i = 0; i < frameSize; i++) {
+                    Assert.assertEquals((byte) (1 + i), payload.get());
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void noIndex() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        NutWriter writer = new NutWriter(new NutOutputStream(outputStream));
+        writer.setWriteIndex(false);
+        initWriter(writer);
+        writeFrames(writer, 10);
+        writer.writeFooter();
+
+        Path path = Files.createTempFile("noindex", ".nut");
+        try {
+            Files.write(path, outputStream.toByteArray());
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                NutReader reader = new NutReader(new NutInputStream(channel));
+                Assert.assertNull(reader.getIndex());
+
+                // Reading still starts right after headers
+                NutFrame frame = reader.readFrame();
+                Assert.assertEquals(0, frame.pts);
+                assertPayload(frame);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void flushPolicies() throws Exception {
+        byte[] expected = writeNut(FRAME_COUNT);
+
+        FlushCountingOutputStream lowLatency = new FlushCountingOutputStream();
+        NutOutputStream lowLatencyOutput = new NutOutputStream(lowLatency);
+        NutWriter writer = new NutWriter(lowLatencyOutput);
+        writer.setFlushPolicy(FlushPolicy.LOW_LATENCY);
+        initWriter(writer);
+        writeFrames(writer, FRAME_COUNT);
+        writer.writeFooter();
+
+        FlushCountingOutputStream throughput = new FlushCountingOutputStream();
+        NutOutputStream throughputOutput = new NutOutputStream(throughput, 256 * 1024);
+        writer = new NutWriter(throughputOutput);
+        writer.setFlushPolicy(FlushPolicy.THROUGHPUT);
+        initWriter(writer);
+        writeFrames(writer, FRAME_COUNT);
+        writer.writeFooter();
+
+        // Flush policy doesn't affect written data
+        Assert.assertArrayEquals(expected, lowLatency.toByteArray());
+        Assert.assertArrayEquals(expected, throughput.toByteArray());
+
+        // every frame (including EOR frames) is flushed
+        Assert.assertTrue(lowLatency.flushCount >= 2 * FRAME_COUNT + 2);
+        Assert.assertEquals(1, throughput.flushCount);
+        Assert.assertEquals(1, throughputOutput.getFlushCount());
+
+        Assert.assertEquals(expected.length, lowLatencyOutput.getWrittenBytes());
+        Assert.assertEquals(expected.length, throughputOutput.getWrittenBytes());
+        Assert.assertTrue(throughputOutput.getWriteCount() < lowLatencyOutput.getWriteCount());
+    }
+
+    @Test
+    public void poolRetainsLimitedNumberOfBuffers() {
+        NutBufferPool pool = new NutBufferPool(false, 2);
+
+        ByteBuffer b1 = pool.acquire(10);
+        ByteBuffer b2 = pool.acquire(20);
+        ByteBuffer b3 = pool.acquire(30);
+        Assert.assertEquals(3, pool.getAllocationCount());
+        Assert.assertEquals(10, b1.remaining());
+
+        pool.release(b1);
+        pool.release(b2);
+        pool.release(b3);
+        Assert.assertEquals(2, pool.getIdleCount());
+
+        // The smallest buffer has been dropped, best fitting one is reused
+        ByteBuffer reused = pool.acquire(15);
+        Assert.assertSame(b2, reused);
+        Assert.assertEquals(15, reused.remaining());
+        Assert.assertEquals(3, pool.getAllocationCount());
+    }
+
+    static byte[] writeNut(int frameCount) throws Exception {
+        return writeNut(frameCount, Short.MAX_VALUE);
+    }
+
+    static byte[] writeNut(int frameCount, int maxDistance) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        NutWriter writer = new NutWriter(new NutOutputStream(outputStream));
+        initWriter(writer, maxDistance);
+        writeFrames(writer, frameCount);
+        writer.writeFooter();
+
+        return outputStream.toByteArray();
+    }
+
+    static void writeFrames(NutWriter writer, int frameCount) throws Exception {
+        for (int i = 0; i < frameCount; i++) {
+            writer.writeFrame(createFrame(0, i, VIDEO_FRAME_SIZE));
+            writer.writeFrame(createFrame(1, i * 1764L, AUDIO_FRAME_SIZE));
+        }
+    }
+
+    static void initWriter(NutWriter writer) {
+        initWriter(writer, Short.MAX_VALUE);
+    }
+
+    static void initWriter(NutWriter writer, int maxDistance) {
+        FrameCode[] frameCodes = new FrameCode[256];
+        for (int i = 0; i < frameCodes.length; i++) {
+            frameCodes[i] = FrameCode.INVALID;
+        }
+        frameCodes[1] = new FrameCode(EnumSet.of(FrameCode.Flag.CODED_FLAGS),
+                0, 1, 0, 0, 0, 0, 0);
+
+        writer.setMainHeader(2, maxDistance,
+                new Rational[]{new Rational(1, 25), new Rational(1, 44100)},
+                frameCodes);
+        writer.setStreamHeaders(new StreamHeader[]{
+                new StreamHeader(0, StreamHeader.Type.VIDEO, new byte[]{'B', 'G', 'R', 24},
+                        0, 0, 60_000, 0, EnumSet.noneOf(StreamHeader.Flag.class), new byte[0],
+                        new StreamHeader.Video(64, 48, 1, 1,
+                                StreamHeader.ColourspaceType.UNKNOWN), null),
+                new StreamHeader(1, StreamHeader.Type.AUDIO, new byte[]{32, 'D', 'S', 'P'},
+                        1, 0, 60_000, 0, EnumSet.noneOf(StreamHeader.Flag.class), new byte[0],
+                        null, new StreamHeader.Audio(new Rational(44100, 1), 2))
+        });
+        writer.setInfos(new Info[0]);
+    }
+
+    static NutFrame createFrame(int streamId, long pts, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (streamId + pts + i);
+        }
+        return new NutFrame(streamId, pts, data, new DataItem[0], new DataItem[0], true, false);
+    }
+
+    static long findStartcode(byte[] nut, long from, long startcode) {
+        ByteBuffer buffer = ByteBuffer.wrap(nut);
+        for (int i = (int) from; i + 8 <= nut.length; i++) {
+            if (buffer.getLong(i) == startcode) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class FlushCountingOutputStream extends ByteArrayOutputStream {
+        private int flushCount = 0;
+
+        @Override
+        public void flush() {
+            flushCount++;
+        }
+    }
+
+    static void assertPayload(NutFrame frame) {
+        ByteBuffer buffer = frame.getBuffer();
+        int expectedSize = frame.streamId == 0 ? VIDEO_FRAME_SIZE : AUDIO_FRAME_SIZE;
+        Assert.assertEquals(expectedSize, frame.getDataSize());
+        Assert.assertEquals(expectedSize, buffer.remaining());
+
+        for (int i = 0; i < expectedSize; i++) {
+            Assert.assertEquals((byte) (frame.streamId + frame.pts + i), buffer.get());
+        }
+    }
+}
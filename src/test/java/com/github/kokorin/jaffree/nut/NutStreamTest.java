@@ -5,6 +5,10 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
 
 public class NutStreamTest {
     private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
@@ -12,6 +16,92 @@ public class NutStreamTest {
 
     @Test
     public void testReadWrite() throws Exception {
+        writeAll();
+
+        NutInputStream input = new NutInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertReadAll(input);
+    }
+
+    @Test
+    public void testReadFromChannel() throws Exception {
+        writeAll();
+
+        NutInputStream input = new NutInputStream(
+                Channels.newChannel(new ByteArrayInputStream(outputStream.toByteArray())));
+        assertReadAll(input);
+    }
+
+    @Test
+    public void testReadFromSlowStream() throws Exception {
+        writeAll();
+
+        // Stream returns at most 1 byte per read, like a slow socket
+        InputStream slowStream = new FilterInputStream(new ByteArrayInputStream(outputStream.toByteArray())) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+
+            @Override
+            public int available() {
+                return 0;
+            }
+        };
+
+        NutInputStream input = new NutInputStream(slowStream);
+        assertReadAll(input);
+        Assert.assertEquals(outputStream.size(), input.getPosition());
+        Assert.assertFalse(input.hasMoreData());
+    }
+
+    @Test
+    public void testCrcOfLargeField() throws Exception {
+        byte[] field = new byte[120 * 1024];
+        for (int i = 0; i < field.length; i++) {
+            field[i] = (byte) (i * 31 + i / 7);
+        }
+        output.writeValue(356);
+        output.writeBytes(field);
+        output.close();
+
+        NutInputStream input = new NutInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        Assert.assertEquals(356L, input.readValue());
+        input.resetCrc32();
+        // Part of the field is copied from the buffer, the rest is read directly
+        Assert.assertArrayEquals(field, input.readBytes(field.length));
+
+        CRC32 expected = new CRC32();
+        expected.update(field);
+        Assert.assertEquals(expected.getValue(), input.getCrc32());
+    }
+
+    @Test
+    public void testWriteCrcOfLargeFieldOnly() throws Exception {
+        byte[] payload = new byte[64 * 1024];
+        byte[] field = new byte[32 * 1024];
+        for (int i = 0; i < field.length; i++) {
+            field[i] = (byte) (i * 17 + i / 5);
+        }
+
+        // payload isn't covered by checksum, big field is written without copying
+        output.resetCrc32();
+        output.writeValue(356);
+        output.stopCrc32();
+        output.writeBytes(payload);
+        output.resetCrc32();
+        output.writeBytes(field);
+        output.writeCrc32();
+        output.close();
+
+        NutInputStream input = new NutInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        Assert.assertEquals(356L, input.readValue());
+        input.skipBytes(payload.length);
+        input.resetCrc32();
+        input.skipBytes(field.length);
+        Assert.assertEquals(input.getCrc32(), input.readInt());
+    }
+
+    private void writeAll() throws Exception {
         output.writeValue(1);
         output.writeValue(356);
         output.writeValue(0x7ABCDEF012L);
@@ -27,8 +117,9 @@ public class NutStreamTest {
         output.writeVariablesString("Test/\\Me");
         output.writeTimestamp(2, new Timestamp(1, 1100));
         output.close();
+    }
 
-        NutInputStream input = new NutInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+    private static void assertReadAll(NutInputStream input) throws Exception {
         long prevPosition = 0;
         Assert.assertEquals(1L, input.readValue());
         prevPosition = assertIncreasedPosition(prevPosition, input);
@@ -0,0 +1,145 @@
+package com.github.kokorin.jaffree.nut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.github.kokorin.jaffree.nut.NutReaderWriterTest.assertPayload;
+import static com.github.kokorin.jaffree.nut.NutReaderWriterTest.createFrame;
+import static com.github.kokorin.jaffree.nut.NutReaderWriterTest.findStartcode;
+import static com.github.kokorin.jaffree.nut.NutReaderWriterTest.initWriter;
+import static com.github.kokorin.jaffree.nut.NutReaderWriterTest.writeFrames;
+import static com.github.kokorin.jaffree.nut.NutReaderWriterTest.writeNut;
+
+public class NutSyncPointScannerTest {
+
+    private static final int FRAME_COUNT = 100;
+
+    @Test
+    public void scanFindsAllSyncPoints() throws Exception {
+        Path path = Files.createTempFile("scan", ".nut");
+        try {
+            byte[] nut = writeNut(FRAME_COUNT, 1024);
+            Files.write(path, nut);
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                NutReader reader = new NutReader(new NutInputStream(channel));
+                NutIndex index = reader.getIndex();
+
+                NutSyncPointScanner scanner = new NutSyncPointScanner(reader.getMainHeader());
+                SyncPointTable table = scanner.scan(channel);
+
+                // Small chunks: a lot of syncpoints cross chunk boundaries
+                scanner.setChunkSize(4096);
+                SyncPointTable chunked = scanner.scan(channel);
+                Assert.assertArrayEquals(table.positions, chunked.positions);
+
+                SyncPointTable fromIndex = scanner.scan(channel, index);
+                Assert.assertArrayEquals(table.positions, fromIndex.positions);
+                Assert.assertEquals(table.syncPoints[1].backPtrDiv16,
+                        fromIndex.syncPoints[1].backPtrDiv16);
+
+                Assert.assertEquals(index.syncPointPositions.length, table.size());
+                for (int i = 0; i < table.size(); i++) {
+                    long position = table.positions[i];
+                    Assert.assertEquals(NutConst.SYNCPOINT_STARTCODE,
+                            ByteBuffer.wrap(nut).getLong((int) position));
+
+                    long indexPosition = index.syncPointPositions[i];
+                    Assert.assertTrue(position >= indexPosition && position < indexPosition + 16);
+                }
+                Assert.assertEquals(0, table.syncPoints[0].globalKeyPts.pts);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void skipStartcodeInFramePayload() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        NutWriter writer = new NutWriter(new NutOutputStream(outputStream));
+        initWriter(writer, 1024);
+
+        // syncpoint-like packet with wrong checksum
+        NutFrame frame = createFrame(1, 0, 1024);
+        ByteBuffer.wrap(frame.data)
+                .putLong(NutConst.SYNCPOINT_STARTCODE)
+                .put(new byte[]{6, 0, 0, 1, 2, 3, 4});
+        writer.writeFrame(frame);
+        writer.writeFooter();
+
+        byte[] nut = outputStream.toByteArray();
+        Path path = Files.createTempFile("scan", ".nut");
+        try {
+            Files.write(path, nut);
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                NutReader reader = new NutReader(new NutInputStream(channel));
+                NutSyncPointScanner scanner = new NutSyncPointScanner(reader.getMainHeader());
+                SyncPointTable table = scanner.scan(channel);
+
+                Assert.assertEquals(reader.getIndex().syncPointPositions.length, table.size());
+                long fake = -1;
+                int found = 0;
+                while ((fake = findStartcode(nut, fake + 1, NutConst.SYNCPOINT_STARTCODE)) != -1) {
+                    found++;
+                }
+                Assert.assertEquals(table.size() + 1, found);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void seekWithSyncPointTable() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        NutWriter writer = new NutWriter(new NutOutputStream(outputStream));
+        writer.setWriteIndex(false);
+        initWriter(writer, 1024);
+        writeFrames(writer, FRAME_COUNT);
+        writer.writeFooter();
+
+        Path path = Files.createTempFile("seek", ".nut");
+        try {
+            Files.write(path, outputStream.toByteArray());
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                NutReader reader = new NutReader(new NutInputStream(channel));
+                reader.setChecksumVerification(true);
+                Assert.assertNull(reader.getIndex());
+
+                SyncPointTable table = new NutSyncPointScanner(reader.getMainHeader())
+                        .scan(channel);
+                reader.setSyncPointTable(table);
+
+                for (long target : new long[]{FRAME_COUNT - 1, 0, 37, 38, 1}) {
+                    reader.seek(0, target);
+
+                    NutFrame frame;
+                    long firstVideoPts = -1;
+                    do {
+                        frame = reader.readFrame();
+                        Assert.assertNotNull(frame);
+                        assertPayload(frame);
+                        if (frame.streamId == 0 && firstVideoPts == -1) {
+                            firstVideoPts = frame.pts;
+                        }
+                    } while (frame.streamId != 0 || frame.pts != target);
+
+                    Assert.assertTrue(firstVideoPts <= target);
+                    Assert.assertTrue(target - firstVideoPts < 10);
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}